@@ -42,16 +42,22 @@
 import me.ryanhamshire.griefprevention.claim.GPClaimResult;
 import me.ryanhamshire.griefprevention.configuration.ClaimTemplateStorage;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
+import me.ryanhamshire.griefprevention.configuration.PlayerStorageData;
 import me.ryanhamshire.griefprevention.configuration.type.ConfigBase;
 import me.ryanhamshire.griefprevention.configuration.type.GlobalConfig;
 import me.ryanhamshire.griefprevention.event.GPDeleteClaimEvent;
+import me.ryanhamshire.griefprevention.permission.GPFlagAnalysis;
 import me.ryanhamshire.griefprevention.permission.GPOptions;
+import me.ryanhamshire.griefprevention.permission.GPPermissionBatch;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.entity.living.player.User;
 import org.spongepowered.api.event.CauseStackManager;
 import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.permission.PermissionService;
+import org.spongepowered.api.service.permission.Subject;
 import org.spongepowered.api.service.permission.SubjectData;
 import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.text.Text;
@@ -77,7 +83,10 @@
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 //singleton class which manages all GriefPrevention data (except for config options)
@@ -91,7 +100,8 @@ public abstract class DataStore {
     public static Map<UUID, GriefPreventionConfig<ConfigBase>> worldConfigMap = Maps.newHashMap();
     public static Map<String, ClaimTemplateStorage> globalTemplates = new HashMap<>();
     public static GriefPreventionConfig<GlobalConfig> globalConfig;
-    public static Map<UUID, GPPlayerData> GLOBAL_PLAYER_DATA = Maps.newHashMap();
+    public static Map<UUID, GPPlayerData> GLOBAL_PLAYER_DATA = new PlayerDataCache();
+    public static Map<UUID, CompletableFuture<PlayerStorageData>> GLOBAL_PLAYER_STORAGE_PREFETCHES = new ConcurrentHashMap<>();
     public static boolean USE_GLOBAL_PLAYER_STORAGE = true;
     public static Map<ClaimType, Map<String, Boolean>> CLAIM_FLAG_DEFAULTS = Maps.newHashMap();
 
@@ -137,6 +147,11 @@ public abstract class DataStore {
     // list of UUIDs which are soft-muted
     Set<UUID> softMuteMap = ConcurrentHashMap.newKeySet();
 
+    // true while an option refresh for online players is queued
+    private final AtomicBoolean optionRefreshQueued = new AtomicBoolean(false);
+    private final AtomicBoolean optionRefreshAll = new AtomicBoolean(false);
+    private final Set<UUID> optionRefreshUsers = ConcurrentHashMap.newKeySet();
+
     protected int getSchemaVersion() {
         if (this.currentSchemaVersion >= 0) {
             return this.currentSchemaVersion;
@@ -316,6 +331,48 @@ private void saveSoftMutes() {
         }
     }
 
+    // refreshes cached option snapshots on the next tick, of the user whose data changed
+    // or of all online players when a group or default subject changed
+    // multiple requests before the refresh runs are coalesced into one
+    public void scheduleOptionRefresh(Subject subject) {
+        UUID playerUniqueId = null;
+        if (subject.getContainingCollection().getIdentifier().equals(PermissionService.SUBJECTS_USER)) {
+            try {
+                playerUniqueId = UUID.fromString(subject.getIdentifier());
+            } catch (IllegalArgumentException e) {
+                // the user collection's defaults apply to everyone
+            }
+        }
+        if (playerUniqueId != null) {
+            this.optionRefreshUsers.add(playerUniqueId);
+        } else {
+            this.optionRefreshAll.set(true);
+        }
+        if (!this.optionRefreshQueued.compareAndSet(false, true)) {
+            return;
+        }
+
+        Sponge.getScheduler().createTaskBuilder().delayTicks(1).execute(() -> {
+            this.optionRefreshQueued.set(false);
+            final boolean refreshAll = this.optionRefreshAll.getAndSet(false);
+            final Set<UUID> users = new HashSet<>();
+            final Iterator<UUID> iterator = this.optionRefreshUsers.iterator();
+            while (iterator.hasNext()) {
+                users.add(iterator.next());
+                iterator.remove();
+            }
+            for (Player player : Sponge.getServer().getOnlinePlayers()) {
+                if (!refreshAll && !users.contains(player.getUniqueId())) {
+                    continue;
+                }
+                final GPPlayerData playerData = this.getPlayerData(player.getWorld(), player.getUniqueId());
+                if (playerData != null) {
+                    playerData.refreshPlayerOptions();
+                }
+            }
+        }).submit(GriefPreventionPlugin.instance);
+    }
+
     // removes cached player data from memory
     public void clearCachedPlayerData(WorldProperties worldProperties, UUID playerUniqueId) {
         this.getClaimWorldManager(worldProperties).removePlayer(playerUniqueId);
@@ -403,6 +460,7 @@ public void extendClaim(GPClaim claim, int newDepth) {
         }
 
         claim.updateClaimStorageData();
+        this.getClaimWorldManager(claim.getWorld().getProperties()).markIndexChanged();
     }
 
     public ClaimResult createClaim(World world, Vector3i point1, Vector3i point2, ClaimType claimType, UUID ownerUniqueId, boolean cuboid) {
@@ -451,11 +509,12 @@ public ClaimResult deleteAllAdminClaims(CommandSource src, World world) {
             }
         }
 
+        final GPPermissionBatch permissionBatch = new GPPermissionBatch();
         for (Claim claim : claimsToDelete) {
             GPClaim gpClaim = (GPClaim) claim;
             gpClaim.removeSurfaceFluids(null);
 
-            GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().clearPermissions(ImmutableSet.of(claim.getContext()));
+            permissionBatch.clearPermissions(GriefPreventionPlugin.GLOBAL_SUBJECT, ImmutableSet.of(claim.getContext()));
             claimWorldManager.deleteClaimInternal(claim, true);
 
             // if in a creative mode world, delete the claim
@@ -463,6 +522,7 @@ public ClaimResult deleteAllAdminClaims(CommandSource src, World world) {
                 GriefPreventionPlugin.instance.restoreClaim((GPClaim) claim, 0);
             }
         }
+        permissionBatch.apply();
 
         return new GPClaimResult(claimsToDelete, ClaimResultType.SUCCESS);
     }
@@ -474,11 +534,13 @@ public ClaimResult deleteClaim(Claim claim, boolean deleteChildren) {
 
     // deletes all claims owned by a player
     public void deleteClaimsForPlayer(UUID playerID) {
+        // permission changes for all deleted claims are applied together off the main thread
+        final GPPermissionBatch permissionBatch = new GPPermissionBatch();
         if (DataStore.USE_GLOBAL_PLAYER_STORAGE && playerID != null) {
-            List<Claim> claimsToDelete = new ArrayList<>(DataStore.GLOBAL_PLAYER_DATA.get(playerID).getInternalClaims());
+            List<Claim> claimsToDelete = new ArrayList<>(this.getClaimWorldManager(null).getInternalPlayerClaims(playerID));
             for (Claim claim : claimsToDelete) {
                 ((GPClaim) claim).removeSurfaceFluids(null);
-                GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().clearPermissions(ImmutableSet.of(claim.getContext()));
+                permissionBatch.clearPermissions(GriefPreventionPlugin.GLOBAL_SUBJECT, ImmutableSet.of(claim.getContext()));
                 GPClaimManager claimWorldManager = this.claimWorldManagers.get(claim.getWorld().getProperties().getUniqueId());
                 claimWorldManager.deleteClaimInternal(claim, true);
 
@@ -487,6 +549,7 @@ public void deleteClaimsForPlayer(UUID playerID) {
                     GriefPreventionPlugin.instance.restoreClaim((GPClaim) claim, 0);
                 }
             }
+            permissionBatch.apply();
             return;
         }
 
@@ -508,7 +571,7 @@ public void deleteClaimsForPlayer(UUID playerID) {
  
             for (Claim claim : claimsToDelete) {
                 ((GPClaim) claim).removeSurfaceFluids(null);
-                GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().clearPermissions(ImmutableSet.of(claim.getContext()));
+                permissionBatch.clearPermissions(GriefPreventionPlugin.GLOBAL_SUBJECT, ImmutableSet.of(claim.getContext()));
                 claimWorldManager.deleteClaimInternal(claim, true);
 
                 // if in a creative mode world, delete the claim
@@ -517,6 +580,7 @@ public void deleteClaimsForPlayer(UUID playerID) {
                 }
             }
         }
+        permissionBatch.apply();
     }
 
     // used in updating the data schema from 0 to 1.
@@ -601,6 +665,51 @@ public GPPlayerData getOrCreatePlayerData(WorldProperties worldProperties, UUID
         return claimWorldManager.getOrCreatePlayerData(playerUniqueId);
     }
 
+    // starts loading a connecting player's data off the main thread, must be called on the main thread
+    // with per world storage, the default world is assumed since the target world is not known yet
+    public void prefetchPlayerData(UUID playerUniqueId) {
+        final Optional<WorldProperties> worldProperties = Sponge.getServer().getDefaultWorld();
+        if (!worldProperties.isPresent() || !GriefPreventionPlugin.instance.claimsEnabledForWorld(worldProperties.get())) {
+            return;
+        }
+        // only use a manager that is already registered, a login is no reason to load a world's claims
+        final GPClaimManager claimWorldManager = this.claimWorldManagers.get(worldProperties.get().getUniqueId());
+        if (claimWorldManager != null) {
+            claimWorldManager.prefetchPlayerData(playerUniqueId);
+        }
+    }
+
+    public void discardPlayerPrefetch(UUID playerUniqueId) {
+        if (USE_GLOBAL_PLAYER_STORAGE) {
+            GLOBAL_PLAYER_STORAGE_PREFETCHES.remove(playerUniqueId);
+            return;
+        }
+        for (GPClaimManager claimWorldManager : this.claimWorldManagers.values()) {
+            claimWorldManager.discardPlayerPrefetch(playerUniqueId);
+        }
+    }
+
+    // drops data of offline players that was not used recently, see PlayerDataCache
+    public void evictPlayerData() {
+        final int maxSize = GriefPreventionPlugin.getGlobalConfig().getConfig().playerdata.cacheMaxSize;
+        final int idleTimeout = GriefPreventionPlugin.getGlobalConfig().getConfig().playerdata.cacheIdleTimeout;
+        if (maxSize < 0 && idleTimeout < 0) {
+            return;
+        }
+        final long idleMillis = idleTimeout < 0 ? -1 : TimeUnit.MINUTES.toMillis(idleTimeout);
+        int evicted = 0;
+        if (USE_GLOBAL_PLAYER_STORAGE) {
+            evicted = this.getClaimWorldManager(null).evictPlayerData(maxSize, idleMillis);
+        } else {
+            for (GPClaimManager claimWorldManager : this.claimWorldManagers.values()) {
+                evicted += claimWorldManager.evictPlayerData(maxSize, idleMillis);
+            }
+        }
+        if (evicted > 0) {
+            GriefPreventionPlugin.addLogEntry("Evicted " + evicted + " idle player data from memory.");
+        }
+    }
+
     public void removePlayerData(WorldProperties worldProperties, UUID playerUniqueId) {
         GPClaimManager claimWorldManager = this.getClaimWorldManager(worldProperties);
         claimWorldManager.removePlayer(playerUniqueId);
@@ -654,6 +763,7 @@ public void setupDefaultPermissions(World world) {
         CLAIM_FLAG_DEFAULTS.put(ClaimType.WILDERNESS, wildernessDefaults);
         this.setFlagDefaultPermissions(contexts, wildernessDefaults);
         this.setOptionDefaultPermissions();
+        GPFlagAnalysis.scheduleFullAnalysis();
     }
 
     private void setFlagDefaultPermissions(Set<Context> contexts, Map<String, Boolean> defaultFlags) {
@@ -25,518 +25,131 @@
  */
 package me.ryanhamshire.griefprevention;
 
-import me.ryanhamshire.griefprevention.claim.GPClaim;
-import org.spongepowered.api.world.World;
+import me.ryanhamshire.griefprevention.configuration.BinaryClaimStore;
+import me.ryanhamshire.griefprevention.configuration.ClaimStore;
+import me.ryanhamshire.griefprevention.configuration.DatabaseClaimStore;
+import me.ryanhamshire.griefprevention.configuration.SqlStorage;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import org.spongepowered.api.world.storage.WorldProperties;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Properties;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
-//manages data stored in the file system
-public class DatabaseDataStore extends DataStore {
+//manages data stored in a database, world and dimension configs stay in the file system
+public class DatabaseDataStore extends FlatFileDataStore {
 
-    private Connection databaseConnection = null;
+    private final String databaseUrl;
+    private SqlStorage storage;
 
-    private String databaseUrl;
-    private String userName;
-    private String password;
-
-    DatabaseDataStore(String url, String userName, String password) throws Exception {
+    public DatabaseDataStore(String url) {
         this.databaseUrl = url;
-        this.userName = userName;
-        this.password = password;
-
-        this.initialize();
     }
 
-    @SuppressWarnings({"unused", "null"})
     @Override
     void initialize() throws Exception {
-        /*try {
-            // load the java driver for mySQL
-            Class.forName("com.mysql.jdbc.Driver");
-        } catch (Exception e) {
-            GriefPreventionPlugin.addLogEntry("ERROR: Unable to load Java's mySQL database driver.  Check to make sure you've installed it properly.");
-            throw e;
-        }
-
         try {
-            this.refreshDataConnection();
-        } catch (Exception e2) {
+            this.storage = SqlStorage.open(this.databaseUrl);
+        } catch (Exception e) {
             GriefPreventionPlugin.addLogEntry("ERROR: Unable to connect to database.  Check your config file settings.");
-            throw e2;
-        }
-
-        try {
-            // ensure the data tables exist
-            Statement statement = databaseConnection.createStatement();
-
-            statement.execute("CREATE TABLE IF NOT EXISTS griefprevention_nextclaimid (nextid INT(15));");
-
-            statement.execute(
-                    "CREATE TABLE IF NOT EXISTS griefprevention_claimdata (id INT(15), owner VARCHAR(50), lessercorner VARCHAR(100), greatercorner "
-                            + "VARCHAR(100), builders VARCHAR(1000), containers VARCHAR(1000), accessors VARCHAR(1000), managers VARCHAR(1000), "
-                            + "parentid INT(15));");
-
-            statement.execute(
-                    "CREATE TABLE IF NOT EXISTS griefprevention_playerdata (name VARCHAR(50), lastlogin DATETIME, accruedblocks INT(15), "
-                            + "bonusblocks INT(15));");
-
-            statement.execute("CREATE TABLE IF NOT EXISTS griefprevention_schemaversion (version INT(15));");
-
-            // if the next claim id table is empty, this is a brand new database
-            // which will write using the latest schema
-            // otherwise, schema version is determined by schemaversion table
-            // (or =0 if table is empty, see getSchemaVersion())
-            ResultSet results = statement.executeQuery("SELECT * FROM griefprevention_nextclaimid;");
-            if (!results.next()) {
-                this.setSchemaVersion(latestSchemaVersion);
-            }
-        } catch (Exception e3) {
-            GriefPreventionPlugin.addLogEntry("ERROR: Unable to create the necessary database table.  Details:");
-            GriefPreventionPlugin.addLogEntry(e3.getMessage());
-            e3.printStackTrace();
-            throw e3;
-        }
-
-        // load group data into memory
-        Statement statement = databaseConnection.createStatement();
-        // load next claim number into memory
-        ResultSet results = statement.executeQuery("SELECT * FROM griefprevention_nextclaimid;");
-
-        // if there's nothing yet, add it
-        if (!results.next()) {
-            statement.execute("INSERT INTO griefprevention_nextclaimid VALUES(0);");
-        }
-
-        if (this.getSchemaVersion() == 0) {
-            try {
-                this.refreshDataConnection();
-
-                // pull ALL player data from the database
-                statement = this.databaseConnection.createStatement();
-                results = statement.executeQuery("SELECT * FROM griefprevention_playerdata;");
-
-                // make a list of changes to be made
-                HashMap<String, UUID> changes = new HashMap<String, UUID>();
-
-                ArrayList<String> namesToConvert = new ArrayList<String>();
-                while (results.next()) {
-                    // get the id
-                    String playerName = results.getString("name");
-
-                    // add to list of names to convert to UUID
-                    namesToConvert.add(playerName);
-                }
-
-                // reset results cursor
-                results.beforeFirst();
-
-                // for each result
-                while (results.next()) {
-                    // get the id
-                    String playerName = results.getString("name");
-
-                    // try to convert player name to UUID
-                    try {
-                        Optional<User> user = Sponge.getGame().getServiceManager().provide(UserStorageService.class).get().get(playerName);
-
-                        // if successful, update the playerdata row by replacing
-                        // the player's name with the player's UUID
-                        if (user.isPresent()) {
-                            changes.put(playerName, user.get().getUniqueId());
-                        }
-                    }
-                    // otherwise leave it as-is. no harm done - it won't be
-                    // requested by name, and this update only happens once.
-                    catch (Exception ex) {
-                    }
-                }
-
-                // refresh data connection in case data migration took a long time
-                this.refreshDataConnection();
-
-                for (String name : changes.keySet()) {
-                    try {
-                        statement = this.databaseConnection.createStatement();
-                        statement.execute(
-                                "UPDATE griefprevention_playerdata SET name = '" + changes.get(name).toString() + "' WHERE name = '" + name + "';");
-                    } catch (SQLException e) {
-                        GriefPreventionPlugin.addLogEntry("Unable to convert player data for " + name + ".  Skipping.");
-                        GriefPreventionPlugin.addLogEntry(e.getMessage());
-                    }
-                }
-            } catch (SQLException e) {
-                GriefPreventionPlugin.addLogEntry("Unable to convert player data.  Details:");
-                GriefPreventionPlugin.addLogEntry(e.getMessage());
-                e.printStackTrace();
-            }
-        }
-
-        // load claims data into memory
-        results = statement.executeQuery("SELECT * FROM griefprevention_claimdata;");
-
-        ArrayList<GPClaim> claimsToRemove = new ArrayList<GPClaim>();
-        ArrayList<GPClaim> subdivisionsToLoad = new ArrayList<GPClaim>();
-        List<World> validWorlds = (List<World>) Sponge.getGame().getServer().getWorlds();
-
-        while (results.next()) {
-            try {
-                // problematic claims will be removed from secondary storage,
-                // and never added to in-memory data store
-                boolean removeClaim = false;
-
-                long parentId = results.getLong("parentid");
-                long claimID = results.getLong("id");
-
-                Location<World> lesserBoundaryCorner = null;
-                Location<World> greaterBoundaryCorner = null;
-                String lesserCornerString = "(location not available)";
-                try {
-                    lesserCornerString = results.getString("lessercorner");
-                    Vector3i lesserPos = BlockUtils.positionFromString(lesserCornerString);
-                    // lesserBoundaryCorner = positionFromString(lesserCornerString);
-
-                    String greaterCornerString = results.getString("greatercorner");
-                    //greaterBoundaryCorner = positionFromString(greaterCornerString);
-                } catch (Exception e) {
-                    if (e.getMessage().contains("World not found")) {
-                        removeClaim = true;
-                        GriefPreventionPlugin.addLogEntry("Removing a claim in a world which does not exist: " + lesserCornerString);
-                        continue;
-                    } else {
-                        throw e;
-                    }
-                }
-
-                String ownerName = results.getString("owner");
-                Optional<User> owner = Optional.empty();
-                if (ownerName.isEmpty() || ownerName.startsWith("--")) {
-                    owner = Optional.empty(); // administrative land claim or subdivision
-                } else if (this.getSchemaVersion() < 1) {
-                    try {
-                        owner = Sponge.getGame().getServiceManager().provide(UserStorageService.class).get().get(ownerName);
-                    } catch (Exception ex) {
-                        GriefPreventionPlugin.addLogEntry("This owner name did not convert to a UUID: " + ownerName + ".");
-                        GriefPreventionPlugin.addLogEntry("  Converted land claim to administrative @ " + lesserBoundaryCorner.toString());
-                    }
-                }
-
-                String managersString = results.getString("managers");
-                List<String> managerNames = Arrays.asList(managersString.split(";"));
-                managerNames = this.convertNameListToUUIDList(managerNames);
-
-                GPClaim claim = new GPClaim(lesserBoundaryCorner, greaterBoundaryCorner, ClaimType.BASIC);
-                claim.ownerID = owner.get().getUniqueId();
-
-                if (removeClaim) {
-                    claimsToRemove.add(claim);
-                } else if (parentId == -1) {
-                    // top level claim
-                    this.addClaim(claim, false);
-                } else {
-                    // subdivision
-                    subdivisionsToLoad.add(claim);
-                }
-            } catch (SQLException e) {
-                GriefPreventionPlugin.addLogEntry("Unable to load a claim.  Details: " + e.getMessage() + " ... " + results.toString());
-                e.printStackTrace();
-            }
-        }
-
-        // add subdivisions to their parent claims
-        for (Claim childClaim : subdivisionsToLoad) {
-            // find top level claim parent
-            Claim topLevelClaim = this.getClaimAt(childClaim.getLesserBoundaryCorner(), true, null);
-
-            if (topLevelClaim == null) {
-                claimsToRemove.add(childClaim);
-                GriefPreventionPlugin.addLogEntry("Removing orphaned claim subdivision: " + childClaim.getLesserBoundaryCorner().toString());
-                continue;
-            }
-
-            // add this claim to the list of children of the current top level
-            // claim
-            childClaim.parent = topLevelClaim;
-            topLevelClaim.children.add(childClaim);
-        }
-
-        for (int i = 0; i < claimsToRemove.size(); i++) {
-            this.deleteClaimFromSecondaryStorage(claimsToRemove.get(i));
+            throw e;
         }
 
-        if (this.getSchemaVersion() <= 2) {
-            this.refreshDataConnection();
-            statement = this.databaseConnection.createStatement();
-            statement.execute("DELETE FROM griefprevention_claimdata WHERE id='-1';");
-        }*/
-
         super.initialize();
-    }
-
-    // see datastore.cs. this will ALWAYS be a top level claim
-    @Override
-    public void writeClaimToStorage(GPClaim claim) {
-        try {
-            this.refreshDataConnection();
-
-            // wipe out any existing data about this claim
-            this.deleteClaimFromSecondaryStorage(claim);
-
-            // write claim data to the database
-            this.writeClaimData(claim);
-        } catch (SQLException e) {
-            //GriefPrevention.AddLogEntry("Unable to save data for claim at " + this.locationToString(claim.lesserBoundaryCorner) + ".  Details:");
-            GriefPreventionPlugin.addLogEntry(e.getMessage());
+        if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
+            this.migratePlayerData(globalPlayerDataPath, SqlStorage.GLOBAL_SCOPE, "global");
         }
     }
 
-    // actually writes claim data to the database
-    private void writeClaimData(GPClaim claim) throws SQLException {
-        /*String lesserCornerString = this.locationToString(claim.getLesserBoundaryCorner());
-        String greaterCornerString = this.locationToString(claim.getGreaterBoundaryCorner());
-        String owner = "";
-        if (claim.ownerID != null)
-            owner = claim.ownerID.toString();
-
-        ArrayList<String> builders = new ArrayList<String>();
-        ArrayList<String> containers = new ArrayList<String>();
-        ArrayList<String> accessors = new ArrayList<String>();
-        ArrayList<String> managers = new ArrayList<String>();
-
-        claim.getPermissions(builders, containers, accessors, managers);
-
-        String buildersString = "";
-        for (int i = 0; i < builders.size(); i++) {
-            buildersString += builders.get(i) + ";";
-        }
-
-        String containersString = "";
-        for (int i = 0; i < containers.size(); i++) {
-            containersString += containers.get(i) + ";";
-        }
-
-        String accessorsString = "";
-        for (int i = 0; i < accessors.size(); i++) {
-            accessorsString += accessors.get(i) + ";";
-        }
-
-        String managersString = "";
-        for (int i = 0; i < managers.size(); i++) {
-            managersString += managers.get(i) + ";";
-        }
-
-        long parentId;
-        if (claim.parent == null) {
-            parentId = -1;
-        } else {
-            parentId = claim.parent.id;
-        }
-
-        try {
-            this.refreshDataConnection();
-
-            Statement statement = databaseConnection.createStatement();
-            statement.execute(
-                    "INSERT INTO griefprevention_claimdata (id, owner, lessercorner, greatercorner, builders, containers, accessors, managers,
-                    parentid) VALUES("
-                            +
-                            claim.id + ", '" +
-                            owner + "', '" +
-                            lesserCornerString + "', '" +
-                            greaterCornerString + "', '" +
-                            buildersString + "', '" +
-                            containersString + "', '" +
-                            accessorsString + "', '" +
-                            managersString + "', " +
-                            parentId +
-                            ");");
-        } catch (SQLException e) {
-            GriefPrevention.AddLogEntry("Unable to save data for claim at " + this.locationToString(claim.lesserBoundaryCorner) + ".  Details:");
-            GriefPrevention.AddLogEntry(e.getMessage());
-        }*/
-    }
-
-    // deletes a claim from the database
+    // Registers the world's database claim store, moving claim and player files of the world into the database once
     @Override
-    public void deleteClaimFromSecondaryStorage(GPClaim claim) {
-        try {
-            this.refreshDataConnection();
-
-            Statement statement = this.databaseConnection.createStatement();
-            statement.execute("DELETE FROM griefprevention_claimdata WHERE id='" + claim.id + "';");
-        } catch (SQLException e) {
-            GriefPreventionPlugin.addLogEntry("Unable to delete data for claim " + claim.id + ".  Details:");
-            GriefPreventionPlugin.addLogEntry(e.getMessage());
-            e.printStackTrace();
+    protected void prepareClaimStorage(WorldProperties worldProperties, Path worldDataPath) throws IOException {
+        if (ClaimStore.get(worldProperties.getUniqueId()) != null) {
+            return;
         }
-    }
 
-    /*@Override
-    PlayerData getPlayerDataFromStorage(UUID playerID) {
-        PlayerData playerData = new PlayerData();
-        playerData.playerID = playerID;
-
-        try {
-            this.refreshDataConnection();
-
-            Statement statement = this.databaseConnection.createStatement();
-            ResultSet results = statement.executeQuery("SELECT * FROM griefprevention_playerdata WHERE name='" + playerID.toString() + "';");
-
-            // if data for this player exists, use it
-            if (results.next()) {
-                playerData.setLastLogin(results.getTimestamp("lastlogin"));
-                playerData.setAccruedClaimBlocks(results.getInt("accruedblocks"));
-                playerData.setBonusClaimBlocks(results.getInt("bonusblocks"));
+        final DatabaseClaimStore claimStore = new DatabaseClaimStore(this.storage, worldProperties.getUniqueId(), worldDataPath);
+        final String backupSuffix = ".backup-" + System.currentTimeMillis();
+        final Path binaryDataPath = worldDataPath.resolve(BinaryClaimStore.DATA_FILE_NAME);
+        if (Files.exists(binaryDataPath)) {
+            final int count;
+            try (BinaryClaimStore binaryStore = BinaryClaimStore.open(worldDataPath)) {
+                count = claimStore.importClaimStore(binaryStore);
             }
-        } catch (SQLException e) {
-            StringWriter errors = new StringWriter();
-            e.printStackTrace(new PrintWriter(errors));
-            GriefPrevention.AddLogEntry(playerID + " " + errors.toString(), CustomLogEntryTypes.Exception);
+            this.storage.awaitWrites();
+            Files.move(binaryDataPath, worldDataPath.resolve(BinaryClaimStore.DATA_FILE_NAME + backupSuffix));
+            Files.deleteIfExists(worldDataPath.resolve(BinaryClaimStore.INDEX_FILE_NAME));
+            GriefPreventionPlugin.instance.getLogger().info("[" + worldProperties.getWorldName() + "] Imported " + count + " claims from " + binaryDataPath + " into the database.");
         }
-
-        return playerData;
-    }*/
-
-    // saves changes to player data. MUST be called after you're done making
-    // changes, otherwise a reload will lose them
-    @Override
-    public void overrideSavePlayerData(UUID playerID, GPPlayerData playerData) {
-        // never save data for the "administrative" account. an empty string for
-        // player name indicates administrative account
-        if (playerID == null) {
-            return;
+        final Path claimDataPath = worldDataPath.resolve("ClaimData");
+        if (Files.exists(claimDataPath)) {
+            final int count = claimStore.importClaimData(claimDataPath);
+            this.storage.awaitWrites();
+            Files.move(claimDataPath, worldDataPath.resolve("ClaimData" + backupSuffix));
+            GriefPreventionPlugin.instance.getLogger().info("[" + worldProperties.getWorldName() + "] Imported " + count + " claim files into the database.");
         }
-
-        //this.savePlayerData(playerID.toString(), playerData);
+        if (!DataStore.USE_GLOBAL_PLAYER_STORAGE) {
+            this.migratePlayerData(worldDataPath.resolve("PlayerData"), worldProperties.getUniqueId().toString(), worldProperties.getWorldName());
+        }
+        ClaimStore.register(worldProperties.getUniqueId(), claimStore);
     }
 
-   /* private void savePlayerData(String playerID, PlayerData playerData) {
-        try {
-            this.refreshDataConnection();
-
-            SimpleDateFormat sqlFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String dateString = sqlFormat.format(playerData.getLastLogin());
-
-            Statement statement = databaseConnection.createStatement();
-            statement.execute("DELETE FROM griefprevention_playerdata WHERE name='" + playerID.toString() + "';");
-            statement = databaseConnection.createStatement();
-            statement.execute("INSERT INTO griefprevention_playerdata (name, lastlogin, accruedblocks, bonusblocks) VALUES ('" + playerID.toString()
-                    + "', '" + dateString + "', " + playerData.getAccruedClaimBlocks() + ", " + playerData.getBonusClaimBlocks() + ");");
-        } catch (SQLException e) {
-            StringWriter errors = new StringWriter();
-            e.printStackTrace(new PrintWriter(errors));
-            GriefPrevention.AddLogEntry(playerID + " " + errors.toString(), CustomLogEntryTypes.Exception);
+    // Imports the player data files of the folder in one transaction, then keeps the folder as a backup.
+    // Nothing is imported and the folder stays in place if any file can't be read.
+    private void migratePlayerData(Path playerDataPath, String scope, String name) throws IOException {
+        final File[] files = playerDataPath.toFile().listFiles();
+        if (files == null || files.length == 0) {
+            return;
         }
-    }*/
 
-    void close() {
-        if (this.databaseConnection != null) {
+        final List<SqlStorage.PlayerRow> rows = new ArrayList<>();
+        int failed = 0;
+        for (File file : files) {
+            final UUID playerUniqueId;
+            try {
+                playerUniqueId = UUID.fromString(file.getName());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
             try {
-                if (!this.databaseConnection.isClosed()) {
-                    this.databaseConnection.close();
-                }
-            } catch (SQLException e) {
+                final ConfigurationNode node = HoconConfigurationLoader.builder().setPath(file.toPath()).build().load().getNode(GriefPreventionPlugin.MOD_ID);
+                rows.add(new SqlStorage.PlayerRow(playerUniqueId, scope, node.getNode("accrued-claim-blocks").getInt(),
+                        node.getNode("bonus-claim-blocks").getInt(), node.getNode("migrated-blocks").getBoolean()));
+            } catch (IOException e) {
+                GriefPreventionPlugin.instance.getLogger().error("Could not import player file " + file.getAbsolutePath(), e);
+                failed++;
             }
-            ;
         }
-
-        this.databaseConnection = null;
-    }
-
-    private void refreshDataConnection() throws SQLException {
-        if (this.databaseConnection == null || !this.databaseConnection.isValid(3)) {
-            // set username/pass properties
-            Properties connectionProps = new Properties();
-            connectionProps.put("user", this.userName);
-            connectionProps.put("password", this.password);
-            connectionProps.put("autoReconnect", "true");
-            connectionProps.put("maxReconnects", String.valueOf(Integer.MAX_VALUE));
-
-            // establish connection
-            this.databaseConnection = DriverManager.getConnection(this.databaseUrl, connectionProps);
+        if (failed > 0) {
+            throw new IOException("[" + name + "] " + failed + " player files in " + playerDataPath + " could not be read, no player data was imported.");
         }
-    }
 
-    @Override
-    protected int getSchemaVersionFromStorage() {
-        try {
-            this.refreshDataConnection();
-
-            Statement statement = this.databaseConnection.createStatement();
-            ResultSet results = statement.executeQuery("SELECT * FROM griefprevention_schemaversion;");
-
-            // if there's nothing yet, assume 0 and add it
-            if (!results.next()) {
-                this.setSchemaVersion(0);
-                return 0;
-            }
-
-            // otherwise return the value that's in the table
-            else {
-                return results.getInt("version");
-            }
-
-        } catch (SQLException e) {
-            GriefPreventionPlugin.addLogEntry("Unable to retrieve schema version from database.  Details:");
-            GriefPreventionPlugin.addLogEntry(e.getMessage());
-            e.printStackTrace();
-            return 0;
+        for (SqlStorage.PlayerRow row : rows) {
+            this.storage.queuePlayer(row);
         }
+        this.storage.awaitWrites();
+        Files.move(playerDataPath, playerDataPath.resolveSibling(playerDataPath.getFileName() + ".backup-" + System.currentTimeMillis()));
+        GriefPreventionPlugin.instance.getLogger().info("[" + name + "] Imported " + rows.size() + " player files into the database.");
     }
 
     @Override
-    protected void updateSchemaVersionInStorage(int versionToSet) {
-        try {
-            this.refreshDataConnection();
-
-            Statement statement = databaseConnection.createStatement();
-            statement.execute("DELETE FROM griefprevention_schemaversion;");
-            statement.execute("INSERT INTO griefprevention_schemaversion VALUES (" + versionToSet + ");");
-        } catch (SQLException e) {
-            GriefPreventionPlugin.addLogEntry("Unable to set next schema version to " + versionToSet + ".  Details:");
-            GriefPreventionPlugin.addLogEntry(e.getMessage());
+    protected File[] getPlayerDataFiles(WorldProperties worldProperties, Path worldDataPath) throws IOException {
+        final List<UUID> playerIds;
+        if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
+            playerIds = this.storage.readPlayerIds(SqlStorage.GLOBAL_SCOPE);
+        } else {
+            playerIds = this.storage.readPlayerIds(worldProperties.getUniqueId().toString());
         }
+        final File playerDataFolder = DataStore.USE_GLOBAL_PLAYER_STORAGE ? globalPlayerDataPath.toFile() : worldDataPath.resolve("PlayerData").toFile();
+        final File[] files = new File[playerIds.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(playerDataFolder, playerIds.get(i).toString());
+        }
+        return files;
     }
-
-    @Override
-    int getMigrationVersionFromStorage() {
-        return -1;
-    }
-
-    @Override
-    void updateMigrationVersionInStorage(int versionToSet) {
-    }
-
-    @Override
-    GPPlayerData getPlayerDataFromStorage(UUID playerID) {
-        return null;
-    }
-
-    @Override
-    public GPPlayerData getOrCreatePlayerData(WorldProperties worldProperties, UUID playerUniqueId) {
-        return null;
-    }
-
-    @Override
-    public void registerWorld(WorldProperties worldProperties) {
-    }
-
-    @Override
-    public void loadWorldData(World world) {
-    }
-
-    @Override
-    public void unloadWorldData(WorldProperties worldProperties) {
-    }
-
-    @Override
-    void loadClaimTemplates() {
-    }
-
 }
@@ -32,9 +32,13 @@
 import me.ryanhamshire.griefprevention.api.claim.ClaimType;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
 import me.ryanhamshire.griefprevention.claim.GPClaimManager;
+import me.ryanhamshire.griefprevention.configuration.BinaryClaimStore;
+import me.ryanhamshire.griefprevention.configuration.ClaimJournal;
 import me.ryanhamshire.griefprevention.configuration.ClaimStorageData;
+import me.ryanhamshire.griefprevention.configuration.ClaimStore;
 import me.ryanhamshire.griefprevention.configuration.ClaimTemplateStorage;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
+import me.ryanhamshire.griefprevention.configuration.StorageWriter;
 import me.ryanhamshire.griefprevention.configuration.TownStorageData;
 import me.ryanhamshire.griefprevention.configuration.type.ConfigBase;
 import me.ryanhamshire.griefprevention.logging.CustomLogEntryTypes;
@@ -58,8 +62,17 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //manages data stored in the file system
 public class FlatFileDataStore extends DataStore {
@@ -76,6 +89,8 @@ public class FlatFileDataStore extends DataStore {
     private final Path rootConfigPath = GriefPreventionPlugin.instance.getConfigPath().resolve("worlds");
     public static Path rootWorldSavePath;
     private int claimLoadCount = 0;
+    // Claim parsing is disk and cpu bound, more threads than this only contend on the disk
+    private static final int MAX_CLAIM_LOADER_THREADS = 8;
 
     public FlatFileDataStore() {
     }
@@ -138,12 +153,15 @@ public void registerWorld(WorldProperties worldProperties) {
         Path newWorldDataPath = dimPath.resolve(worldProperties.getWorldName());
 
         try {
+            this.prepareClaimStorage(worldProperties, newWorldDataPath);
             // Create data folders if they do not exist
-            if (!Files.exists(newWorldDataPath.resolve("ClaimData"))) {
-                Files.createDirectories(newWorldDataPath.resolve("ClaimData"));
-            }
-            if (!Files.exists(newWorldDataPath.resolve("ClaimData").resolve("wilderness"))) {
-                Files.createDirectories(newWorldDataPath.resolve("ClaimData").resolve("wilderness"));
+            if (ClaimStore.get(worldProperties.getUniqueId()) == null) {
+                if (!Files.exists(newWorldDataPath.resolve("ClaimData"))) {
+                    Files.createDirectories(newWorldDataPath.resolve("ClaimData"));
+                }
+                if (!Files.exists(newWorldDataPath.resolve("ClaimData").resolve("wilderness"))) {
+                    Files.createDirectories(newWorldDataPath.resolve("ClaimData").resolve("wilderness"));
+                }
             }
             if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
                 if (!globalPlayerDataPath.toFile().exists()) {
@@ -157,6 +175,47 @@ public void registerWorld(WorldProperties worldProperties) {
         }
     }
 
+    // Converts the world's claim data when the configured storage format changed since it was last loaded
+    protected void prepareClaimStorage(WorldProperties worldProperties, Path worldDataPath) throws IOException {
+        final Path claimDataPath = worldDataPath.resolve("ClaimData");
+        final Path binaryDataPath = worldDataPath.resolve(BinaryClaimStore.DATA_FILE_NAME);
+        final String backupSuffix = ".backup-" + System.currentTimeMillis();
+        if (BinaryClaimStore.isEnabled()) {
+            if (ClaimStore.get(worldProperties.getUniqueId()) != null) {
+                return;
+            }
+
+            final boolean importClaimData = !Files.exists(binaryDataPath) && Files.exists(claimDataPath);
+            final BinaryClaimStore binaryStore = BinaryClaimStore.open(worldDataPath);
+            if (importClaimData) {
+                final int count;
+                try {
+                    count = binaryStore.importClaimData(claimDataPath);
+                } catch (IOException | RuntimeException e) {
+                    // keep the claim files and drop the partial store, the next start imports them again
+                    binaryStore.close();
+                    Files.deleteIfExists(binaryDataPath);
+                    Files.deleteIfExists(worldDataPath.resolve(BinaryClaimStore.INDEX_FILE_NAME));
+                    throw e;
+                }
+                Files.move(claimDataPath, worldDataPath.resolve("ClaimData" + backupSuffix));
+                GriefPreventionPlugin.instance.getLogger().info("[" + worldProperties.getWorldName() + "] Imported " + count + " claim files into " + binaryDataPath + ".");
+            }
+            ClaimStore.register(worldProperties.getUniqueId(), binaryStore);
+        } else if (Files.exists(binaryDataPath)) {
+            final int count;
+            try (BinaryClaimStore binaryStore = BinaryClaimStore.open(worldDataPath)) {
+                if (Files.exists(claimDataPath)) {
+                    Files.move(claimDataPath, worldDataPath.resolve("ClaimData" + backupSuffix));
+                }
+                count = binaryStore.exportClaimData();
+            }
+            Files.move(binaryDataPath, worldDataPath.resolve(BinaryClaimStore.DATA_FILE_NAME + backupSuffix));
+            Files.deleteIfExists(worldDataPath.resolve(BinaryClaimStore.INDEX_FILE_NAME));
+            GriefPreventionPlugin.instance.getLogger().info("[" + worldProperties.getWorldName() + "] Exported " + count + " claims from " + binaryDataPath + " to claim files.");
+        }
+    }
+
     @Override
     public void loadWorldData(World world) {
         final WorldProperties worldProperties = world.getProperties();
@@ -183,9 +242,20 @@ public void loadWorldData(World world) {
             e.printStackTrace();
         }
 
+        // Recover claim changes journaled after the last save of a previous run
+        final ClaimStore claimStore = ClaimStore.get(worldProperties.getUniqueId());
+        try {
+            final int replayed = ClaimJournal.replay(newWorldDataPath, claimStore);
+            if (replayed > 0) {
+                GriefPreventionPlugin.instance.getLogger().info("[" + worldProperties.getWorldName() + "] Recovered " + replayed + " claim changes from the journal.");
+            }
+        } catch (IOException e) {
+            GriefPreventionPlugin.instance.getLogger().error("Could not replay the claim journal of world " + worldProperties.getWorldName(), e);
+        }
+
         // Load wilderness claim first
         final Path wildernessFilePath = newWorldDataPath.resolve("ClaimData").resolve("wilderness").resolve(worldProperties.getUniqueId().toString());
-        if (Files.exists(wildernessFilePath)) {
+        if (claimStore != null ? claimStore.contains(wildernessFilePath) : Files.exists(wildernessFilePath)) {
             try {
                 this.loadClaim(wildernessFilePath.toFile(), worldProperties, worldProperties.getUniqueId());
             } catch (Exception e) {
@@ -197,17 +267,25 @@ public void loadWorldData(World world) {
 
         // Load Claim Data
         try {
-            File[] files = newWorldDataPath.resolve("ClaimData").toFile().listFiles();
-            if (files != null && files.length > 0) {
-                this.loadClaimData(files, worldProperties);
+            final List<File> claimFiles;
+            if (claimStore != null) {
+                claimFiles = claimStore.preload();
+            } else {
+                claimFiles = new ArrayList<>();
+                final File[] claimDataFiles = newWorldDataPath.resolve("ClaimData").toFile().listFiles();
+                if (claimDataFiles != null) {
+                    this.collectClaimFiles(claimDataFiles, claimFiles);
+                }
+            }
+            if (!claimFiles.isEmpty()) {
+                this.loadClaimData(claimFiles, worldProperties);
                 GriefPreventionPlugin.instance.getLogger().info("[" + worldProperties.getWorldName() + "] " + this.claimLoadCount + " total claims loaded.");
             }
-
-            if (GriefPreventionPlugin.getGlobalConfig().getConfig().playerdata.useGlobalPlayerDataStorage) {
-                files = globalPlayerDataPath.toFile().listFiles();
-            } else {
-                files = newWorldDataPath.resolve("PlayerData").toFile().listFiles();
+            if (claimStore != null) {
+                claimStore.clearPreloaded();
             }
+
+            final File[] files = this.getPlayerDataFiles(worldProperties, newWorldDataPath);
             if (files != null && files.length > 0) {
                 this.loadPlayerData(worldProperties, files);
             }
@@ -220,11 +298,23 @@ public void loadWorldData(World world) {
             e.printStackTrace();
         }
 
+        if (ClaimJournal.isEnabled()) {
+            ClaimJournal.open(worldProperties.getUniqueId(), newWorldDataPath);
+        }
+
         // handle default flag permissions
         this.setupDefaultPermissions(world);
         this.claimLoadCount = 0;
     }
 
+    // Lists the player data of the world, the file names are the player ids
+    protected File[] getPlayerDataFiles(WorldProperties worldProperties, Path worldDataPath) throws IOException {
+        if (GriefPreventionPlugin.getGlobalConfig().getConfig().playerdata.useGlobalPlayerDataStorage) {
+            return globalPlayerDataPath.toFile().listFiles();
+        }
+        return worldDataPath.resolve("PlayerData").toFile().listFiles();
+    }
+
     public void unloadWorldData(WorldProperties worldProperties) {
         GPClaimManager claimWorldManager = this.getClaimWorldManager(worldProperties);
         for (Claim claim : claimWorldManager.getWorldClaims()) {
@@ -239,51 +329,111 @@ public void unloadWorldData(WorldProperties worldProperties) {
 
         claimWorldManager.unload();
         this.claimWorldManagers.remove(worldProperties.getUniqueId());
+        StorageWriter.flushAll();
+        ClaimJournal.close(worldProperties.getUniqueId());
+        ClaimStore.unregister(worldProperties.getUniqueId());
         DataStore.dimensionConfigMap.remove(worldProperties.getUniqueId());
         DataStore.worldConfigMap.remove(worldProperties.getUniqueId());
     }
 
-    void loadClaimData(File[] files, WorldProperties worldProperties) throws Exception {
-        for (int i = 0; i < files.length; i++) {
-            File file = files[i];
-            if (file.isFile()) {
-                this.loadClaimFile(file, worldProperties);
-            }
+    // Claim files are parsed on worker threads, then registered on the calling thread with parents ahead of their children
+    void loadClaimData(List<File> claimFiles, WorldProperties worldProperties) throws Exception {
+        final World world = Sponge.getServer().loadWorld(worldProperties).orElse(null);
+        if (world == null) {
+            throw new Exception("World [Name: " + worldProperties.getWorldName() + "][UUID: " + worldProperties.getUniqueId().toString() + "] is not loaded.");
         }
-        for (int i = 0; i < files.length; i++) {
-            File file = files[i];
-            if (file.isDirectory()) {
-                this.loadClaimData(file.listFiles(), worldProperties);
+
+        final GPClaimManager claimManager = this.getClaimWorldManager(worldProperties);
+        final GPClaim wildernessClaim = claimManager.getWildernessClaim();
+        final Map<UUID, ParsedClaim> parsedClaims = new LinkedHashMap<>();
+        final int loaderThreads = Math.max(1, Math.min(MAX_CLAIM_LOADER_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        final AtomicInteger loaderThreadCount = new AtomicInteger();
+        final ExecutorService claimLoader = Executors.newFixedThreadPool(loaderThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "GriefPrevention Claim Loader #" + loaderThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<ParsedClaim>> results = new ArrayList<>(claimFiles.size());
+            for (File file : claimFiles) {
+                results.add(claimLoader.submit(() -> this.parseClaimFile(file, worldProperties)));
+            }
+            for (Future<ParsedClaim> result : results) {
+                final ParsedClaim parsedClaim = result.get();
+                if (parsedClaim == null || (wildernessClaim != null && wildernessClaim.getUniqueId().equals(parsedClaim.claimId))) {
+                    continue;
+                }
+                parsedClaims.put(parsedClaim.claimId, parsedClaim);
             }
+        } finally {
+            claimLoader.shutdown();
         }
-    }
 
-    void loadClaimFile(File file, WorldProperties worldProperties) {
-        if (file.isFile()) // avoids folders
-        {
-            // the filename is the claim ID. try to parse it
-            UUID claimId;
+        final Set<UUID> visited = new HashSet<>();
+        for (ParsedClaim parsedClaim : parsedClaims.values()) {
+            this.registerParsedClaim(parsedClaim, parsedClaims, visited, world);
+        }
+    }
 
-            try {
-                final String fileName = file.getName();
-                // UUID's should always be 36 in length
-                if (fileName.length() != 36) {
-                    return;
+    private void collectClaimFiles(File[] files, List<File> claimFiles) {
+        for (File file : files) {
+            if (file.isFile()) {
+                claimFiles.add(file);
+            } else if (file.isDirectory()) {
+                final File[] children = file.listFiles();
+                if (children != null) {
+                    this.collectClaimFiles(children, claimFiles);
                 }
+            }
+        }
+    }
 
-                claimId = UUID.fromString(fileName);
-            } catch (Exception e) {
-                GriefPreventionPlugin.instance.getLogger().error("Could not read claim file " + file.getAbsolutePath());
-                return;
+    // Runs on a loader thread, must not touch the claim manager
+    private ParsedClaim parseClaimFile(File file, WorldProperties worldProperties) {
+        // the filename is the claim ID. try to parse it
+        UUID claimId;
+
+        try {
+            final String fileName = file.getName();
+            // UUID's should always be 36 in length
+            if (fileName.length() != 36) {
+                return null;
             }
 
-            try {
-               this.loadClaim(file, worldProperties, claimId);
-            } catch (Exception e) {
-                GriefPreventionPlugin.instance.getLogger().error(file.getAbsolutePath() + " failed to load.");
-                e.printStackTrace();
+            claimId = UUID.fromString(fileName);
+        } catch (Exception e) {
+            GriefPreventionPlugin.instance.getLogger().error("Could not read claim file " + file.getAbsolutePath());
+            return null;
+        }
+
+        try {
+            return new ParsedClaim(file, claimId, this.readClaimStorage(file, worldProperties));
+        } catch (Exception e) {
+            GriefPreventionPlugin.instance.getLogger().error(file.getAbsolutePath() + " failed to load.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void registerParsedClaim(ParsedClaim parsedClaim, Map<UUID, ParsedClaim> parsedClaims, Set<UUID> visited, World world) {
+        if (!visited.add(parsedClaim.claimId)) {
+            return;
+        }
+
+        final UUID parent = parsedClaim.claimStorage.getConfig() == null ? null : parsedClaim.claimStorage.getConfig().getParent().orElse(null);
+        if (parent != null) {
+            final ParsedClaim parentClaim = parsedClaims.get(parent);
+            if (parentClaim != null) {
+                this.registerParsedClaim(parentClaim, parsedClaims, visited, world);
             }
         }
+
+        try {
+            this.createClaim(parsedClaim.claimStorage, parsedClaim.file, world, parsedClaim.claimId);
+        } catch (Exception e) {
+            GriefPreventionPlugin.instance.getLogger().error(parsedClaim.file.getAbsolutePath() + " failed to load.");
+            e.printStackTrace();
+        }
     }
 
     void loadPlayerData(WorldProperties worldProperties, File[] files) throws Exception {
@@ -298,7 +448,7 @@ void loadPlayerData(WorldProperties worldProperties, File[] files) throws Except
             migrate = true;
         }
         for (int i = 0; i < files.length; i++) {
-            if (files[i].isFile()) // avoids folders
+            if (!files[i].isDirectory()) // avoids folders, player data kept in a database has no file
             {
                 // the filename is the claim ID. try to parse it
                 UUID playerUUID;
@@ -334,14 +484,23 @@ void loadPlayerData(WorldProperties worldProperties, File[] files) throws Except
 
     public GPClaim loadClaim(File claimFile, WorldProperties worldProperties, UUID claimId)
             throws Exception {
-        GPClaim claim;
-
         final GPClaimManager claimManager = this.getClaimWorldManager(worldProperties);
         if (claimManager.getWildernessClaim() != null && claimManager.getWildernessClaim().getUniqueId().equals(claimId)) {
             return null;
         }
+
+        final ClaimStorageData claimStorage = this.readClaimStorage(claimFile, worldProperties);
+        final World world = Sponge.getServer().loadWorld(worldProperties).orElse(null);
+        if (world == null) {
+            throw new Exception("World [Name: " + worldProperties.getWorldName() + "][UUID: " + worldProperties.getUniqueId().toString() + "] is not loaded.");
+        }
+
+        return this.createClaim(claimStorage, claimFile, world, claimId);
+    }
+
+    // Parses a claim file, safe to call off the main thread
+    private ClaimStorageData readClaimStorage(File claimFile, WorldProperties worldProperties) throws IOException {
         boolean isTown = claimFile.toPath().getParent().endsWith("town");
-        boolean writeToStorage = false;
         ClaimStorageData claimStorage = null;
         if (isTown) {
             claimStorage = new TownStorageData(claimFile.toPath(), worldProperties.getUniqueId());
@@ -349,21 +508,24 @@ public GPClaim loadClaim(File claimFile, WorldProperties worldProperties, UUID c
             claimStorage = new ClaimStorageData(claimFile.toPath(), worldProperties.getUniqueId());
         }
 
-        final ClaimType type = claimStorage.getConfig().getType();
-        final UUID parent = claimStorage.getConfig().getParent().orElse(null);
-        final String fileName = claimFile.getName();
-        final World world = Sponge.getServer().loadWorld(worldProperties).orElse(null);
-        if (world == null) {
-            throw new Exception("World [Name: " + worldProperties.getWorldName() + "][UUID: " + worldProperties.getUniqueId().toString() + "] is not loaded.");
-        }
-
         if (claimFile.getParentFile().getName().equalsIgnoreCase("claimdata")) {
+            final ClaimType type = claimStorage.getConfig().getType();
+            final String fileName = claimFile.getName();
             final Path newPath = claimStorage.filePath.getParent().resolve(type.name().toLowerCase());
-            Files.createDirectories(newPath);
-            Files.move(claimStorage.filePath, newPath.resolve(fileName));
-            claimStorage.filePath = newPath.resolve(fileName);
+            claimStorage.moveTo(newPath.resolve(fileName));
             claimStorage = new ClaimStorageData(claimStorage.filePath, worldProperties.getUniqueId());
         }
+        return claimStorage;
+    }
+
+    private GPClaim createClaim(ClaimStorageData claimStorage, File claimFile, World world, UUID claimId) throws Exception {
+        GPClaim claim;
+
+        final WorldProperties worldProperties = world.getProperties();
+        final GPClaimManager claimManager = this.getClaimWorldManager(worldProperties);
+        final ClaimType type = claimStorage.getConfig().getType();
+        final UUID parent = claimStorage.getConfig().getParent().orElse(null);
+        boolean writeToStorage = false;
 
         // identify world the claim is in
         UUID worldUniqueId = claimStorage.getConfig().getWorldUniqueId();
@@ -435,10 +597,7 @@ public void writeClaimToStorage(GPClaim claim) {
     @Override
     public void deleteClaimFromSecondaryStorage(GPClaim claim) {
         try {
-            Files.delete(claim.getClaimStorage().filePath);
-            if (claim.getClaimStorage().folderPath.toFile().listFiles().length == 0) {
-                Files.delete(claim.getClaimStorage().folderPath);
-            }
+            claim.getClaimStorage().delete();
         } catch (IOException e) {
             e.printStackTrace();
             GriefPreventionPlugin.addLogEntry("Error: Unable to delete claim file \"" + claim.getClaimStorage().filePath + "\".");
@@ -571,4 +730,17 @@ GPPlayerData getPlayerDataFromStorage(UUID playerID) {
     void overrideSavePlayerData(UUID playerID, GPPlayerData playerData) {
     }
 
+
+    private static final class ParsedClaim {
+
+        private final File file;
+        private final UUID claimId;
+        private final ClaimStorageData claimStorage;
+
+        private ParsedClaim(File file, UUID claimId, ClaimStorageData claimStorage) {
+            this.file = file;
+            this.claimId = claimId;
+            this.claimStorage = claimStorage;
+        }
+    }
 }
@@ -31,15 +31,18 @@
 import me.ryanhamshire.griefprevention.api.claim.Claim;
 import me.ryanhamshire.griefprevention.api.claim.ClaimType;
 import me.ryanhamshire.griefprevention.api.data.PlayerData;
+import me.ryanhamshire.griefprevention.claim.ClaimContextCalculator;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
 import me.ryanhamshire.griefprevention.command.CommandHelper;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
 import me.ryanhamshire.griefprevention.configuration.PlayerStorageData;
 import me.ryanhamshire.griefprevention.permission.GPOptionHandler;
+import me.ryanhamshire.griefprevention.permission.GPOptionSnapshot;
 import me.ryanhamshire.griefprevention.permission.GPOptions;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
+import me.ryanhamshire.griefprevention.util.CommandCache;
 import me.ryanhamshire.griefprevention.util.PermissionUtils;
-import me.ryanhamshire.griefprevention.util.PlayerUtils;
+import me.ryanhamshire.griefprevention.util.SpamDetector;
 import net.minecraft.world.chunk.Chunk;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockSnapshot;
@@ -64,6 +67,7 @@
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 //holds all of GriefPrevention's player-tied data
 public class GPPlayerData implements PlayerData {
@@ -115,6 +119,9 @@ public class GPPlayerData implements PlayerData {
     // whether the player was kicked (set and used during logout)
     public boolean wasKicked = false;
 
+    // when this data was last looked up, offline players' data is evicted after a while
+    long lastAccessed;
+
     // spam when the player last logged into the server
     @SuppressWarnings("unused")
     private Date lastLogin;
@@ -122,14 +129,8 @@ public class GPPlayerData implements PlayerData {
     // the player's last chat message, or slash command complete with parameters
     public String lastMessage = "";
 
-    // last time the player sent a chat message or used a monitored slash command
-    public Date lastMessageTimestamp = new Date();
-
-    // number of consecutive "spams"
-    public int spamCount = 0;
-
-    // whether the player recently received a warning
-    public boolean spamWarned = false;
+    // message rate, similarity and consecutive "spams" of chat messages and monitored slash commands
+    public final SpamDetector.PlayerState spamState = new SpamDetector.PlayerState();
 
     // visualization
     public List<Transaction<BlockSnapshot>> visualBlocks;
@@ -148,6 +149,12 @@ public class GPPlayerData implements PlayerData {
     public boolean executingClaimDebug = false;
     // the last claim this player was in, that we know of
     public WeakReference<GPClaim> lastClaim = new WeakReference<>(null);
+    // the claim used for context calculation, keyed by block position and claim index version
+    public volatile ClaimContextCalculator.CachedContextClaim contextClaimCache = null;
+    // active contexts without claim contexts, rebuilt when the player's contexts change
+    public volatile PermissionUtils.BaseContextSet baseContexts = null;
+    // command execution results in the current claim
+    public CommandCache.ClaimCommandResults commandResults = null;
 
     // pvp
     public long lastPvpTimestamp = 0;
@@ -252,6 +259,8 @@ public class GPPlayerData implements PlayerData {
     public boolean ignoreWilderness = false;
 
     public boolean dataInitialized = false;
+    private volatile GPOptionSnapshot optionSnapshot = GPOptionSnapshot.EMPTY;
+    private final AtomicBoolean optionRefreshQueued = new AtomicBoolean(false);
     public boolean showVisualFillers = true;
     private boolean checkedDimensionHeight = false;
 
@@ -265,55 +274,62 @@ public GPPlayerData(WorldProperties worldProperties, UUID playerUniqueId, Player
 
     // Run async
     public void refreshPlayerOptions() {
+        // coalesce refresh requests while one is already queued
+        if (!this.optionRefreshQueued.compareAndSet(false, true)) {
+            return;
+        }
+
         GriefPreventionPlugin.instance.executor.execute(() -> {
+            this.optionRefreshQueued.set(false);
             if (this.playerSubject == null || this.playerSubject.get() == null) {
                 Subject subject = PermissionUtils.getUserSubject(this.playerID.toString());
                 this.playerSubject = new WeakReference<>(subject);
             }
             final Subject subject = this.playerSubject.get();
             final Set<Context> activeContexts = PermissionUtils.getActiveContexts(subject, this, null);
+            final GPOptionSnapshot snapshot = GPOptionSnapshot.create(subject, activeContexts);
+            this.optionSnapshot = snapshot;
             // options
-            this.optionAbandonReturnRatioTown = PlayerUtils.getOptionDoubleValue(activeContexts, subject, GPOptions.ABANDON_RETURN_RATIO_TOWN, this.optionAbandonReturnRatioTown);
-            this.optionAbandonReturnRatioBasic = PlayerUtils.getOptionDoubleValue(activeContexts, subject, GPOptions.ABANDON_RETURN_RATIO_BASIC, this.optionAbandonReturnRatioBasic);
-            this.optionBlocksAccruedPerHour = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.BLOCKS_ACCRUED_PER_HOUR, this.optionBlocksAccruedPerHour);
-            this.optionClaimExpirationChest = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CLAIM_EXPIRATION_CHEST, this.optionClaimExpirationChest);
-            this.optionCreateClaimLimitBasic = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CREATE_CLAIM_LIMIT_BASIC, this.optionCreateClaimLimitBasic);
-            this.optionCreateClaimLimitSubdivision = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CREATE_CLAIM_LIMIT_SUBDIVISION, this.optionCreateClaimLimitSubdivision);
-            this.optionCreateClaimLimitTown = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CREATE_CLAIM_LIMIT_TOWN, this.optionCreateClaimLimitTown);
-            this.optionInitialClaimBlocks = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.INITIAL_CLAIM_BLOCKS, this.optionInitialClaimBlocks);
-            this.optionRadiusClaimInspect = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.RADIUS_CLAIM_INSPECT, this.optionRadiusClaimInspect);
-            this.optionRadiusClaimList = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.RADIUS_CLAIM_LIST, this.optionRadiusClaimList);
-            this.optionMaxAccruedBlocks = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_ACCRUED_BLOCKS, this.optionMaxAccruedBlocks);
-            this.optionMaxClaimLevel = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_LEVEL, this.optionMaxClaimLevel);
-            this.optionMaxClaimSizeBasicX = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_BASIC_X, this.optionMaxClaimSizeBasicX);
-            this.optionMaxClaimSizeBasicY = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_BASIC_Y, this.optionMaxClaimSizeBasicY);
-            this.optionMaxClaimSizeBasicZ = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_BASIC_Z, this.optionMaxClaimSizeBasicZ);
-            this.optionMaxClaimSizeTownX = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_TOWN_X, this.optionMaxClaimSizeTownX);
-            this.optionMaxClaimSizeTownY = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_TOWN_Y, this.optionMaxClaimSizeTownY);
-            this.optionMaxClaimSizeTownZ = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_TOWN_Z, this.optionMaxClaimSizeTownZ);
-            this.optionMaxClaimSizeSubX = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_SUBDIVISION_X, this.optionMaxClaimSizeSubX);
-            this.optionMaxClaimSizeSubY = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_SUBDIVISION_Y, this.optionMaxClaimSizeSubY);
-            this.optionMaxClaimSizeSubZ = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MAX_CLAIM_SIZE_SUBDIVISION_Z, this.optionMaxClaimSizeSubZ);
-            this.optionMinClaimLevel = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MIN_CLAIM_LEVEL, this.optionMinClaimLevel);
-            this.optionMinClaimSizeBasicX = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MIN_CLAIM_SIZE_BASIC_X, this.optionMinClaimSizeBasicX);
-            this.optionMinClaimSizeBasicY = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MIN_CLAIM_SIZE_BASIC_Y, this.optionMinClaimSizeBasicY);
-            this.optionMinClaimSizeBasicZ = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MIN_CLAIM_SIZE_BASIC_Z, this.optionMinClaimSizeBasicZ);
-            this.optionMinClaimSizeTownX = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MIN_CLAIM_SIZE_TOWN_X, this.optionMinClaimSizeTownX);
-            this.optionMinClaimSizeTownY = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MIN_CLAIM_SIZE_TOWN_Y, this.optionMinClaimSizeTownY);
-            this.optionMinClaimSizeTownZ = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.MIN_CLAIM_SIZE_TOWN_Z, this.optionMinClaimSizeTownZ);
-            this.optionClaimCreateMode = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CLAIM_CREATE_MODE, this.optionClaimCreateMode);
-            this.optionClaimExpirationChest = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CLAIM_EXPIRATION_CHEST, this.optionClaimExpirationChest);
-            this.optionClaimExpirationBasic = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CLAIM_EXPIRATION_BASIC, this.optionClaimExpirationBasic);
-            this.optionClaimExpirationTown = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CLAIM_EXPIRATION_TOWN, this.optionClaimExpirationTown);
-            this.optionClaimExpirationSubdivision = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.CLAIM_EXPIRATION_SUBDIVISION, this.optionClaimExpirationSubdivision);
-            this.optionTaxExpirationBasic = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.TAX_EXPIRATION_BASIC, this.optionTaxExpirationBasic);
-            this.optionTaxExpirationSubdivision = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.TAX_EXPIRATION_BASIC, this.optionTaxExpirationSubdivision);
-            this.optionTaxExpirationTown = PlayerUtils.getOptionIntValue(activeContexts, subject, GPOptions.TAX_EXPIRATION_BASIC, this.optionTaxExpirationTown);
-            this.optionTaxRateBasic = PlayerUtils.getOptionDoubleValue(activeContexts, subject, GPOptions.TAX_RATE_BASIC, this.optionTaxRateBasic);
-            this.optionTaxRateSubdivision = PlayerUtils.getOptionDoubleValue(activeContexts, subject, GPOptions.TAX_RATE_BASIC, this.optionTaxRateSubdivision);
-            this.optionTaxRateTown = PlayerUtils.getOptionDoubleValue(activeContexts, subject, GPOptions.TAX_RATE_TOWN, this.optionTaxRateTown);
-            this.optionTaxRateTownBasic = PlayerUtils.getOptionDoubleValue(activeContexts, subject, GPOptions.TAX_RATE_TOWN_BASIC, this.optionTaxRateTownBasic);
-            this.optionTaxRateTownSubdivision = PlayerUtils.getOptionDoubleValue(activeContexts, subject, GPOptions.TAX_RATE_TOWN_BASIC, this.optionTaxRateTownSubdivision);
+            this.optionAbandonReturnRatioTown = snapshot.getDouble(GPOptions.ABANDON_RETURN_RATIO_TOWN, GPOptions.DEFAULT_ABANDON_RETURN_RATIO_TOWN);
+            this.optionAbandonReturnRatioBasic = snapshot.getDouble(GPOptions.ABANDON_RETURN_RATIO_BASIC, GPOptions.DEFAULT_ABANDON_RETURN_RATIO_BASIC);
+            this.optionBlocksAccruedPerHour = snapshot.getInt(GPOptions.BLOCKS_ACCRUED_PER_HOUR, GPOptions.DEFAULT_BLOCKS_ACCRUED_PER_HOUR);
+            this.optionCreateClaimLimitBasic = snapshot.getInt(GPOptions.CREATE_CLAIM_LIMIT_BASIC, GPOptions.DEFAULT_CREATE_CLAIM_LIMIT_BASIC);
+            this.optionCreateClaimLimitSubdivision = snapshot.getInt(GPOptions.CREATE_CLAIM_LIMIT_SUBDIVISION, GPOptions.DEFAULT_CREATE_CLAIM_LIMIT_SUBDIVISION);
+            this.optionCreateClaimLimitTown = snapshot.getInt(GPOptions.CREATE_CLAIM_LIMIT_TOWN, GPOptions.DEFAULT_CREATE_CLAIM_LIMIT_TOWN);
+            this.optionInitialClaimBlocks = snapshot.getInt(GPOptions.INITIAL_CLAIM_BLOCKS, GPOptions.DEFAULT_INITIAL_CLAIM_BLOCKS);
+            this.optionRadiusClaimInspect = snapshot.getInt(GPOptions.RADIUS_CLAIM_INSPECT, GPOptions.DEFAULT_RADIUS_CLAIM_INSPECT);
+            this.optionRadiusClaimList = snapshot.getInt(GPOptions.RADIUS_CLAIM_LIST, GPOptions.DEFAULT_RADIUS_CLAIM_LIST);
+            this.optionMaxAccruedBlocks = snapshot.getInt(GPOptions.MAX_ACCRUED_BLOCKS, GPOptions.DEFAULT_MAX_ACCRUED_BLOCKS);
+            this.optionMaxClaimLevel = snapshot.getInt(GPOptions.MAX_CLAIM_LEVEL, GPOptions.DEFAULT_MAX_CLAIM_LEVEL);
+            this.optionMaxClaimSizeBasicX = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_BASIC_X, GPOptions.DEFAULT_MAX_CLAIM_SIZE_BASIC_X);
+            this.optionMaxClaimSizeBasicY = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_BASIC_Y, GPOptions.DEFAULT_MAX_CLAIM_SIZE_BASIC_Y);
+            this.optionMaxClaimSizeBasicZ = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_BASIC_Z, GPOptions.DEFAULT_MAX_CLAIM_SIZE_BASIC_Z);
+            this.optionMaxClaimSizeTownX = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_TOWN_X, GPOptions.DEFAULT_MAX_CLAIM_SIZE_TOWN_X);
+            this.optionMaxClaimSizeTownY = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_TOWN_Y, GPOptions.DEFAULT_MAX_CLAIM_SIZE_TOWN_Y);
+            this.optionMaxClaimSizeTownZ = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_TOWN_Z, GPOptions.DEFAULT_MAX_CLAIM_SIZE_TOWN_Z);
+            this.optionMaxClaimSizeSubX = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_SUBDIVISION_X, GPOptions.DEFAULT_MAX_CLAIM_SIZE_SUBDIVISION_X);
+            this.optionMaxClaimSizeSubY = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_SUBDIVISION_Y, GPOptions.DEFAULT_MAX_CLAIM_SIZE_SUBDIVISION_Y);
+            this.optionMaxClaimSizeSubZ = snapshot.getInt(GPOptions.MAX_CLAIM_SIZE_SUBDIVISION_Z, GPOptions.DEFAULT_MAX_CLAIM_SIZE_SUBDIVISION_Z);
+            this.optionMinClaimLevel = snapshot.getInt(GPOptions.MIN_CLAIM_LEVEL, GPOptions.DEFAULT_MIN_CLAIM_LEVEL);
+            this.optionMinClaimSizeBasicX = snapshot.getInt(GPOptions.MIN_CLAIM_SIZE_BASIC_X, GPOptions.DEFAULT_MIN_CLAIM_SIZE_BASIC_X);
+            this.optionMinClaimSizeBasicY = snapshot.getInt(GPOptions.MIN_CLAIM_SIZE_BASIC_Y, GPOptions.DEFAULT_MIN_CLAIM_SIZE_BASIC_Y);
+            this.optionMinClaimSizeBasicZ = snapshot.getInt(GPOptions.MIN_CLAIM_SIZE_BASIC_Z, GPOptions.DEFAULT_MIN_CLAIM_SIZE_BASIC_Z);
+            this.optionMinClaimSizeTownX = snapshot.getInt(GPOptions.MIN_CLAIM_SIZE_TOWN_X, GPOptions.DEFAULT_MIN_CLAIM_SIZE_TOWN_X);
+            this.optionMinClaimSizeTownY = snapshot.getInt(GPOptions.MIN_CLAIM_SIZE_TOWN_Y, GPOptions.DEFAULT_MIN_CLAIM_SIZE_TOWN_Y);
+            this.optionMinClaimSizeTownZ = snapshot.getInt(GPOptions.MIN_CLAIM_SIZE_TOWN_Z, GPOptions.DEFAULT_MIN_CLAIM_SIZE_TOWN_Z);
+            this.optionClaimCreateMode = snapshot.getInt(GPOptions.CLAIM_CREATE_MODE, GPOptions.DEFAULT_CLAIM_CREATE_MODE);
+            this.optionClaimExpirationChest = snapshot.getInt(GPOptions.CLAIM_EXPIRATION_CHEST, GPOptions.DEFAULT_CLAIM_EXPIRATION_CHEST);
+            this.optionClaimExpirationBasic = snapshot.getInt(GPOptions.CLAIM_EXPIRATION_BASIC, GPOptions.DEFAULT_CLAIM_EXPIRATION_BASIC);
+            this.optionClaimExpirationTown = snapshot.getInt(GPOptions.CLAIM_EXPIRATION_TOWN, GPOptions.DEFAULT_CLAIM_EXPIRATION_TOWN);
+            this.optionClaimExpirationSubdivision = snapshot.getInt(GPOptions.CLAIM_EXPIRATION_SUBDIVISION, GPOptions.DEFAULT_CLAIM_EXPIRATION_SUBDIVISION);
+            this.optionTaxExpirationBasic = snapshot.getInt(GPOptions.TAX_EXPIRATION_BASIC, GPOptions.DEFAULT_TAX_EXPIRATION_BASIC);
+            this.optionTaxExpirationSubdivision = snapshot.getInt(GPOptions.TAX_EXPIRATION_SUBDIVISION, GPOptions.DEFAULT_TAX_EXPIRATION_SUBDIVISION);
+            this.optionTaxExpirationTown = snapshot.getInt(GPOptions.TAX_EXPIRATION_TOWN, GPOptions.DEFAULT_TAX_EXPIRATION_TOWN);
+            this.optionTaxRateBasic = snapshot.getDouble(GPOptions.TAX_RATE_BASIC, GPOptions.DEFAULT_TAX_RATE_BASIC);
+            this.optionTaxRateSubdivision = snapshot.getDouble(GPOptions.TAX_RATE_SUBDIVISION, GPOptions.DEFAULT_TAX_RATE_SUBDIVISION);
+            this.optionTaxRateTown = snapshot.getDouble(GPOptions.TAX_RATE_TOWN, GPOptions.DEFAULT_TAX_RATE_TOWN);
+            this.optionTaxRateTownBasic = snapshot.getDouble(GPOptions.TAX_RATE_TOWN_BASIC, GPOptions.DEFAULT_TAX_RATE_TOWN_BASIC);
+            this.optionTaxRateTownSubdivision = snapshot.getDouble(GPOptions.TAX_RATE_TOWN_SUBDIVISION, GPOptions.DEFAULT_TAX_RATE_TOWN_SUBDIVISION);
             // permissions
             this.ignoreBorderCheck = subject.hasPermission(activeContexts, GPPermissions.IGNORE_BORDER_CHECK);
             this.ignoreAdminClaims = subject.hasPermission(activeContexts, GPPermissions.IGNORE_CLAIMS_ADMIN);
@@ -334,6 +350,10 @@ public void refreshPlayerOptions() {
         });
     }
 
+    public GPOptionSnapshot getOptionSnapshot() {
+        return this.optionSnapshot;
+    }
+
     public String getPlayerName() {
         if (this.playerName == null) {
             this.playerName = CommandHelper.lookupPlayerName(this.playerID);
@@ -111,9 +111,13 @@
 import me.ryanhamshire.griefprevention.command.CommandUnseparate;
 import me.ryanhamshire.griefprevention.command.CommandUntrust;
 import me.ryanhamshire.griefprevention.command.CommandUntrustAll;
+import me.ryanhamshire.griefprevention.configuration.BinaryClaimStore;
+import me.ryanhamshire.griefprevention.configuration.ClaimJournal;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
 import me.ryanhamshire.griefprevention.configuration.MessageDataConfig;
 import me.ryanhamshire.griefprevention.configuration.MessageStorage;
+import me.ryanhamshire.griefprevention.configuration.SqlStorage;
+import me.ryanhamshire.griefprevention.configuration.StorageWriter;
 import me.ryanhamshire.griefprevention.configuration.category.BlacklistCategory;
 import me.ryanhamshire.griefprevention.configuration.type.ConfigBase;
 import me.ryanhamshire.griefprevention.configuration.type.GlobalConfig;
@@ -137,9 +141,11 @@
 import me.ryanhamshire.griefprevention.task.CleanupUnusedClaimsTask;
 import me.ryanhamshire.griefprevention.task.DeliverClaimBlocksTask;
 import me.ryanhamshire.griefprevention.task.IgnoreLoaderThread;
+import me.ryanhamshire.griefprevention.task.PlayerDataEvictionTask;
 import me.ryanhamshire.griefprevention.task.PvPImmunityValidationTask;
 import me.ryanhamshire.griefprevention.task.SendPlayerMessageTask;
 import me.ryanhamshire.griefprevention.util.BlockUtils;
+import me.ryanhamshire.griefprevention.util.CommandCache;
 import me.ryanhamshire.griefprevention.util.PlayerUtils;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.entity.player.EntityPlayerMP;
@@ -176,6 +182,7 @@
 import org.spongepowered.api.event.game.state.GameAboutToStartServerEvent;
 import org.spongepowered.api.event.game.state.GamePreInitializationEvent;
 import org.spongepowered.api.event.game.state.GameStartedServerEvent;
+import org.spongepowered.api.event.game.state.GameStoppedServerEvent;
 import org.spongepowered.api.event.service.ChangeServiceProviderEvent;
 import org.spongepowered.api.item.ItemType;
 import org.spongepowered.api.item.ItemTypes;
@@ -248,6 +255,8 @@ public class GriefPreventionPlugin {
             + "# Discord: https://discord.gg/jy4FQDz\n"
             + "# Forums: https://forums.spongepowered.org/t/griefprevention-official-thread-1-10-1-11-1-12/1123\n";
 
+    private static final Pattern IP_ADDRESS_PATTERN = Pattern.compile("([0-9]{1,3}\\.){3}[0-9]{1,3}");
+
     // GP Public user info
     public static final UUID PUBLIC_UUID = UUID.fromString("41C82C87-7AfB-4024-BA57-13D2C99CAE77");
     public static final UUID WORLD_USER_UUID = UUID.fromString("00000000-0000-0000-0000-000000000000");
@@ -422,6 +431,7 @@ private boolean validateSpongeVersion() {
     @Listener(order = Order.LAST)
     public void onGameReload(GameReloadEvent event) {
         this.loadConfig();
+        CommandCache.invalidate();
         if (event.getSource() instanceof CommandSource) {
             sendMessage((CommandSource) event.getSource(), this.messageData.pluginReload.toText());
         }
@@ -762,7 +772,11 @@ public void onServerAboutToStart(GameAboutToStartServerEvent event) {
 
         if (this.dataStore == null) {
             try {
-                this.dataStore = new FlatFileDataStore();
+                if (SqlStorage.isEnabled()) {
+                    this.dataStore = new DatabaseDataStore(SqlStorage.getJdbcUrl(DataStore.dataLayerFolderPath));
+                } else {
+                    this.dataStore = new FlatFileDataStore();
+                }
                 // Migrator currently only handles pixelmon
                 // Remove pixelmon check after GP 5.0.0 update
                 if (Sponge.getPluginManager().getPlugin("pixelmon").isPresent()) {
@@ -775,14 +789,14 @@ public void onServerAboutToStart(GameAboutToStartServerEvent event) {
                 }
                 this.dataStore.initialize();
             } catch (Exception e) {
-                this.getLogger().info("Unable to initialize the file system data store.  Details:");
+                this.getLogger().info("Unable to initialize the data store.  Details:");
                 this.getLogger().info(e.getMessage());
                 e.printStackTrace();
                 return;
             }
         }
 
-        String dataMode = (this.dataStore instanceof FlatFileDataStore) ? "(File Mode)" : "(Database Mode)";
+        String dataMode = (this.dataStore instanceof DatabaseDataStore) ? "(Database Mode)" : (BinaryClaimStore.isEnabled() ? "(Binary File Mode)" : "(File Mode)");
         Sponge.getEventManager().registerListeners(this, new BlockEventHandler(dataStore));
         Sponge.getEventManager().registerListeners(this, new PlayerEventHandler(dataStore, this));
         Sponge.getEventManager().registerListeners(this, new EntityEventHandler(dataStore));
@@ -831,6 +845,14 @@ public void onServerAboutToStart(GameAboutToStartServerEvent event) {
         this.dataStore.loadClaimTemplates();
     }
 
+    @Listener
+    public void onServerStopped(GameStoppedServerEvent event) {
+        // Worlds have been saved at this point, wait for the queued writes before the JVM exits
+        StorageWriter.flushAll();
+        ClaimJournal.closeAll(GriefPreventionPlugin.getGlobalConfig().getConfig().storage.flushTimeout, TimeUnit.SECONDS);
+        SqlStorage.shutdown(GriefPreventionPlugin.getGlobalConfig().getConfig().storage.flushTimeout, TimeUnit.SECONDS);
+    }
+
     @Listener
     public void onServerStarted(GameStartedServerEvent event) {
         if (!validateSpongeVersion()) {
@@ -889,6 +911,9 @@ public void onServerStarted(GameStartedServerEvent event) {
         DeliverClaimBlocksTask task = new DeliverClaimBlocksTask(null);
         Sponge.getScheduler().createTaskBuilder().interval(5, TimeUnit.MINUTES).execute(task)
                 .submit(GriefPreventionPlugin.instance);
+        // keep offline players' data in memory only while it is in use
+        Sponge.getScheduler().createTaskBuilder().interval(5, TimeUnit.MINUTES).execute(new PlayerDataEvictionTask())
+                .submit(GriefPreventionPlugin.instance);
         addLogEntry("Boot finished.");
         this.logger.info("Loaded successfully.");
     }
@@ -913,6 +938,7 @@ public void registerBaseCommands() {
         debugChoicesBuilder.put("log", "log");
         debugChoicesBuilder.put("record", "record");
         debugChoicesBuilder.put("paste", "paste");
+        debugChoicesBuilder.put("stats", "stats");
 
         ImmutableMap.Builder<String, String> contextChoicesBuilder = ImmutableMap.builder();
         contextChoicesBuilder.put("default", "default");
@@ -2083,8 +2109,7 @@ public int getSeaLevel(World world) {
 
     public boolean containsBlockedIP(String message) {
         message = message.replace("\r\n", "");
-        Pattern ipAddressPattern = Pattern.compile("([0-9]{1,3}\\.){3}[0-9]{1,3}");
-        Matcher matcher = ipAddressPattern.matcher(message);
+        Matcher matcher = IP_ADDRESS_PATTERN.matcher(message);
 
         // if it looks like an IP address
         if (matcher.find()) {
@@ -0,0 +1,101 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention;
+
+import org.spongepowered.api.Sponge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Holds loaded player data and drops entries that have not been used for a while.
+ *
+ * <p>Lookups only record when an entry was last used. Entries are removed in
+ * {@link #evict(int, long)}, which runs from a scheduled task on the main
+ * thread, so data handed out during a tick is never dropped while in use.</p>
+ */
+public class PlayerDataCache extends HashMap<UUID, GPPlayerData> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public GPPlayerData get(Object key) {
+        final GPPlayerData playerData = super.get(key);
+        if (playerData != null) {
+            playerData.lastAccessed = System.currentTimeMillis();
+        }
+        return playerData;
+    }
+
+    @Override
+    public GPPlayerData put(UUID key, GPPlayerData value) {
+        value.lastAccessed = System.currentTimeMillis();
+        return super.put(key, value);
+    }
+
+    /**
+     * Removes player data that was not used within the idle timeout, then the
+     * least recently used entries until no more than the maximum size remain.
+     *
+     * <p>Online players and claim owners are never removed, since claims,
+     * visuals and the claim tasks use their owner's data all the time. Changed
+     * data is written back on the calling thread first and the entry is kept
+     * if that fails.</p>
+     *
+     * @param maxSize The number of entries to keep, or -1 for no limit
+     * @param idleMillis The idle time before an entry is removed, or -1 to only enforce the size
+     * @return The ids of the removed players
+     */
+    public List<UUID> evict(int maxSize, long idleMillis) {
+        final List<GPPlayerData> candidates = new ArrayList<>();
+        for (GPPlayerData playerData : this.values()) {
+            if (playerData.getInternalClaims().isEmpty() && !Sponge.getServer().getPlayer(playerData.playerID).isPresent()) {
+                candidates.add(playerData);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(playerData -> playerData.lastAccessed));
+
+        final long now = System.currentTimeMillis();
+        final List<UUID> evicted = new ArrayList<>();
+        for (GPPlayerData playerData : candidates) {
+            final boolean idle = idleMillis >= 0 && now - playerData.lastAccessed >= idleMillis;
+            if (!idle && (maxSize < 0 || this.size() <= maxSize)) {
+                // candidates are ordered by last use, so the rest are newer
+                break;
+            }
+            if (!playerData.getStorageData().saveNow()) {
+                continue;
+            }
+            playerData.onDisconnect();
+            this.remove(playerData.playerID);
+            evicted.add(playerData.playerID);
+        }
+        return evicted;
+    }
+}
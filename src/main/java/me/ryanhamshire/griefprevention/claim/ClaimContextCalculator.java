@@ -26,11 +26,15 @@
 
 import me.ryanhamshire.griefprevention.GPPlayerData;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.util.BlockUtils;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.context.ContextCalculator;
 import org.spongepowered.api.service.permission.Subject;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
 
+import java.lang.ref.WeakReference;
 import java.util.Set;
 import java.util.UUID;
 
@@ -49,10 +53,7 @@ public void accumulateContexts(Subject calculable, Set<Context> accumulator) {
                 return;
             }
 
-            boolean ignoreBorder = playerData.ignoreBorderCheck;
-            playerData.ignoreBorderCheck = false;
-            GPClaim sourceClaim = GriefPreventionPlugin.instance.dataStore.getClaimAtPlayer(playerData, player.getLocation());
-            playerData.ignoreBorderCheck = ignoreBorder;
+            GPClaim sourceClaim = getContextClaim(playerData, player.getLocation());
             if (sourceClaim != null) {
                 if (playerData == null || playerData.canIgnoreClaim(sourceClaim)) {
                     return;
@@ -78,7 +79,7 @@ public boolean matches(Context context, Subject subject) {
                     return false;
                 }
 
-                GPClaim playerClaim = GriefPreventionPlugin.instance.dataStore.getClaimAtPlayer(playerData, player.getLocation());
+                GPClaim playerClaim = getContextClaim(playerData, player.getLocation());
                 if (playerClaim != null && playerClaim.id.equals(UUID.fromString(context.getValue()))) {
                     return true;
                 }
@@ -87,4 +88,73 @@ public boolean matches(Context context, Subject subject) {
 
         return false;
     }
+
+    /**
+     * Gets the claim used for a player's context at the given location.
+     *
+     * <p>The result is cached on the player data and keyed by block position
+     * and claim index version, so repeated context lookups while the player
+     * stands still are a field read.</p>
+     *
+     * @param playerData The player data
+     * @param location The player location
+     * @return The claim at location
+     */
+    public static GPClaim getContextClaim(GPPlayerData playerData, Location<World> location) {
+        final GPClaimManager claimManager = GriefPreventionPlugin.instance.dataStore.getClaimWorldManager(location.getExtent().getProperties());
+        final long blockPos = BlockUtils.blockPosToLong(location);
+        final int indexVersion = claimManager.getIndexVersion();
+        final CachedContextClaim cached = playerData.contextClaimCache;
+        if (cached != null && cached.matches(location.getExtent().getUniqueId(), blockPos, indexVersion)) {
+            final GPClaim claim = cached.claim.get();
+            if (claim != null) {
+                return claim;
+            }
+        }
+
+        boolean ignoreBorder = playerData.ignoreBorderCheck;
+        playerData.ignoreBorderCheck = false;
+        final GPClaim claim = (GPClaim) claimManager.getClaimAtPlayer(location, playerData);
+        playerData.ignoreBorderCheck = ignoreBorder;
+        playerData.contextClaimCache = new CachedContextClaim(location.getExtent().getUniqueId(), blockPos, indexVersion, claim);
+        return claim;
+    }
+
+    /**
+     * Stores a claim already resolved by a move or teleport so the next
+     * context calculation at that location does not need a lookup.
+     *
+     * @param playerData The player data
+     * @param location The player location
+     * @param claim The claim at location
+     */
+    public static void updateContextClaim(GPPlayerData playerData, Location<World> location, GPClaim claim) {
+        if (claim == null) {
+            return;
+        }
+
+        final GPClaimManager claimManager = GriefPreventionPlugin.instance.dataStore.getClaimWorldManager(location.getExtent().getProperties());
+        playerData.contextClaimCache = new CachedContextClaim(location.getExtent().getUniqueId(), BlockUtils.blockPosToLong(location),
+                claimManager.getIndexVersion(), claim);
+    }
+
+    // Immutable so it can be swapped atomically when contexts are calculated off the main thread
+    public static final class CachedContextClaim {
+
+        private final UUID worldUniqueId;
+        private final long blockPos;
+        private final int indexVersion;
+        private final WeakReference<GPClaim> claim;
+
+        CachedContextClaim(UUID worldUniqueId, long blockPos, int indexVersion, GPClaim claim) {
+            this.worldUniqueId = worldUniqueId;
+            this.blockPos = blockPos;
+            this.indexVersion = indexVersion;
+            this.claim = new WeakReference<>(claim);
+        }
+
+        boolean matches(UUID worldUniqueId, long blockPos, int indexVersion) {
+            return this.blockPos == blockPos && this.indexVersion == indexVersion && this.worldUniqueId.equals(worldUniqueId);
+        }
+    }
 }
@@ -31,6 +31,7 @@
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import me.ryanhamshire.griefprevention.DataStore;
 import me.ryanhamshire.griefprevention.GPPlayerData;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
@@ -50,6 +51,7 @@
 import me.ryanhamshire.griefprevention.command.CommandHelper;
 import me.ryanhamshire.griefprevention.configuration.ClaimDataConfig;
 import me.ryanhamshire.griefprevention.configuration.ClaimStorageData;
+import me.ryanhamshire.griefprevention.configuration.ClaimStore;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
 import me.ryanhamshire.griefprevention.configuration.IClaimData;
 import me.ryanhamshire.griefprevention.configuration.MessageStorage;
@@ -64,6 +66,7 @@
 import me.ryanhamshire.griefprevention.event.GPUserTrustClaimEvent;
 import me.ryanhamshire.griefprevention.permission.GPOptionHandler;
 import me.ryanhamshire.griefprevention.permission.GPOptions;
+import me.ryanhamshire.griefprevention.permission.GPPermissionBatch;
 import me.ryanhamshire.griefprevention.permission.GPPermissionHandler;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
 import me.ryanhamshire.griefprevention.util.BlockUtils;
@@ -85,6 +88,7 @@
 import org.spongepowered.api.service.economy.EconomyService;
 import org.spongepowered.api.service.economy.account.Account;
 import org.spongepowered.api.service.permission.Subject;
+import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
 import org.spongepowered.api.util.Tristate;
@@ -148,7 +152,6 @@ public class GPClaim implements Claim {
     public Visualization visualization;
     public List<UUID> playersWatching = new ArrayList<>();
 
-    private GPPlayerData ownerPlayerData;
     private Account economyAccount;
     private static final int MAX_AREA = GriefPreventionPlugin.CLAIM_BLOCK_SYSTEM == ClaimBlockSystem.VOLUME ? 2560000 : 10000;
 
@@ -199,7 +202,6 @@ public GPClaim(World world, Vector3i point1, Vector3i point2, ClaimType type, UU
         this.greaterBoundaryCorner = new Location<World>(world, bigx, bigy, bigz);
         if (ownerUniqueId != null) {
             this.ownerUniqueId = ownerUniqueId;
-            this.ownerPlayerData = GriefPreventionPlugin.instance.dataStore.getOrCreatePlayerData(this.world, this.ownerUniqueId);
         }
         this.type = type;
         this.id = UUID.randomUUID();
@@ -231,7 +233,6 @@ public GPClaim(Location<World> lesserBoundaryCorner, Location<World> greaterBoun
         this.world = lesserBoundaryCorner.getExtent();
         if (ownerUniqueId != null) {
             this.ownerUniqueId = ownerUniqueId;
-            this.ownerPlayerData = GriefPreventionPlugin.instance.dataStore.getOrCreatePlayerData(this.world, this.ownerUniqueId);
         }
         this.type = type;
         this.cuboid = cuboid;
@@ -253,10 +254,13 @@ public void initializeClaimData(GPClaim parent) {
         } else {
             claimDataFolderPath = DataStore.worldConfigMap.get(this.world.getUniqueId()).getPath().getParent().resolve("ClaimData").resolve(this.type.name().toLowerCase());
         }
-        try {
-            Files.createDirectories(claimDataFolderPath);
-        } catch (IOException e) {
-            e.printStackTrace();
+        // Claims kept in a claim store only use the path as a key
+        if (ClaimStore.get(this.world.getUniqueId()) == null) {
+            try {
+                Files.createDirectories(claimDataFolderPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
         File claimFile = new File(claimDataFolderPath + File.separator + this.id);
         if (this.isTown()) {
@@ -286,12 +290,24 @@ public Visualization getVisualizer() {
         return this.visualization;
     }
 
+    // Loads the owner's data if it was evicted, use getLoadedOwnerPlayerData where cached data is enough
     public GPPlayerData getOwnerPlayerData() {
-        if (this.ownerPlayerData == null && this.ownerUniqueId != null) {
-            this.ownerPlayerData = GriefPreventionPlugin.instance.dataStore.getOrCreatePlayerData(this.world, this.ownerUniqueId);
+        if (this.ownerUniqueId == null) {
+            return null;
+        }
+
+        // owners with claims are never evicted, so this only reads storage for data not loaded yet
+        return GriefPreventionPlugin.instance.dataStore.getOrCreatePlayerData(this.world, this.ownerUniqueId);
+    }
+
+    // Returns the owner's data only if it is in memory, never reading it from storage
+    @Nullable
+    public GPPlayerData getLoadedOwnerPlayerData() {
+        if (this.ownerUniqueId == null) {
+            return null;
         }
 
-        return this.ownerPlayerData;
+        return GriefPreventionPlugin.instance.dataStore.getPlayerData(this.world, this.ownerUniqueId);
     }
 
     public UUID getOwnerUniqueId() {
@@ -601,11 +617,17 @@ public Text getOwnerName() {
             return GriefPreventionPlugin.instance.messageData.ownerAdmin.toText();
         }
 
-        if (this.getOwnerPlayerData() == null) {
+        if (this.ownerUniqueId == null) {
             return Text.of("[unknown]");
         }
 
-        return Text.of(this.getOwnerPlayerData().getPlayerName());
+        final GPPlayerData ownerPlayerData = this.getLoadedOwnerPlayerData();
+        if (ownerPlayerData != null) {
+            return Text.of(ownerPlayerData.getPlayerName());
+        }
+        // don't load the owner's data just for the name
+        final Optional<User> owner = Sponge.getGame().getServiceManager().provide(UserStorageService.class).get().get(this.ownerUniqueId);
+        return owner.isPresent() ? Text.of(owner.get().getName()) : Text.of("[unknown]");
     }
 
     @Override
@@ -652,6 +674,39 @@ public boolean contains(Location<World> location, boolean excludeChildren, GPPla
         return true;
     }
 
+    /**
+     * Checks if a block position and all of its direct neighbors resolve to this claim.
+     *
+     * <p>This is true when the position is at least one block inside the claim
+     * and its parents, and no child claim reaches its neighbors.</p>
+     *
+     * @param x The block x
+     * @param y The block y
+     * @param z The block z
+     * @return Whether all neighbors are in this claim
+     */
+    public boolean isInteriorPosition(int x, int y, int z) {
+        if (this.isWilderness()) {
+            return false;
+        }
+        for (GPClaim claim = this; claim != null; claim = claim.parent) {
+            if (x <= claim.lesserBoundaryCorner.getBlockX() || x >= claim.greaterBoundaryCorner.getBlockX()
+                    || y <= claim.lesserBoundaryCorner.getBlockY() || y >= claim.greaterBoundaryCorner.getBlockY()
+                    || z <= claim.lesserBoundaryCorner.getBlockZ() || z >= claim.greaterBoundaryCorner.getBlockZ()) {
+                return false;
+            }
+        }
+        for (Claim child : this.children) {
+            final GPClaim childClaim = (GPClaim) child;
+            if (x + 1 >= childClaim.lesserBoundaryCorner.getBlockX() && x - 1 <= childClaim.greaterBoundaryCorner.getBlockX()
+                    && y + 1 >= childClaim.lesserBoundaryCorner.getBlockY() && y - 1 <= childClaim.greaterBoundaryCorner.getBlockY()
+                    && z + 1 >= childClaim.lesserBoundaryCorner.getBlockZ() && z - 1 <= childClaim.greaterBoundaryCorner.getBlockZ()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public boolean isClaimOnBorder(GPClaim claim) {
         if (claim.cuboid) {
             return false;
@@ -803,7 +858,12 @@ public boolean canIgnoreHeight() {
         if (this.isCuboid()) {
             return false;
         }
-        if (this.ownerPlayerData != null && (this.ownerPlayerData.getMinClaimLevel() > 0 || this.ownerPlayerData.getMaxClaimLevel() < 255)) {
+        final GPPlayerData ownerPlayerData = this.getLoadedOwnerPlayerData();
+        if (ownerPlayerData == null) {
+            // the owner's levels are unknown without loading their data, use the claim's bounds instead
+            return this.lesserBoundaryCorner.getBlockY() <= 0 && this.greaterBoundaryCorner.getBlockY() >= 255;
+        }
+        if (ownerPlayerData.getMinClaimLevel() > 0 || ownerPlayerData.getMaxClaimLevel() < 255) {
             return false;
         }
 
@@ -864,6 +924,13 @@ public void setClaimStorage(ClaimStorageData storage) {
     }
 
     public void updateClaimStorageData() {
+        this.syncClaimStorageData();
+        // Will save next world save
+        this.claimData.setRequiresSave(true);
+    }
+
+    // Copies the claim's fields to its storage, the setters only mark the data changed when a value differs
+    private void syncClaimStorageData() {
         if (!this.isAdminClaim()) {
             this.claimStorage.getConfig().setOwnerUniqueId(this.getOwnerUniqueId());
         }
@@ -872,22 +939,24 @@ public void updateClaimStorageData() {
         this.claimData.setType(this.type);
         this.claimData.setLesserBoundaryCorner(BlockUtils.positionToString(this.lesserBoundaryCorner));
         this.claimData.setGreaterBoundaryCorner(BlockUtils.positionToString(this.greaterBoundaryCorner));
-        // Will save next world save
-        this.claimData.setRequiresSave(true);
     }
 
-    public void save() {
+    // Writes this claim and its children if they changed since their last save, returning how many were written
+    public int save() {
+        int saved = 0;
         for (Claim child : this.children) {
-            GPClaim childClaim = (GPClaim) child;
-            if (childClaim.getInternalClaimData().requiresSave()) {
-                childClaim.save();
-            }
+            // always descend, a child that has not changed may still hold changed children
+            saved += ((GPClaim) child).save();
         }
         if (this.getInternalClaimData().requiresSave()) {
-            this.updateClaimStorageData();
+            // Already dirty, so the journal holds its changes and does not need another entry
+            this.syncClaimStorageData();
             this.getClaimStorage().save();
             this.getInternalClaimData().setRequiresSave(false);
+            saved++;
         }
+        this.getClaimStorage().releaseColdSections();
+        return saved;
     }
 
     public boolean protectPlayersInClaim() {
@@ -1002,7 +1071,6 @@ public ClaimResult transferOwner(UUID newOwnerID) {
             newOwnerData.getInternalClaims().add(this);
         }
 
-        this.ownerPlayerData = newOwnerData;
         this.getClaimStorage().save();
         return new GPClaimResult(this, ClaimResultType.SUCCESS);
     }
@@ -1304,7 +1372,7 @@ public ClaimResult resizeInternal(int smallX, int smallY, int smallZ, int bigX,
             final int newCost = BlockUtils.getClaimBlockCost(this.world, newLesserCorner.getBlockPosition(), newGreaterCorner.getBlockPosition(), this.cuboid);
             final int currentCost = BlockUtils.getClaimBlockCost(this.world, currentLesserCorner.getBlockPosition(), currentGreaterCorner.getBlockPosition(), this.cuboid);
             if (newCost > currentCost) {
-                final int remainingClaimBlocks = this.ownerPlayerData.getRemainingClaimBlocks() - (newCost - currentCost);
+                final int remainingClaimBlocks = this.getOwnerPlayerData().getRemainingClaimBlocks() - (newCost - currentCost);
                 if (remainingClaimBlocks < 0) {
                     if (player != null) {
                         if (GriefPreventionPlugin.CLAIM_BLOCK_SYSTEM == ClaimBlockSystem.VOLUME) {
@@ -1384,6 +1452,7 @@ public ClaimResult resizeInternal(int smallX, int smallY, int smallZ, int bigX,
             }
         }
 
+        claimWorldManager.markIndexChanged();
         this.claimData.setLesserBoundaryCorner(BlockUtils.positionToString(this.lesserBoundaryCorner));
         this.claimData.setGreaterBoundaryCorner(BlockUtils.positionToString(this.greaterBoundaryCorner));
         this.claimData.setRequiresSave(true);
@@ -1457,7 +1526,7 @@ public ClaimResult resizeCuboid(int smallX, int smallY, int smallZ, int bigX, in
             final int newCost = BlockUtils.getClaimBlockCost(this.world, newLesserCorner.getBlockPosition(), newGreaterCorner.getBlockPosition(), this.cuboid);
             final int currentCost = BlockUtils.getClaimBlockCost(this.world, currentLesserCorner.getBlockPosition(), currentGreaterCorner.getBlockPosition(), this.cuboid);
             if (newCost > currentCost) {
-                final int remainingClaimBlocks = this.ownerPlayerData.getRemainingClaimBlocks() - (newCost - currentCost);
+                final int remainingClaimBlocks = this.getOwnerPlayerData().getRemainingClaimBlocks() - (newCost - currentCost);
                 if (remainingClaimBlocks < 0) {
                     if (player != null) {
                         if (GriefPreventionPlugin.CLAIM_BLOCK_SYSTEM == ClaimBlockSystem.VOLUME) {
@@ -1536,6 +1605,7 @@ public ClaimResult resizeCuboid(int smallX, int smallY, int smallZ, int bigX, in
             }
         }
 
+        claimWorldManager.markIndexChanged();
         this.claimData.setLesserBoundaryCorner(BlockUtils.positionToString(this.lesserBoundaryCorner));
         this.claimData.setGreaterBoundaryCorner(BlockUtils.positionToString(this.greaterBoundaryCorner));
         this.claimData.setRequiresSave(true);
@@ -1728,10 +1798,13 @@ private ClaimResult checkSizeLimits(Player player, GPPlayerData playerData, Vect
 
     public void unload() {
         // clear any references
-        this.world = null;
-        if (this.ownerPlayerData != null) {
-            this.ownerPlayerData.getInternalClaims().remove(this);
+        if (this.ownerUniqueId != null) {
+            final GPPlayerData ownerPlayerData = GriefPreventionPlugin.instance.dataStore.getPlayerData(this.world, this.ownerUniqueId);
+            if (ownerPlayerData != null) {
+                ownerPlayerData.getInternalClaims().remove(this);
+            }
         }
+        this.world = null;
     }
 
     @Override
@@ -1951,8 +2024,7 @@ public ClaimResult changeType(ClaimType type, Optional<UUID> ownerUniqueId, Comm
         final String fileName = this.getClaimStorage().filePath.getFileName().toString();
         final Path newPath = this.getClaimStorage().folderPath.getParent().resolve(type.name().toLowerCase()).resolve(fileName);
         try {
-            Files.createDirectories(newPath.getParent());
-            Files.move(this.getClaimStorage().filePath, newPath);
+            this.getClaimStorage().moveTo(newPath);
             if (type == ClaimType.TOWN) {
                 this.setClaimStorage(new TownStorageData(newPath, this.getWorldUniqueId(), newOwnerUUID, this.cuboid));
             } else {
@@ -1979,10 +2051,11 @@ public ClaimResult changeType(ClaimType type, Optional<UUID> ownerUniqueId, Comm
             }
         }
 
-        if (!this.isAdminClaim() && this.ownerPlayerData != null) {
+        if (!this.isAdminClaim() && this.ownerUniqueId != null) {
             final Player player = Sponge.getServer().getPlayer(this.ownerUniqueId).orElse(null);
-            if (player != null) {
-                this.ownerPlayerData.revertActiveVisual(player);
+            final GPPlayerData ownerPlayerData = player == null ? null : this.getLoadedOwnerPlayerData();
+            if (ownerPlayerData != null) {
+                ownerPlayerData.revertActiveVisual(player);
             }
         }
 
@@ -2975,11 +3048,7 @@ private void moveChildToParent(GPClaim parentClaim, GPClaim childClaim) {
         String fileName = childClaim.getClaimStorage().filePath.getFileName().toString();
         Path newPath = parentClaim.getClaimStorage().folderPath.resolve(childClaim.getType().name().toLowerCase()).resolve(fileName);
         try {
-            Files.createDirectories(newPath.getParent());
-            Files.move(childClaim.getClaimStorage().filePath, newPath);
-            if (childClaim.getClaimStorage().folderPath.toFile().listFiles().length == 0) {
-                Files.delete(childClaim.getClaimStorage().folderPath);
-            }
+            childClaim.getClaimStorage().moveTo(newPath);
             childClaim.setClaimStorage(new ClaimStorageData(newPath, this.getWorldUniqueId(), (ClaimDataConfig) childClaim.getInternalClaimData()));
         } catch (IOException e) {
             e.printStackTrace();
@@ -3008,18 +3077,13 @@ public CompletableFuture<FlagResult> clearPermissions(Subject subject) {
             return result;
         }
 
+        final GPPermissionBatch permissionBatch = new GPPermissionBatch();
         for (Context context : ClaimContexts.CONTEXT_LIST) {
-            contexts = new HashSet<>();
-            contexts.add(context);
-            contexts.add(this.world.getContext());
-            subject.getSubjectData().clearPermissions(contexts);
+            permissionBatch.clearPermissions(subject, ImmutableSet.of(context, this.world.getContext()));
         }
 
-        contexts = new HashSet<>();
-        contexts.add(this.getContext());
-        contexts.add(this.world.getContext());
-        subject.getSubjectData().clearPermissions(contexts);
-        result.complete(new GPFlagResult(FlagResultType.SUCCESS));
+        permissionBatch.clearPermissions(subject, ImmutableSet.of(this.getContext(), this.world.getContext()));
+        permissionBatch.apply().thenRun(() -> result.complete(new GPFlagResult(FlagResultType.SUCCESS)));
         return result;
     }
 
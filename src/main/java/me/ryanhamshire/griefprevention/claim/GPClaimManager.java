@@ -33,6 +33,7 @@
 import me.ryanhamshire.griefprevention.GPPlayerData;
 import me.ryanhamshire.griefprevention.GPTimings;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.PlayerDataCache;
 import me.ryanhamshire.griefprevention.api.claim.Claim;
 import me.ryanhamshire.griefprevention.api.claim.ClaimBlockSystem;
 import me.ryanhamshire.griefprevention.api.claim.ClaimManager;
@@ -40,6 +41,7 @@
 import me.ryanhamshire.griefprevention.api.claim.ClaimResultType;
 import me.ryanhamshire.griefprevention.api.claim.ClaimType;
 import me.ryanhamshire.griefprevention.configuration.ClaimDataConfig;
+import me.ryanhamshire.griefprevention.configuration.ClaimJournal;
 import me.ryanhamshire.griefprevention.configuration.ClaimStorageData;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
 import me.ryanhamshire.griefprevention.configuration.PlayerStorageData;
@@ -59,7 +61,6 @@
 import org.spongepowered.api.world.storage.WorldProperties;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -68,6 +69,10 @@
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -78,7 +83,9 @@ public class GPClaimManager implements ClaimManager {
     private GriefPreventionConfig<?> activeConfig;
 
     // Player UUID -> player data
-    private Map<UUID, GPPlayerData> playerDataList = Maps.newHashMap();
+    private PlayerDataCache playerDataList = new PlayerDataCache();
+    // Player UUID -> player storage being loaded ahead of login
+    private Map<UUID, CompletableFuture<PlayerStorageData>> playerStoragePrefetches = new ConcurrentHashMap<>();
     // World claim list
     private Set<Claim> worldClaims = new HashSet<>();
     // Claim UUID -> Claim
@@ -86,6 +93,8 @@ public class GPClaimManager implements ClaimManager {
     // String -> Claim
     private Map<Long, Set<Claim>> chunksToClaimsMap = new Long2ObjectOpenHashMap<>(4096);
     private GPClaim theWildernessClaim;
+    // Incremented whenever claim boundaries or the claim hierarchy change
+    private volatile int indexVersion = 0;
 
     public GPClaimManager() {
         this.worldProperties = null;
@@ -107,20 +116,61 @@ public GPPlayerData getOrCreatePlayerData(UUID playerUniqueId) {
     }
 
     private GPPlayerData createPlayerData(UUID playerUniqueId) {
-        Path playerFilePath = null;
-        if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
-            playerFilePath = DataStore.globalPlayerDataPath.resolve(playerUniqueId.toString());
-        } else {
-            playerFilePath = DataStore.worldConfigMap.get(this.worldProperties.getUniqueId()).getPath().getParent().resolve("PlayerData").resolve(playerUniqueId.toString());
+        PlayerStorageData playerStorage = null;
+        final CompletableFuture<PlayerStorageData> prefetch = this.getPlayerStoragePrefetches().remove(playerUniqueId);
+        if (prefetch != null) {
+            // only blocks if the player acts before the prefetch completed
+            try {
+                playerStorage = prefetch.join();
+            } catch (CompletionException e) {
+                GriefPreventionPlugin.instance.getLogger().error("Failed to prefetch player data for " + playerUniqueId, e.getCause());
+            }
+        }
+        if (playerStorage == null) {
+            playerStorage = this.createPlayerStorage(playerUniqueId, this.getPlayerFilePath(playerUniqueId));
         }
-
-        PlayerStorageData playerStorage = new PlayerStorageData(playerFilePath);
         Set<Claim> claimList = this.createPlayerClaimList(playerUniqueId);
         GPPlayerData playerData = new GPPlayerData(this.worldProperties, playerUniqueId, playerStorage, this.activeConfig, claimList);
         this.getPlayerDataMap().put(playerUniqueId, playerData);
         return playerData;
     }
 
+    private Path getPlayerFilePath(UUID playerUniqueId) {
+        if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
+            return DataStore.globalPlayerDataPath.resolve(playerUniqueId.toString());
+        }
+        return DataStore.worldConfigMap.get(this.worldProperties.getUniqueId()).getPath().getParent().resolve("PlayerData").resolve(playerUniqueId.toString());
+    }
+
+    private PlayerStorageData createPlayerStorage(UUID playerUniqueId, Path playerFilePath) {
+        return new PlayerStorageData(playerFilePath, playerUniqueId,
+                DataStore.USE_GLOBAL_PLAYER_STORAGE ? null : this.worldProperties.getUniqueId());
+    }
+
+    /**
+     * Starts loading the player's stored data on the plugin executor.
+     *
+     * <p>Must be called on the main thread, only the read runs async. Does
+     * nothing if the player's data is already loaded. The next time player
+     * data has to be created for this player, the prefetched storage is used
+     * instead of reading it again.</p>
+     *
+     * @param playerUniqueId The player's uuid
+     */
+    public void prefetchPlayerData(UUID playerUniqueId) {
+        if (this.getPlayerDataMap().containsKey(playerUniqueId)) {
+            return;
+        }
+        final Path playerFilePath = this.getPlayerFilePath(playerUniqueId);
+        this.getPlayerStoragePrefetches().computeIfAbsent(playerUniqueId, uuid ->
+                CompletableFuture.supplyAsync(() -> this.createPlayerStorage(uuid, playerFilePath), GriefPreventionPlugin.instance.executor));
+    }
+
+    // Drops a prefetch that was not used, so it can never replace newer data later
+    public void discardPlayerPrefetch(UUID playerUniqueId) {
+        this.getPlayerStoragePrefetches().remove(playerUniqueId);
+    }
+
     private Set<Claim> createPlayerClaimList(UUID playerUniqueId) {
         Set<Claim> claimList = new HashSet<>();
         if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
@@ -165,6 +215,7 @@ private Set<Claim> createPlayerClaimList(UUID playerUniqueId) {
 
     public void removePlayer(UUID playerUniqueId) {
         this.getPlayerDataMap().remove(playerUniqueId);
+        this.discardPlayerPrefetch(playerUniqueId);
     }
 
     public ClaimResult addClaim(Claim claim) {
@@ -203,6 +254,8 @@ public void addClaim(Claim claimToAdd, boolean writeToStorage) {
             DATASTORE.writeClaimToStorage(claim);
         }
 
+        this.markIndexChanged();
+
         // We need to keep track of all claims so they can be referenced by children during server startup
         this.claimUniqueIdMap.put(claim.id, claim);
 
@@ -216,7 +269,7 @@ public void addClaim(Claim claimToAdd, boolean writeToStorage) {
             this.worldClaims.remove(claim);
             this.deleteChunkHashes((GPClaim) claim);
             if (!claim.isAdminClaim() && (!claim.isInTown() || !claim.getTownClaim().getOwnerUniqueId().equals(claim.getOwnerUniqueId()))) {
-                final GPPlayerData playerData = this.getPlayerDataMap().get(claim.getOwnerUniqueId());
+                final GPPlayerData playerData = this.getOrCreatePlayerData(claim.getOwnerUniqueId());
                 Set<Claim> playerClaims = playerData.getInternalClaims();
                 if (!playerClaims.contains(claim)) {
                     playerClaims.add(claim);
@@ -244,6 +297,7 @@ public void addClaim(Claim claimToAdd, boolean writeToStorage) {
     }
 
     public void updateChunkHashes(GPClaim claim) {
+        this.markIndexChanged();
         this.deleteChunkHashes(claim);
         Set<Long> chunkHashes = claim.getChunkHashes(true);
         for (Long chunkHash : chunkHashes) {
@@ -259,6 +313,7 @@ public void updateChunkHashes(GPClaim claim) {
 
     // Used when parent claims becomes children
     public void removeClaimData(Claim claim) {
+        this.markIndexChanged();
         this.worldClaims.remove(claim);
         this.deleteChunkHashes((GPClaim) claim);
     }
@@ -309,6 +364,10 @@ public void deleteClaimInternal(Claim claim, boolean deleteChildren) {
                 bankAccount.resetBalance(economyService.getDefaultCurrency(), Sponge.getCauseStackManager().getCurrentCause());
             }
         }
+        this.markIndexChanged();
+        if (gpClaim.isTown()) {
+            TownPresenceIndex.removeTown(claim.getUniqueId());
+        }
         this.worldClaims.remove(claim);
         this.claimUniqueIdMap.remove(claim.getUniqueId());
         this.deleteChunkHashes((GPClaim) claim);
@@ -337,11 +396,7 @@ private void migrateChildToNewParent(GPClaim parentClaim, GPClaim childClaim) {
         }
 
         try {
-            Files.createDirectories(newPath.getParent());
-            Files.move(childClaim.getClaimStorage().filePath, newPath);
-            if (childClaim.getClaimStorage().folderPath.toFile().listFiles().length == 0) {
-                Files.delete(childClaim.getClaimStorage().folderPath);
-            }
+            childClaim.getClaimStorage().moveTo(newPath);
             childClaim.setClaimStorage(new ClaimStorageData(newPath, this.getWorldProperties().getUniqueId(), (ClaimDataConfig) childClaim.getInternalClaimData()));
         } catch (IOException e) {
             e.printStackTrace();
@@ -405,18 +460,15 @@ public Optional<Claim> getClaimByUUID(UUID claimUniqueId) {
     public Set<Claim> getInternalPlayerClaims(UUID playerUniqueId) {
         final GPPlayerData playerData = this.getPlayerDataMap().get(playerUniqueId);
         if (playerData == null) {
-            return new HashSet<>();
+            // not loaded or evicted, the list is rebuilt from the world claims when the data is loaded again
+            return this.createPlayerClaimList(playerUniqueId);
         }
         return playerData.getInternalClaims();
     }
 
     @Nullable
     public List<Claim> getPlayerClaims(UUID playerUniqueId) {
-        final GPPlayerData playerData = this.getPlayerDataMap().get(playerUniqueId);
-        if (playerData == null) {
-            return ImmutableList.of();
-        }
-        return ImmutableList.copyOf(this.getPlayerDataMap().get(playerUniqueId).getInternalClaims());
+        return ImmutableList.copyOf(this.getInternalPlayerClaims(playerUniqueId));
     }
 
     public void createWildernessClaim(WorldProperties worldProperties) {
@@ -451,6 +503,14 @@ public Set<Claim> getInternalWorldClaims() {
         return this.worldClaims;
     }
 
+    // Drops offline players' data that was not used recently, returning how many were removed
+    public int evictPlayerData(int maxSize, long idleMillis) {
+        final List<UUID> evicted = ((PlayerDataCache) this.getPlayerDataMap()).evict(maxSize, idleMillis);
+        // also drops prefetches of clients that disconnected before they logged in
+        this.getPlayerStoragePrefetches().keySet().removeIf(playerUniqueId -> !Sponge.getServer().getPlayer(playerUniqueId).isPresent());
+        return evicted.size();
+    }
+
     public Map<UUID, GPPlayerData> getPlayerDataMap() {
         if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
             return DataStore.GLOBAL_PLAYER_DATA;
@@ -458,6 +518,13 @@ public Map<UUID, GPPlayerData> getPlayerDataMap() {
         return this.playerDataList;
     }
 
+    private Map<UUID, CompletableFuture<PlayerStorageData>> getPlayerStoragePrefetches() {
+        if (DataStore.USE_GLOBAL_PLAYER_STORAGE) {
+            return DataStore.GLOBAL_PLAYER_STORAGE_PREFETCHES;
+        }
+        return this.playerStoragePrefetches;
+    }
+
     @Override
     public Map<Long, Set<Claim>> getChunksToClaimsMap() {
         return ImmutableMap.copyOf(this.chunksToClaimsMap);
@@ -467,19 +534,48 @@ public Map<Long, Set<Claim>> getInternalChunksToClaimsMap() {
         return this.chunksToClaimsMap;
     }
 
+    public int getIndexVersion() {
+        return this.indexVersion;
+    }
+
+    // Invalidates any lookup results cached against the current index version
+    public void markIndexChanged() {
+        this.indexVersion++;
+    }
+
+    // Only claims and player data flagged as changed since their last save are written
     public void save() {
+        final long start = System.nanoTime();
+        int claimCount = 0;
         for (Claim claim : this.worldClaims) {
             GPClaim gpClaim = (GPClaim) claim;
-            gpClaim.save();
+            claimCount += gpClaim.save();
         }
-        this.theWildernessClaim.save();
+        claimCount += this.theWildernessClaim.save();
+        final long claimTime = System.nanoTime() - start;
 
+        int playerCount = 0;
         for (GPPlayerData playerData : this.getPlayerDataMap().values()) {
-            playerData.getStorageData().save();
+            if (playerData.getStorageData().save()) {
+                playerCount++;
+            }
+        }
+        final long playerTime = System.nanoTime() - start - claimTime;
+
+        if (claimCount > 0 || playerCount > 0) {
+            GriefPreventionPlugin.addLogEntry("[" + this.worldProperties.getWorldName() + "] Saved " + claimCount + " changed claims in "
+                    + TimeUnit.NANOSECONDS.toMillis(claimTime) + "ms and " + playerCount + " of " + this.getPlayerDataMap().size()
+                    + " player data in " + TimeUnit.NANOSECONDS.toMillis(playerTime) + "ms.");
+        }
+
+        final ClaimJournal journal = ClaimJournal.get(this.worldProperties.getUniqueId());
+        if (journal != null) {
+            journal.checkpoint();
         }
     }
 
     public void unload() {
+        this.markIndexChanged();
         this.playerDataList.clear();
         this.worldClaims.clear();
         this.claimUniqueIdMap.clear();
@@ -579,6 +675,131 @@ private GPClaim findClaim(GPClaim claim, Location<World> location, GPPlayerData
         return null;
     }
 
+    /**
+     * Gets the single claim containing every block of the given box.
+     *
+     * <p>Only the chunk index is consulted, so this is cheap compared to looking
+     * up each block inside the box.</p>
+     *
+     * @return The claim containing the box, the wilderness if no claim intersects
+     *     the box, or null if the box crosses a claim boundary
+     */
+    public GPClaim getClaimContainingBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        // Very large boxes are cheaper to resolve block by block
+        if ((maxX >> 4) - (minX >> 4) > 8 || (maxZ >> 4) - (minZ >> 4) > 8) {
+            return null;
+        }
+
+        GPClaim result = null;
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                final Set<Claim> claimsInChunk = this.chunksToClaimsMap.get(ChunkPos.asLong(chunkX, chunkZ));
+                if (claimsInChunk == null) {
+                    continue;
+                }
+                for (Claim claim : claimsInChunk) {
+                    final GPClaim gpClaim = (GPClaim) claim;
+                    if (!intersectsBox(gpClaim, minX, minY, minZ, maxX, maxY, maxZ)) {
+                        continue;
+                    }
+                    if (result != null && result != gpClaim) {
+                        return null;
+                    }
+                    result = gpClaim;
+                }
+            }
+        }
+
+        if (result == null) {
+            return this.getWildernessClaim();
+        }
+        final boolean containsBox = minX >= result.lesserBoundaryCorner.getBlockX() && maxX <= result.greaterBoundaryCorner.getBlockX()
+                && minY >= result.lesserBoundaryCorner.getBlockY() && maxY <= result.greaterBoundaryCorner.getBlockY()
+                && minZ >= result.lesserBoundaryCorner.getBlockZ() && maxZ <= result.greaterBoundaryCorner.getBlockZ();
+        if (!containsBox || hasChildInBox(result, minX, minY, minZ, maxX, maxY, maxZ)) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Gets how far a position can move, in blocks along any axis, while still
+     * resolving to the same claim.
+     *
+     * <p>Wilderness positions are measured against top level claims in the
+     * surrounding chunks. Claimed positions are measured against their own
+     * boundaries, those of their parents and the boundaries of their children.</p>
+     *
+     * @param x The block x
+     * @param y The block y
+     * @param z The block z
+     * @param claim The claim at position
+     * @return The safe distance, or a negative value if the position is on a boundary
+     */
+    public int getBoundaryDistance(int x, int y, int z, GPClaim claim) {
+        int distance;
+        Iterable<Claim> nearbyClaims;
+        if (claim.isWilderness()) {
+            final int chunkX = x >> 4;
+            final int chunkZ = z >> 4;
+            // Claims that are not indexed in the surrounding chunks are at least this far away
+            distance = Math.min(Math.min(x - ((chunkX - 1) << 4), ((chunkX + 2) << 4) - 1 - x),
+                    Math.min(z - ((chunkZ - 1) << 4), ((chunkZ + 2) << 4) - 1 - z));
+            for (int cx = chunkX - 1; cx <= chunkX + 1; cx++) {
+                for (int cz = chunkZ - 1; cz <= chunkZ + 1; cz++) {
+                    final Set<Claim> claimsInChunk = this.chunksToClaimsMap.get(ChunkPos.asLong(cx, cz));
+                    if (claimsInChunk == null) {
+                        continue;
+                    }
+                    for (Claim nearbyClaim : claimsInChunk) {
+                        distance = Math.min(distance, getDistanceOutside((GPClaim) nearbyClaim, x, y, z));
+                    }
+                }
+            }
+            return distance;
+        }
+
+        distance = Integer.MAX_VALUE;
+        for (GPClaim current = claim; current != null; current = current.parent) {
+            distance = Math.min(distance, getDistanceInside(current, x, y, z));
+        }
+        for (Claim child : claim.children) {
+            distance = Math.min(distance, getDistanceOutside((GPClaim) child, x, y, z));
+        }
+        return distance;
+    }
+
+    private static int getDistanceInside(GPClaim claim, int x, int y, int z) {
+        final int distanceX = Math.min(x - claim.lesserBoundaryCorner.getBlockX(), claim.greaterBoundaryCorner.getBlockX() - x);
+        final int distanceY = Math.min(y - claim.lesserBoundaryCorner.getBlockY(), claim.greaterBoundaryCorner.getBlockY() - y);
+        final int distanceZ = Math.min(z - claim.lesserBoundaryCorner.getBlockZ(), claim.greaterBoundaryCorner.getBlockZ() - z);
+        return Math.min(distanceX, Math.min(distanceY, distanceZ));
+    }
+
+    private static int getDistanceOutside(GPClaim claim, int x, int y, int z) {
+        // The box can only be entered by closing the gap on every axis, so the widest gap bounds it
+        final int gapX = Math.max(claim.lesserBoundaryCorner.getBlockX() - x, x - claim.greaterBoundaryCorner.getBlockX());
+        final int gapY = Math.max(claim.lesserBoundaryCorner.getBlockY() - y, y - claim.greaterBoundaryCorner.getBlockY());
+        final int gapZ = Math.max(claim.lesserBoundaryCorner.getBlockZ() - z, z - claim.greaterBoundaryCorner.getBlockZ());
+        return Math.max(gapX, Math.max(gapY, gapZ)) - 1;
+    }
+
+    private static boolean hasChildInBox(GPClaim claim, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        for (Claim child : claim.children) {
+            final GPClaim childClaim = (GPClaim) child;
+            if (intersectsBox(childClaim, minX, minY, minZ, maxX, maxY, maxZ) || hasChildInBox(childClaim, minX, minY, minZ, maxX, maxY, maxZ)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean intersectsBox(GPClaim claim, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return maxX >= claim.lesserBoundaryCorner.getBlockX() && minX <= claim.greaterBoundaryCorner.getBlockX()
+                && maxY >= claim.lesserBoundaryCorner.getBlockY() && minY <= claim.greaterBoundaryCorner.getBlockY()
+                && maxZ >= claim.lesserBoundaryCorner.getBlockZ() && minZ <= claim.greaterBoundaryCorner.getBlockZ();
+    }
+
     @Override
     public List<Claim> getClaimsByName(String name) {
         List<Claim> claimList = new ArrayList<>();
@@ -0,0 +1,102 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.claim;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which online players are currently standing in each town.
+ *
+ * <p>Updated whenever a player's claim is resolved on join, border crossing,
+ * teleport and town chat toggles, so town chat can pick its recipients
+ * without a claim lookup per online player.</p>
+ */
+public class TownPresenceIndex {
+
+    private static final Map<UUID, UUID> PLAYER_TOWNS = new ConcurrentHashMap<>();
+    private static final Map<UUID, Set<UUID>> TOWN_RESIDENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Records the claim a player is currently in.
+     *
+     * @param playerUniqueId The player uuid
+     * @param claim The claim at player location
+     */
+    public static void update(UUID playerUniqueId, GPClaim claim) {
+        final GPClaim town = claim == null ? null : claim.getTownClaim();
+        final UUID townUniqueId = town == null ? null : town.getUniqueId();
+        final UUID previousTown = townUniqueId == null ? PLAYER_TOWNS.remove(playerUniqueId) : PLAYER_TOWNS.put(playerUniqueId, townUniqueId);
+        if (townUniqueId != null && townUniqueId.equals(previousTown)) {
+            return;
+        }
+
+        removeResident(previousTown, playerUniqueId);
+        if (townUniqueId != null) {
+            TOWN_RESIDENTS.computeIfAbsent(townUniqueId, k -> ConcurrentHashMap.newKeySet()).add(playerUniqueId);
+        }
+    }
+
+    public static void remove(UUID playerUniqueId) {
+        removeResident(PLAYER_TOWNS.remove(playerUniqueId), playerUniqueId);
+    }
+
+    public static void removeTown(UUID townUniqueId) {
+        final Set<UUID> residents = TOWN_RESIDENTS.remove(townUniqueId);
+        if (residents != null) {
+            for (UUID playerUniqueId : residents) {
+                PLAYER_TOWNS.remove(playerUniqueId, townUniqueId);
+            }
+        }
+    }
+
+    /**
+     * Gets the online players currently standing in a town.
+     *
+     * @param townUniqueId The town uuid
+     * @return An unmodifiable view of the residents
+     */
+    public static Set<UUID> getResidents(UUID townUniqueId) {
+        final Set<UUID> residents = TOWN_RESIDENTS.get(townUniqueId);
+        return residents == null ? Collections.emptySet() : Collections.unmodifiableSet(residents);
+    }
+
+    private static void removeResident(UUID townUniqueId, UUID playerUniqueId) {
+        if (townUniqueId == null) {
+            return;
+        }
+        final Set<UUID> residents = TOWN_RESIDENTS.get(townUniqueId);
+        if (residents != null) {
+            residents.remove(playerUniqueId);
+            if (residents.isEmpty()) {
+                TOWN_RESIDENTS.remove(townUniqueId, residents);
+            }
+        }
+    }
+}
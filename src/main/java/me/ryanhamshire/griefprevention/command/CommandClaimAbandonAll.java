@@ -32,6 +32,7 @@
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.api.claim.Claim;
 import me.ryanhamshire.griefprevention.event.GPDeleteClaimEvent;
+import me.ryanhamshire.griefprevention.permission.GPPermissionBatch;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
@@ -79,14 +80,16 @@ public CommandResult execute(CommandSource src, CommandContext ctx) {
         }
 
         // adjust claim blocks
+        final GPPermissionBatch permissionBatch = new GPPermissionBatch();
         for (Claim claim : playerData.getInternalClaims()) {
             // remove all context permissions
-            player.getSubjectData().clearPermissions(ImmutableSet.of(claim.getContext()));
+            permissionBatch.clearPermissions(player, ImmutableSet.of(claim.getContext()));
             if (claim.isSubdivision() || claim.isAdminClaim() || claim.isWilderness()) {
                 continue;
             }
             playerData.setAccruedClaimBlocks(playerData.getAccruedClaimBlocks() - ((int) Math.ceil(claim.getClaimBlocks() * (1 - playerData.optionAbandonReturnRatioBasic))));
         }
+        permissionBatch.apply();
 
         // delete them
         GriefPreventionPlugin.instance.dataStore.deleteClaimsForPlayer(player.getUniqueId());
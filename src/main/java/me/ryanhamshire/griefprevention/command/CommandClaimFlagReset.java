@@ -28,7 +28,9 @@
 import me.ryanhamshire.griefprevention.GPPlayerData;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
+import me.ryanhamshire.griefprevention.permission.GPPermissionBatch;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
+import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
@@ -36,6 +38,7 @@
 import org.spongepowered.api.command.spec.CommandExecutor;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.permission.SubjectData;
 import org.spongepowered.api.text.Text;
 
 import java.util.Set;
@@ -73,23 +76,38 @@ public CommandResult execute(CommandSource src, CommandContext ctx) {
         }
 
         // Remove persisted data
-        for (Set<Context> contextSet : GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().getAllPermissions().keySet()) {
-            if (contextSet.contains(claim.getContext())) {
-                GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().clearPermissions(contextSet);
+        // Scanning the global subject is expensive with many claims so do it off the main thread
+        final Context claimContext = claim.getContext();
+        GriefPreventionPlugin.instance.executor.execute(() -> {
+            final SubjectData subjectData = GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData();
+            final GPPermissionBatch permissionBatch = new GPPermissionBatch();
+            for (Set<Context> contextSet : subjectData.getAllPermissions().keySet()) {
+                if (contextSet.contains(claimContext)) {
+                    permissionBatch.clearPermissions(GriefPreventionPlugin.GLOBAL_SUBJECT, contextSet);
+                }
             }
-        }
-        for (Set<Context> contextSet : GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().getAllOptions().keySet()) {
-            if (contextSet.contains(claim.getContext())) {
-                GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().clearPermissions(contextSet);
+            for (Set<Context> contextSet : subjectData.getAllOptions().keySet()) {
+                if (contextSet.contains(claimContext)) {
+                    permissionBatch.clearPermissions(GriefPreventionPlugin.GLOBAL_SUBJECT, contextSet);
+                }
             }
-        }
-        for (Set<Context> contextSet : GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().getAllParents().keySet()) {
-            if (contextSet.contains(claim.getContext())) {
-                GriefPreventionPlugin.GLOBAL_SUBJECT.getSubjectData().clearPermissions(contextSet);
+            for (Set<Context> contextSet : subjectData.getAllParents().keySet()) {
+                if (contextSet.contains(claimContext)) {
+                    permissionBatch.clearPermissions(GriefPreventionPlugin.GLOBAL_SUBJECT, contextSet);
+                }
             }
-        }
+            permissionBatch.apply().thenAccept(success -> {
+                // report back on the main thread once the permission service has applied the changes
+                Sponge.getScheduler().createTaskBuilder().execute(() -> {
+                    if (success) {
+                        GriefPreventionPlugin.sendMessage(src, GriefPreventionPlugin.instance.messageData.flagResetSuccess.toText());
+                    } else {
+                        GriefPreventionPlugin.sendMessage(src, GriefPreventionPlugin.instance.messageData.flagResetFailed.toText());
+                    }
+                }).submit(GriefPreventionPlugin.instance);
+            });
+        });
 
-        GriefPreventionPlugin.sendMessage(src, GriefPreventionPlugin.instance.messageData.flagResetSuccess.toText());
         return CommandResult.success();
     }
 }
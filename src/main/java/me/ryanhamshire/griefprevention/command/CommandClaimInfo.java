@@ -186,7 +186,8 @@ public CommandResult execute(CommandSource src, CommandContext ctx) {
         String containerGroups = "";
         String managerGroups = "";
 
-        double claimY = gpClaim.getOwnerPlayerData() == null ? 65.0D : (gpClaim.getOwnerPlayerData().getMinClaimLevel() > 65.0D ? gpClaim.getOwnerPlayerData().getMinClaimLevel() : 65);
+        final GPPlayerData ownerPlayerData = gpClaim.getLoadedOwnerPlayerData();
+        double claimY = ownerPlayerData == null ? 65.0D : (ownerPlayerData.getMinClaimLevel() > 65.0D ? ownerPlayerData.getMinClaimLevel() : 65);
         if (gpClaim.isCuboid()) {
             claimY = gpClaim.lesserBoundaryCorner.getY();
         }
@@ -26,6 +26,7 @@
 
 import me.ryanhamshire.griefprevention.GPDebugData;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.util.EntityCollisionCache;
 import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
 import org.spongepowered.api.command.args.CommandContext;
@@ -40,6 +41,11 @@ public class CommandDebug implements CommandExecutor {
     public CommandResult execute(CommandSource src, CommandContext ctx) {
         String target = ctx.<String>getOne("target").orElse(null);
         User user = ctx.<User>getOne("user").orElse(null);
+        if (target.equalsIgnoreCase("stats")) {
+            sendCacheStats(src, "Block collision cache", EntityCollisionCache.COLLIDE_BLOCK);
+            sendCacheStats(src, "Block impact cache", EntityCollisionCache.IMPACT_BLOCK);
+            return CommandResult.success();
+        }
         GPDebugData debugData = null;
         boolean paste = false;
         if (target.equalsIgnoreCase("on")) {
@@ -82,6 +88,15 @@ public CommandResult execute(CommandSource src, CommandContext ctx) {
         return CommandResult.success();
     }
 
+    // Shows the counters gathered since the last call and starts counting again
+    private static void sendCacheStats(CommandSource src, String name, EntityCollisionCache cache) {
+        src.sendMessage(Text.of(TextColors.GRAY, name, ": ",
+                TextColors.WHITE, "hits ", TextColors.GREEN, cache.getHits(), TextColors.WHITE, " | misses ", TextColors.RED, cache.getMisses(),
+                TextColors.WHITE, " | hit rate ", TextColors.GOLD, String.format("%.1f%%", cache.getHitRate() * 100),
+                TextColors.WHITE, " | expirations ", TextColors.GOLD, cache.getExpirations(), TextColors.WHITE, " | evictions ", TextColors.GOLD, cache.getEvictions()));
+        cache.resetStats();
+    }
+
     private GPDebugData getOrCreateDebugUser(CommandSource src, User user, boolean verbose) {
         GPDebugData debugData = GriefPreventionPlugin.instance.getDebugUserMap().get(src.getIdentifier());
         if (debugData == null) {
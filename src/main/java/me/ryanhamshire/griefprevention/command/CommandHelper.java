@@ -599,7 +599,8 @@ public static List<Text> generateClaimTextList(List<Text> claimsTextList, Set<Cl
                     continue;
                 }
 
-                double teleportHeight = claim.getOwnerPlayerData() == null ? 65.0D : (claim.getOwnerPlayerData().getMinClaimLevel() > 65.0D ? claim.getOwnerPlayerData().getMinClaimLevel() : 65);
+                final GPPlayerData ownerPlayerData = claim.getLoadedOwnerPlayerData();
+                double teleportHeight = ownerPlayerData == null ? 65.0D : (ownerPlayerData.getMinClaimLevel() > 65.0D ? ownerPlayerData.getMinClaimLevel() : 65);
                 Location<World> a = claim.lesserBoundaryCorner;
                 Vector3d center = a.getPosition().add(claim.greaterBoundaryCorner.getPosition()).div(2);
                 if (teleportHeight == 65 && claim.getWorld().getDimension().getType() == DimensionTypes.OVERWORLD) {
@@ -28,6 +28,7 @@
 import me.ryanhamshire.griefprevention.GPPlayerData;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
+import me.ryanhamshire.griefprevention.claim.TownPresenceIndex;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
@@ -55,6 +56,7 @@ public CommandResult execute(CommandSource src, CommandContext ctx) {
         }
 
         playerData.inTown = true;
+        TownPresenceIndex.update(player.getUniqueId(), claim);
         playerData.townChat = !playerData.townChat;
 
         // toggle ignore claims mode on or off
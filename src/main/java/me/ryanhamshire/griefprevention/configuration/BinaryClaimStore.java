@@ -0,0 +1,595 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import com.flowpowered.math.vector.Vector3i;
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.api.claim.ClaimType;
+import me.ryanhamshire.griefprevention.util.BlockUtils;
+import ninja.leaping.configurate.ConfigurationNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stores every claim of a world in a single binary data file instead of one
+ * HOCON file per claim.
+ *
+ * <p>Each record holds a fixed size header (status, claim id, type, parent and
+ * boundaries) followed by a slot containing the claim's logical file path and
+ * its deflated HOCON text. Records are rewritten in place while the new payload
+ * fits their slot, otherwise the old record is marked deleted and a new one is
+ * appended. A memory-mapped index maps claim ids to record offsets for random
+ * access, while world loads read the data file sequentially.</p>
+ *
+ * <p>The HOCON text is kept as is so imports from and exports to the
+ * per-claim file layout are lossless.</p>
+ */
+public class BinaryClaimStore extends ClaimStore {
+
+    public static final String FORMAT_NAME = "binary";
+    public static final String DATA_FILE_NAME = "claims.gpb";
+    public static final String INDEX_FILE_NAME = "claims.gpi";
+
+    // Bump when the layout changes, stores written with another version are rejected instead of misread
+    private static final int FORMAT_VERSION = 1;
+    private static final int DATA_MAGIC = 0x47504342;
+    private static final int INDEX_MAGIC = 0x47504349;
+    private static final int RECORD_MAGIC = 0x47505243;
+    // magic, version, reserved
+    private static final int DATA_HEADER_SIZE = 16;
+    // magic, version, data length, wasted bytes, slot count, reserved
+    private static final int INDEX_HEADER_SIZE = 32;
+    // claim id, record offset
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final int INDEX_GROWTH = 4096;
+    // magic, status, claim id, type, parent id, lesser and greater corner, capacity, length
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 16 + 1 + 16 + 24 + 4 + 4;
+    private static final int RECORD_STATUS_OFFSET = 4;
+    private static final byte STATUS_DELETED = 0;
+    private static final byte STATUS_LIVE = 1;
+    // Compact on open once deleted records take up more than half of a store larger than this
+    private static final long COMPACT_THRESHOLD = 1024 * 1024;
+
+    private final Path worldDataPath;
+    private final Path dataPath;
+    private final Path indexPath;
+    private RandomAccessFile data;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private final Map<UUID, Integer> slots = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int slotCount;
+    private long wastedBytes;
+    // Payloads read by a sequential load, handed out to the first load of each claim
+    private final Map<UUID, String> preloaded = new HashMap<>();
+
+    private BinaryClaimStore(Path worldDataPath) throws IOException {
+        this.worldDataPath = worldDataPath;
+        this.dataPath = worldDataPath.resolve(DATA_FILE_NAME);
+        this.indexPath = worldDataPath.resolve(INDEX_FILE_NAME);
+        this.openFiles();
+        if (this.wastedBytes > COMPACT_THRESHOLD && this.wastedBytes * 2 > this.data.length()) {
+            this.compact();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return FORMAT_NAME.equalsIgnoreCase(GriefPreventionPlugin.getGlobalConfig().getConfig().storage.claimStorageFormat);
+    }
+
+    public static BinaryClaimStore open(Path worldDataPath) throws IOException {
+        return new BinaryClaimStore(worldDataPath);
+    }
+
+    @Override
+    public synchronized boolean contains(Path path) {
+        final UUID claimId = getClaimId(path);
+        return this.preloaded.containsKey(claimId) || this.slots.containsKey(claimId);
+    }
+
+    @Override
+    @Nullable
+    public synchronized String read(Path path) throws IOException {
+        final UUID claimId = getClaimId(path);
+        final String text = this.preloaded.remove(claimId);
+        if (text != null) {
+            return text;
+        }
+        final Record record = this.readRecord(claimId);
+        return record == null ? null : record.getText();
+    }
+
+    @Override
+    public void write(Path path, ConfigurationNode root) throws IOException {
+        this.writeText(path, root.getNode(GriefPreventionPlugin.MOD_ID), renderNode(root));
+    }
+
+    @Override
+    public void write(Path path, String text) throws IOException {
+        this.writeText(path, parseNode(text).getNode(GriefPreventionPlugin.MOD_ID), text);
+    }
+
+    private synchronized void writeText(Path path, ConfigurationNode claimNode, String text) throws IOException {
+        final UUID claimId = getClaimId(path);
+        this.preloaded.remove(claimId);
+        this.store(createRecord(claimId, claimNode, this.encodePayload(path, text)));
+    }
+
+    @Override
+    public synchronized void rename(Path path, Path newPath) throws IOException {
+        final UUID claimId = getClaimId(path);
+        final Record record = this.readRecord(claimId);
+        if (record == null) {
+            return;
+        }
+        final String text = this.preloaded.remove(claimId);
+        record.payload = this.encodePayload(newPath, text != null ? text : record.getText());
+        this.store(record);
+    }
+
+    @Override
+    public synchronized void remove(Path path) throws IOException {
+        final UUID claimId = getClaimId(path);
+        this.preloaded.remove(claimId);
+        final Integer slot = this.slots.remove(claimId);
+        if (slot == null) {
+            return;
+        }
+        final long offset = this.getOffset(slot);
+        this.markDeleted(offset);
+        this.setSlot(slot, claimId, -1);
+        this.freeSlots.push(slot);
+        this.writeIndexHeader();
+    }
+
+    /**
+     * Reads all live records with a single sequential pass.
+     */
+    @Override
+    public synchronized List<File> preload() throws IOException {
+        final List<File> claimFiles = new ArrayList<>();
+        this.preloaded.clear();
+        for (Record record : this.readAll()) {
+            claimFiles.add(this.worldDataPath.resolve(record.getPath()).toFile());
+            this.preloaded.put(record.claimId, record.getText());
+        }
+        return claimFiles;
+    }
+
+    @Override
+    public synchronized void clearPreloaded() {
+        this.preloaded.clear();
+    }
+
+    /**
+     * Writes every live record back to its HOCON claim file.
+     */
+    public synchronized int exportClaimData() throws IOException {
+        int count = 0;
+        for (Record record : this.readAll()) {
+            final Path claimFile = this.worldDataPath.resolve(record.getPath());
+            Files.createDirectories(claimFile.getParent());
+            Files.write(claimFile, record.getText().getBytes(StandardCharsets.UTF_8));
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        this.data.getFD().sync();
+        if (this.index != null) {
+            this.index.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.index != null) {
+            this.index.force();
+            this.index = null;
+        }
+        this.indexChannel.close();
+        this.data.close();
+    }
+
+    private void openFiles() throws IOException {
+        final boolean created = Files.notExists(this.dataPath);
+        this.data = new RandomAccessFile(this.dataPath.toFile(), "rw");
+        this.indexChannel = FileChannel.open(this.indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (created || this.data.length() == 0) {
+                this.data.setLength(0);
+                this.data.writeInt(DATA_MAGIC);
+                this.data.writeInt(FORMAT_VERSION);
+                this.data.writeLong(0);
+            } else {
+                this.data.seek(0);
+                if (this.data.length() < DATA_HEADER_SIZE || this.data.readInt() != DATA_MAGIC) {
+                    throw new IOException(this.dataPath + " is not a claim store.");
+                }
+                final int version = this.data.readInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException(this.dataPath + " uses unsupported format version " + version + ".");
+                }
+            }
+            if (!this.loadIndex()) {
+                this.rebuildIndex();
+            }
+        } catch (IOException e) {
+            this.indexChannel.close();
+            this.data.close();
+            throw e;
+        }
+    }
+
+    private boolean loadIndex() throws IOException {
+        final long size = this.indexChannel.size();
+        if (size < INDEX_HEADER_SIZE) {
+            return false;
+        }
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (this.index.getInt(0) != INDEX_MAGIC || this.index.getInt(4) != FORMAT_VERSION || this.index.getLong(8) != this.data.length()) {
+            return false;
+        }
+        final int count = this.index.getInt(24);
+        if (count < 0 || INDEX_HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > size) {
+            return false;
+        }
+
+        this.wastedBytes = this.index.getLong(16);
+        for (int slot = 0; slot < count; slot++) {
+            final int position = INDEX_HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+            if (this.index.getLong(position + 16) < 0) {
+                this.freeSlots.push(slot);
+            } else {
+                this.slots.put(new UUID(this.index.getLong(position), this.index.getLong(position + 8)), slot);
+            }
+        }
+        this.slotCount = count;
+        return true;
+    }
+
+    // Rebuilds the index from the data file after a crash left them out of sync
+    private void rebuildIndex() throws IOException {
+        this.slots.clear();
+        this.freeSlots.clear();
+        this.slotCount = 0;
+        this.mapIndex(INDEX_GROWTH);
+        for (Record record : this.readAll()) {
+            this.setSlot(this.allocateSlot(), record.claimId, record.offset);
+        }
+        this.writeIndexHeader();
+    }
+
+    private void mapIndex(int slotCapacity) throws IOException {
+        if (this.index != null) {
+            this.index.force();
+        }
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) slotCapacity * INDEX_ENTRY_SIZE);
+    }
+
+    private int allocateSlot() throws IOException {
+        if (!this.freeSlots.isEmpty()) {
+            return this.freeSlots.pop();
+        }
+        final int slot = this.slotCount++;
+        if (INDEX_HEADER_SIZE + (long) this.slotCount * INDEX_ENTRY_SIZE > this.index.capacity()) {
+            this.mapIndex(this.slotCount + INDEX_GROWTH);
+        }
+        return slot;
+    }
+
+    private void setSlot(int slot, UUID claimId, long offset) {
+        final int position = INDEX_HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+        this.index.putLong(position, claimId.getMostSignificantBits());
+        this.index.putLong(position + 8, claimId.getLeastSignificantBits());
+        this.index.putLong(position + 16, offset);
+        if (offset >= 0) {
+            this.slots.put(claimId, slot);
+        }
+    }
+
+    private long getOffset(int slot) {
+        return this.index.getLong(INDEX_HEADER_SIZE + slot * INDEX_ENTRY_SIZE + 16);
+    }
+
+    // The data length is written last so a crash between the data and index writes forces a rebuild
+    private void writeIndexHeader() throws IOException {
+        this.index.putInt(0, INDEX_MAGIC);
+        this.index.putInt(4, FORMAT_VERSION);
+        this.index.putLong(16, this.wastedBytes);
+        this.index.putInt(24, this.slotCount);
+        this.index.putLong(8, this.data.length());
+    }
+
+    private void store(Record record) throws IOException {
+        final Integer slot = this.slots.get(record.claimId);
+        if (slot != null) {
+            final long offset = this.getOffset(slot);
+            final int capacity = this.readCapacity(offset);
+            if (record.payload.length <= capacity) {
+                // Fits the existing slot, update the record in place
+                record.capacity = capacity;
+                this.data.seek(offset);
+                this.data.write(encodeRecord(record, false));
+                return;
+            }
+            this.markDeleted(offset);
+        }
+
+        // Leave room for the record to grow before it has to move again
+        record.capacity = record.payload.length + record.payload.length / 4;
+        final long offset = this.data.length();
+        this.data.seek(offset);
+        this.data.write(encodeRecord(record, true));
+        this.setSlot(slot != null ? slot : this.allocateSlot(), record.claimId, offset);
+        this.writeIndexHeader();
+    }
+
+    private int readCapacity(long offset) throws IOException {
+        this.data.seek(offset + RECORD_HEADER_SIZE - 8);
+        return this.data.readInt();
+    }
+
+    private void markDeleted(long offset) throws IOException {
+        this.wastedBytes += RECORD_HEADER_SIZE + this.readCapacity(offset);
+        this.data.seek(offset + RECORD_STATUS_OFFSET);
+        this.data.writeByte(STATUS_DELETED);
+    }
+
+    @Nullable
+    private Record readRecord(UUID claimId) throws IOException {
+        final Integer slot = this.slots.get(claimId);
+        if (slot == null) {
+            return null;
+        }
+        final long offset = this.getOffset(slot);
+        final byte[] header = new byte[RECORD_HEADER_SIZE];
+        this.data.seek(offset);
+        this.data.readFully(header);
+        final Record record = readHeader(new DataInputStream(new ByteArrayInputStream(header)), offset);
+        if (record == null || record.status != STATUS_LIVE) {
+            return null;
+        }
+        this.data.readFully(record.payload);
+        return record;
+    }
+
+    // Reads all live records sequentially, stopping at a torn record left behind by a crash
+    private List<Record> readAll() throws IOException {
+        final List<Record> records = new ArrayList<>();
+        final long length = this.data.length();
+        long offset = DATA_HEADER_SIZE;
+        long wasted = 0;
+        try (InputStream stream = Files.newInputStream(this.dataPath)) {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+            input.skipBytes(DATA_HEADER_SIZE);
+            while (offset + RECORD_HEADER_SIZE <= length) {
+                final Record record = readHeader(input, offset);
+                if (record == null || offset + RECORD_HEADER_SIZE + record.capacity > length) {
+                    break;
+                }
+                input.readFully(record.payload);
+                input.skipBytes(record.capacity - record.payload.length);
+                if (record.status == STATUS_LIVE) {
+                    records.add(record);
+                } else {
+                    wasted += RECORD_HEADER_SIZE + record.capacity;
+                }
+                offset += RECORD_HEADER_SIZE + record.capacity;
+            }
+        }
+
+        if (offset < length) {
+            GriefPreventionPlugin.instance.getLogger().warn("Discarding " + (length - offset) + " unreadable bytes at the end of " + this.dataPath + ".");
+            this.data.setLength(offset);
+        }
+        this.wastedBytes = wasted;
+        return records;
+    }
+
+    // Rewrites the data file with live records only
+    private void compact() throws IOException {
+        final List<Record> records = this.readAll();
+        final Path tempPath = this.worldDataPath.resolve(DATA_FILE_NAME + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            output.writeInt(DATA_MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(0);
+            for (Record record : records) {
+                output.write(encodeRecord(record, true));
+            }
+        }
+
+        this.close();
+        Files.move(tempPath, this.dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(this.indexPath);
+        this.slots.clear();
+        this.freeSlots.clear();
+        this.slotCount = 0;
+        this.wastedBytes = 0;
+        this.openFiles();
+    }
+
+    private byte[] encodePayload(Path path, String text) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4 + 64);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeUTF(this.worldDataPath.relativize(path).toString().replace(File.separatorChar, '/'));
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(output, deflater)) {
+            deflaterOutput.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRecord(Record record, boolean padded) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + (padded ? record.capacity : record.payload.length));
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(RECORD_MAGIC);
+        output.writeByte(STATUS_LIVE);
+        output.writeLong(record.claimId.getMostSignificantBits());
+        output.writeLong(record.claimId.getLeastSignificantBits());
+        output.writeByte(record.type);
+        output.writeLong(record.parentId == null ? 0 : record.parentId.getMostSignificantBits());
+        output.writeLong(record.parentId == null ? 0 : record.parentId.getLeastSignificantBits());
+        for (int coordinate : record.bounds) {
+            output.writeInt(coordinate);
+        }
+        output.writeInt(record.capacity);
+        output.writeInt(record.payload.length);
+        output.write(record.payload);
+        if (padded) {
+            output.write(new byte[record.capacity - record.payload.length]);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Nullable
+    private static Record readHeader(DataInput input, long offset) throws IOException {
+        if (input.readInt() != RECORD_MAGIC) {
+            return null;
+        }
+        final byte status = input.readByte();
+        final Record record = new Record(new UUID(input.readLong(), input.readLong()));
+        record.offset = offset;
+        record.status = status;
+        record.type = input.readByte();
+        final long parentMost = input.readLong();
+        final long parentLeast = input.readLong();
+        record.parentId = parentMost == 0 && parentLeast == 0 ? null : new UUID(parentMost, parentLeast);
+        for (int i = 0; i < record.bounds.length; i++) {
+            record.bounds[i] = input.readInt();
+        }
+        record.capacity = input.readInt();
+        final int length = input.readInt();
+        if (record.capacity < 0 || length < 0 || length > record.capacity) {
+            return null;
+        }
+        record.payload = new byte[length];
+        return record;
+    }
+
+    private static Record createRecord(UUID claimId, ConfigurationNode claimNode, byte[] payload) {
+        final Record record = new Record(claimId);
+        record.payload = payload;
+        try {
+            record.type = (byte) ClaimType.valueOf(claimNode.getNode(ClaimStorageData.MAIN_CLAIM_TYPE).getString(ClaimType.BASIC.name())).ordinal();
+        } catch (IllegalArgumentException e) {
+            record.type = -1;
+        }
+        final String parent = claimNode.getNode("parent").getString();
+        if (parent != null) {
+            try {
+                record.parentId = UUID.fromString(parent);
+            } catch (IllegalArgumentException e) {
+                // keep the header empty, the payload still holds the original value
+            }
+        }
+        setBounds(record.bounds, 0, claimNode.getNode(ClaimStorageData.MAIN_LESSER_BOUNDARY_CORNER).getString());
+        setBounds(record.bounds, 3, claimNode.getNode(ClaimStorageData.MAIN_GREATER_BOUNDARY_CORNER).getString());
+        return record;
+    }
+
+    private static void setBounds(int[] bounds, int index, String position) {
+        if (position == null) {
+            return;
+        }
+        try {
+            final Vector3i pos = BlockUtils.positionFromString(position);
+            bounds[index] = pos.getX();
+            bounds[index + 1] = pos.getY();
+            bounds[index + 2] = pos.getZ();
+        } catch (Exception e) {
+            // keep the header empty, the payload still holds the original value
+        }
+    }
+
+    private static class Record {
+
+        private final UUID claimId;
+        private long offset;
+        private byte status = STATUS_LIVE;
+        private byte type;
+        private UUID parentId;
+        private final int[] bounds = new int[6];
+        private int capacity;
+        private byte[] payload;
+
+        private Record(UUID claimId) {
+            this.claimId = claimId;
+        }
+
+        private String getPath() throws IOException {
+            return new DataInputStream(new ByteArrayInputStream(this.payload)).readUTF();
+        }
+
+        private String getText() throws IOException {
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(this.payload));
+            input.readUTF();
+            final ByteArrayOutputStream text = new ByteArrayOutputStream(this.payload.length * 4);
+            try (InflaterInputStream inflater = new InflaterInputStream(input)) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inflater.read(buffer)) != -1) {
+                    text.write(buffer, 0, read);
+                }
+            }
+            return new String(text.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
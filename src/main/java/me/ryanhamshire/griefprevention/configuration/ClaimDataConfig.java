@@ -25,21 +25,27 @@
 package me.ryanhamshire.griefprevention.configuration;
 
 import com.flowpowered.math.vector.Vector3i;
+import com.google.common.reflect.TypeToken;
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.api.claim.ClaimType;
 import me.ryanhamshire.griefprevention.api.data.EconomyData;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
 import me.ryanhamshire.griefprevention.configuration.category.ConfigCategory;
 import me.ryanhamshire.griefprevention.util.BlockUtils;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.configurate.objectmapping.Setting;
 import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.util.Tristate;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -86,10 +92,6 @@ public class ClaimDataConfig extends ConfigCategory implements IClaimData {
     private String dateLastActive = Instant.now().toString();
     @Setting(value = ClaimStorageData.MAIN_CLAIM_NAME)
     private Text claimName;
-    @Setting(value = ClaimStorageData.MAIN_CLAIM_GREETING)
-    private Text claimGreetingMessage;
-    @Setting(value = ClaimStorageData.MAIN_CLAIM_FAREWELL)
-    private Text claimFarewellMessage;
     @Setting(value = ClaimStorageData.MAIN_CLAIM_SPAWN)
     private String claimSpawn;
     @Setting(value = ClaimStorageData.MAIN_LESSER_BOUNDARY_CORNER)
@@ -112,8 +114,10 @@ public class ClaimDataConfig extends ConfigCategory implements IClaimData {
     private List<String> containerGroups = new ArrayList<>();
     @Setting(value = ClaimStorageData.MAIN_MANAGER_GROUPS)
     private List<String> managerGroups = new ArrayList<>();
-    @Setting
-    private EconomyDataConfig economyData = new EconomyDataConfig();
+    // Rarely used sections, deserialized on first use
+    private final ColdSection<Text> greeting = new ColdSection<>(ClaimStorageData.MAIN_CLAIM_GREETING, TypeToken.of(Text.class), () -> null);
+    private final ColdSection<Text> farewell = new ColdSection<>(ClaimStorageData.MAIN_CLAIM_FAREWELL, TypeToken.of(Text.class), () -> null);
+    private final ColdSection<EconomyDataConfig> economyData = new ColdSection<>("economyData", TypeToken.of(EconomyDataConfig.class), EconomyDataConfig::new);
 
     public ClaimDataConfig() {
 
@@ -258,12 +262,12 @@ public Optional<Text> getName() {
 
     @Override
     public Optional<Text> getGreeting() {
-        return Optional.ofNullable(this.claimGreetingMessage);
+        return Optional.ofNullable(this.greeting.get());
     }
 
     @Override
     public Optional<Text> getFarewell() {
-        return Optional.ofNullable(this.claimFarewellMessage);
+        return Optional.ofNullable(this.farewell.get());
     }
 
     @Override
@@ -271,7 +275,6 @@ public Optional<Vector3i> getSpawnPos() {
         if (this.spawnPos == null && this.claimSpawn != null) {
             try {
                 this.spawnPos = BlockUtils.positionFromString(this.claimSpawn);
-                this.requiresSave = true;
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -340,117 +343,157 @@ public List<String> getManagerGroups() {
 
     @Override
     public void setDenyMessages(boolean flag) {
-        this.requiresSave = true;
+        if (this.allowDenyMessages != flag) {
+            this.markChanged();
+        }
         this.allowDenyMessages = flag;
     }
 
     @Override
     public void setExpiration(boolean flag) {
-        this.requiresSave = true;
+        if (this.allowClaimExpiration != flag) {
+            this.markChanged();
+        }
         this.allowClaimExpiration = flag;
     }
 
     @Override
     public void setFlagOverrides(boolean flag) {
+        if (this.allowFlagOverrides != flag) {
+            this.markChanged();
+        }
         this.allowFlagOverrides = flag;
     }
 
     @Override
     public void setCuboid(boolean cuboid) {
+        if (this.isCuboid != cuboid) {
+            this.markChanged();
+        }
         this.isCuboid = cuboid;
     }
 
     @Override
     public void setPvpOverride(Tristate pvp) {
-        this.requiresSave = true;
+        if (this.pvpOverride != pvp) {
+            this.markChanged();
+        }
         this.pvpOverride = pvp;
     }
 
     @Override
     public void setResizable(boolean resizable) {
-        this.requiresSave = true;
+        if (this.isResizable != resizable) {
+            this.markChanged();
+        }
         this.isResizable = resizable;
     }
 
     @Override
     public void setType(ClaimType type) {
-        this.requiresSave = true;
+        if (this.claimType != type) {
+            this.markChanged();
+        }
         this.claimType = type;
     }
 
     @Override
     public void setDateLastActive(Instant date) {
-        this.requiresSave = true;
+        this.markChanged();
         this.dateLastActive = date.toString();
     }
 
     @Override
     public void setName(Text name) {
-        this.requiresSave = true;
+        this.markChanged();
         this.claimName = name;
     }
 
     @Override
     public void setGreeting(Text message) {
-        this.requiresSave = true;
-        this.claimGreetingMessage = message;
+        this.markChanged();
+        this.greeting.set(message);
     }
 
     @Override
     public void setFarewell(Text message) {
-        this.requiresSave = true;
-        this.claimFarewellMessage = message;
+        this.markChanged();
+        this.farewell.set(message);
     }
 
     @Override
     public void setLesserBoundaryCorner(String location) {
-        this.requiresSave = true;
+        if (!Objects.equals(this.lesserBoundaryCornerPos, location)) {
+            this.markChanged();
+        }
         this.lesserBoundaryCornerPos = location;
         this.lesserPos = null;
     }
 
     @Override
     public void setGreaterBoundaryCorner(String location) {
-        this.requiresSave = true;
+        if (!Objects.equals(this.greaterBoundaryCornerPos, location)) {
+            this.markChanged();
+        }
         this.greaterBoundaryCornerPos = location;
         this.greaterPos = null;
     }
 
     @Override
     public void setAccessors(List<UUID> accessors) {
-        this.requiresSave = true;
+        this.markChanged();
         this.accessors = accessors;
     }
 
     @Override
     public void setBuilders(List<UUID> builders) {
-        this.requiresSave = true;
+        this.markChanged();
         this.builders = builders;
     }
 
     @Override
     public void setContainers(List<UUID> containers) {
-        this.requiresSave = true;
+        this.markChanged();
         this.containers = containers;
     }
 
     @Override
     public void setManagers(List<UUID> coowners) {
-        this.requiresSave = true;
+        this.markChanged();
         this.managers = coowners;
     }
 
     public boolean requiresSave() {
-        return this.requiresSave;
+        final EconomyDataConfig economyData = this.economyData.getIfHydrated();
+        return this.requiresSave || (economyData != null && economyData.requiresSave());
     }
 
     @Override
     public void setRequiresSave(boolean flag) {
-        this.requiresSave = flag;
+        if (flag) {
+            this.markChanged();
+        } else {
+            this.requiresSave = false;
+            final EconomyDataConfig economyData = this.economyData.getIfHydrated();
+            if (economyData != null) {
+                economyData.setRequiresSave(false);
+            }
+        }
+    }
+
+    // Flags the claim for the next save and journals it at the end of the tick
+    private void markChanged() {
+        this.requiresSave = true;
+        if (this.claimStorage != null) {
+            ClaimJournal.track(this.claimStorage);
+        }
     }
 
     @Override
     public void setSizeRestrictions(boolean sizeRestrictions) {
+        if (this.sizeRestrictions != sizeRestrictions) {
+            this.markChanged();
+        }
         this.sizeRestrictions = sizeRestrictions;
     }
 
@@ -465,19 +508,25 @@ public boolean doesInheritParent() {
 
     @Override
     public void setInheritParent(boolean flag) {
-        this.requiresSave = true;
+        if (this.inheritParent != flag) {
+            this.markChanged();
+        }
         this.inheritParent = flag;
     }
 
     @Override
     public void setOwnerUniqueId(UUID newClaimOwner) {
-        this.requiresSave = true;
+        if (!Objects.equals(this.ownerUniqueId, newClaimOwner)) {
+            this.markChanged();
+        }
         this.ownerUniqueId = newClaimOwner;
     }
 
     @Override
     public void setWorldUniqueId(UUID uuid) {
-        this.requiresSave = true;
+        if (!Objects.equals(this.worldUniqueId, uuid)) {
+            this.markChanged();
+        }
         this.worldUniqueId = uuid;
     }
 
@@ -496,7 +545,7 @@ public void setSpawnPos(Vector3i spawnPos) {
             return;
         }
 
-        this.requiresSave = true;
+        this.markChanged();
         this.spawnPos = spawnPos;
         this.claimSpawn = BlockUtils.positionToString(spawnPos);
     }
@@ -508,13 +557,17 @@ public boolean requiresClaimBlocks() {
 
     @Override
     public void setRequiresClaimBlocks(boolean requiresClaimBlocks) {
-        this.requiresSave = true;
+        if (this.requiresClaimBlocks != requiresClaimBlocks) {
+            this.markChanged();
+        }
         this.requiresClaimBlocks = requiresClaimBlocks;
     }
 
     @Override
     public void setParent(UUID uuid) {
-        this.requiresSave = true;
+        if (!Objects.equals(this.parent, uuid)) {
+            this.markChanged();
+        }
         this.parent = uuid;
     }
 
@@ -528,11 +581,37 @@ public boolean isExpired() {
     }
 
     public void setExpired(boolean expire) {
+        if (this.isExpired != expire) {
+            this.markChanged();
+        }
         this.isExpired = expire;
     }
 
     @Override
     public EconomyData getEconomyData() {
-        return this.economyData;
+        final EconomyDataConfig economyData = this.economyData.get();
+        economyData.claimStorage = this.claimStorage;
+        if (economyData.activeConfig == null && this.worldUniqueId != null) {
+            economyData.activeConfig = GriefPreventionPlugin.getActiveConfig(this.worldUniqueId);
+        }
+        return economyData;
+    }
+
+    void bindColdSections(ConfigurationNode node) throws IOException {
+        this.greeting.bind(node);
+        this.farewell.bind(node);
+        this.economyData.bind(node);
+    }
+
+    void writeColdSections(ConfigurationNode node) throws IOException, ObjectMappingException {
+        this.greeting.write(node);
+        this.farewell.write(node);
+        this.economyData.write(node);
+    }
+
+    void releaseColdSections() throws IOException, ObjectMappingException {
+        this.greeting.release();
+        this.farewell.release();
+        this.economyData.release();
     }
 }
\ No newline at end of file
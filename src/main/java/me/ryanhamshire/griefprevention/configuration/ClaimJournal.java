@@ -0,0 +1,486 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.claim.GPClaimManager;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.world.storage.WorldProperties;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Write-ahead journal of claim changes for a world.
+ *
+ * <p>Claims changed during a tick are snapshotted at the end of it and appended
+ * to the current journal segment as checksummed records, which are synced to
+ * disk as one batch. Each world save starts a new segment, and the previous ones
+ * are deleted once the writes of that save completed. Segments left behind by a
+ * crash are replayed into the claim storage before the world's claims load.</p>
+ */
+public class ClaimJournal {
+
+    public static final String FILE_PREFIX = "claims.journal.";
+    private static final byte OP_UPSERT = 1;
+    private static final byte OP_DELETE = 2;
+    // Largest record replay accepts, anything bigger is a torn length
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    // Once a segment grows past this a world save is requested to checkpoint it
+    private static final long CHECKPOINT_SIZE = 8 * 1024 * 1024;
+
+    private static final Map<UUID, ClaimJournal> JOURNALS = new ConcurrentHashMap<>();
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "GriefPrevention Claim Journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final UUID worldUniqueId;
+    private final Path worldDataPath;
+    // Main thread state
+    private final Set<ClaimStorageData> changed = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+    private int segment;
+    private boolean closed;
+    // Segments holding changes whose save failed to write, their checkpoint keeps the journal
+    private final Set<Integer> failedSegments = ConcurrentHashMap.newKeySet();
+    // Journal thread state
+    private FileChannel channel;
+    private int channelSegment;
+    private volatile boolean checkpointRequested;
+
+    private ClaimJournal(UUID worldUniqueId, Path worldDataPath) {
+        this.worldUniqueId = worldUniqueId;
+        this.worldDataPath = worldDataPath;
+    }
+
+    public static boolean isEnabled() {
+        return GriefPreventionPlugin.getGlobalConfig().getConfig().storage.claimJournal;
+    }
+
+    /**
+     * Starts journaling the world. Segments of a previous run must have been replayed first.
+     */
+    public static ClaimJournal open(UUID worldUniqueId, Path worldDataPath) {
+        final ClaimJournal journal = new ClaimJournal(worldUniqueId, worldDataPath);
+        final ClaimJournal previous = JOURNALS.put(worldUniqueId, journal);
+        if (previous != null) {
+            previous.close();
+        }
+        return journal;
+    }
+
+    @Nullable
+    public static ClaimJournal get(UUID worldUniqueId) {
+        return JOURNALS.get(worldUniqueId);
+    }
+
+    public static void close(UUID worldUniqueId) {
+        final ClaimJournal journal = JOURNALS.remove(worldUniqueId);
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Closes every journal and waits up to the timeout for queued appends.
+     */
+    public static void closeAll(long timeout, TimeUnit unit) {
+        for (UUID worldUniqueId : new ArrayList<>(JOURNALS.keySet())) {
+            close(worldUniqueId);
+        }
+        try {
+            EXECUTOR.submit(() -> {}).get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            GriefPreventionPlugin.instance.getLogger().warn("Claim journal did not complete within " + timeout + " " + unit.name().toLowerCase() + ".");
+        }
+    }
+
+    /**
+     * Marks the claim storage as changed, it is journaled at the end of the current tick.
+     */
+    static void track(ClaimStorageData claimStorage) {
+        if (claimStorage.worldUniqueId == null) {
+            return;
+        }
+        final ClaimJournal journal = JOURNALS.get(claimStorage.worldUniqueId);
+        if (journal == null || !journal.changed.add(claimStorage)) {
+            return;
+        }
+        if (journal.commitScheduled.compareAndSet(false, true)) {
+            Sponge.getScheduler().createTaskBuilder().delayTicks(1).execute(journal::commit).submit(GriefPreventionPlugin.instance);
+        }
+    }
+
+    /**
+     * Journals the removal of the claim storage's current file, used before it is deleted or moved.
+     */
+    static void recordDelete(ClaimStorageData claimStorage) {
+        if (claimStorage.worldUniqueId == null) {
+            return;
+        }
+        final ClaimJournal journal = JOURNALS.get(claimStorage.worldUniqueId);
+        if (journal == null) {
+            return;
+        }
+        journal.changed.remove(claimStorage);
+        final List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(OP_DELETE, claimStorage.filePath, null));
+        journal.append(entries);
+    }
+
+    /**
+     * Starts a new segment after a world save. The previous segments are deleted
+     * once the storage writer has completed the writes queued by the save, unless
+     * one of them failed.
+     */
+    public void checkpoint() {
+        if (this.closed) {
+            return;
+        }
+        final int completed = this.segment++;
+        this.checkpointRequested = false;
+        StorageWriter.submit(this.getSegmentPath(completed), () -> EXECUTOR.execute(() -> this.completeCheckpoint(completed)));
+    }
+
+    // The segment changes are currently journaled to, main thread only
+    int getSegment() {
+        return this.segment;
+    }
+
+    /**
+     * Records that a claim write queued while the segment was current failed,
+     * so the checkpoint covering it keeps the journal.
+     */
+    void recordWriteFailure(int segment) {
+        this.failedSegments.add(segment);
+    }
+
+    private void completeCheckpoint(int completed) {
+        boolean failed = false;
+        final Iterator<Integer> iterator = this.failedSegments.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() <= completed) {
+                iterator.remove();
+                failed = true;
+            }
+        }
+        if (failed) {
+            // the failed claims were marked changed again, a later checkpoint deletes the segments once they are written
+            SpongeImpl.getLogger().warn("Claim writes of the last save in " + this.worldDataPath + " failed, keeping the claim journal.");
+            return;
+        }
+        this.deleteSegments(completed);
+    }
+
+    private void commit() {
+        this.commitScheduled.set(false);
+        if (this.closed) {
+            return;
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        final Iterator<ClaimStorageData> iterator = this.changed.iterator();
+        while (iterator.hasNext()) {
+            final ClaimStorageData claimStorage = iterator.next();
+            iterator.remove();
+            final ConfigurationNode snapshot = claimStorage.snapshot();
+            if (snapshot != null) {
+                entries.add(new Entry(OP_UPSERT, claimStorage.filePath, snapshot));
+            }
+        }
+        if (!entries.isEmpty()) {
+            this.append(entries);
+        }
+
+        if (this.checkpointRequested) {
+            this.checkpointRequested = false;
+            final WorldProperties worldProperties = Sponge.getServer().getWorldProperties(this.worldUniqueId).orElse(null);
+            if (worldProperties != null) {
+                final GPClaimManager claimWorldManager = GriefPreventionPlugin.instance.dataStore.getClaimWorldManager(worldProperties);
+                if (claimWorldManager != null) {
+                    claimWorldManager.save();
+                }
+            }
+        }
+    }
+
+    private void close() {
+        this.closed = true;
+        this.changed.clear();
+        EXECUTOR.execute(this::closeChannel);
+    }
+
+    private void append(List<Entry> entries) {
+        final int segment = this.segment;
+        EXECUTOR.execute(() -> this.write(segment, entries));
+    }
+
+    private void write(int segment, List<Entry> entries) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            final CRC32 crc = new CRC32();
+            for (Entry entry : entries) {
+                final byte[] payload = entry.encode(this.worldDataPath);
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                output.writeInt(payload.length);
+                output.writeInt((int) crc.getValue());
+                output.write(payload);
+            }
+
+            if (this.channel == null || this.channelSegment != segment) {
+                this.closeChannel();
+                this.channel = FileChannel.open(this.getSegmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                this.channelSegment = segment;
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.channel.force(false);
+            if (this.channel.size() > CHECKPOINT_SIZE) {
+                this.checkpointRequested = true;
+            }
+        } catch (IOException e) {
+            SpongeImpl.getLogger().error("Failed to append to claim journal in " + this.worldDataPath, e);
+        }
+    }
+
+    private void deleteSegments(int upTo) {
+        if (this.channel != null && this.channelSegment <= upTo) {
+            this.closeChannel();
+        }
+        try {
+            for (Path segmentPath : getSegments(this.worldDataPath)) {
+                if (getSegmentNumber(segmentPath) <= upTo) {
+                    Files.deleteIfExists(segmentPath);
+                }
+            }
+        } catch (IOException e) {
+            SpongeImpl.getLogger().error("Failed to delete claim journal segments in " + this.worldDataPath, e);
+        }
+    }
+
+    private void closeChannel() {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        this.channel = null;
+    }
+
+    private Path getSegmentPath(int segment) {
+        return this.worldDataPath.resolve(FILE_PREFIX + segment);
+    }
+
+    /**
+     * Applies the journal segments left in the world data folder to the claim
+     * storage and deletes them. Replay stops at the first torn or corrupt record.
+     *
+     * @return The number of records applied
+     */
+    public static int replay(Path worldDataPath, @Nullable ClaimStore claimStore) throws IOException {
+        final List<Path> segments = getSegments(worldDataPath);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        boolean torn = false;
+        final CRC32 crc = new CRC32();
+        for (Path segmentPath : segments) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath)))) {
+                while (true) {
+                    final int length;
+                    try {
+                        length = input.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final int checksum = input.readInt();
+                    if (length < 0 || length > MAX_RECORD_SIZE) {
+                        torn = true;
+                        break;
+                    }
+                    final byte[] payload = new byte[length];
+                    input.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        torn = true;
+                        break;
+                    }
+                    apply(worldDataPath, claimStore, payload);
+                    count++;
+                }
+            } catch (EOFException e) {
+                torn = true;
+            }
+            if (torn) {
+                GriefPreventionPlugin.instance.getLogger().warn("Claim journal " + segmentPath + " ends with an incomplete record, replay stopped there.");
+                break;
+            }
+        }
+
+        // the segments are only deleted once the replayed changes are stored
+        if (claimStore != null) {
+            claimStore.sync();
+        }
+        for (Path segmentPath : segments) {
+            Files.deleteIfExists(segmentPath);
+        }
+        return count;
+    }
+
+    private static void apply(Path worldDataPath, @Nullable ClaimStore claimStore, byte[] payload) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        final byte op = input.readByte();
+        final Path path = worldDataPath.resolve(input.readUTF().replace('/', File.separatorChar));
+        if (op == OP_DELETE) {
+            if (claimStore != null) {
+                claimStore.remove(path);
+            } else {
+                Files.deleteIfExists(path);
+            }
+            return;
+        }
+
+        final String text;
+        try (InputStream inflaterInput = new InflaterInputStream(input)) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inflaterInput.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+        if (claimStore != null) {
+            claimStore.write(path, text);
+        } else {
+            Files.createDirectories(path.getParent());
+            StorageWriter.writeAtomically(path, text);
+        }
+    }
+
+    private static List<Path> getSegments(Path worldDataPath) throws IOException {
+        if (Files.notExists(worldDataPath)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> paths = Files.list(worldDataPath)) {
+            return paths.filter(path -> getSegmentNumber(path) >= 0)
+                    .sorted(Comparator.comparingInt(ClaimJournal::getSegmentNumber))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int getSegmentNumber(Path path) {
+        final String fileName = path.getFileName().toString();
+        if (!fileName.startsWith(FILE_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(FILE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Entry {
+
+        private final byte op;
+        private final Path path;
+        private final ConfigurationNode snapshot;
+
+        private Entry(byte op, Path path, @Nullable ConfigurationNode snapshot) {
+            this.op = op;
+            this.path = path;
+            this.snapshot = snapshot;
+        }
+
+        private byte[] encode(Path worldDataPath) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(this.op);
+            output.writeUTF(worldDataPath.relativize(this.path).toString().replace(File.separatorChar, '/'));
+            if (this.op == OP_UPSERT) {
+                final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try (DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(output, deflater)) {
+                    deflaterOutput.write(ClaimStore.renderNode(this.snapshot).getBytes(StandardCharsets.UTF_8));
+                } finally {
+                    deflater.end();
+                }
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -26,6 +26,7 @@
 
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.api.claim.ClaimType;
+import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.ConfigurationOptions;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.commented.SimpleCommentedConfigurationNode;
@@ -40,14 +41,20 @@
 import java.nio.file.Path;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
+
 public class ClaimStorageData {
 
     protected HoconConfigurationLoader loader;
     private CommentedConfigurationNode root = SimpleCommentedConfigurationNode.root(ConfigurationOptions.defaults());
     protected ObjectMapper<ClaimDataConfig>.BoundInstance configMapper;
     protected ClaimDataConfig configBase;
+    // Set when the world stores its claims in a claim store instead of per-claim files
+    protected ClaimStore claimStore;
+    UUID worldUniqueId;
     public Path filePath;
     public Path folderPath;
+    private boolean deleted;
 
     // MAIN
     public static final String MAIN_WORLD_UUID = "world-uuid";
@@ -92,12 +99,7 @@ public ClaimStorageData(Path path, UUID worldUniqueId, UUID ownerUniqueId, Claim
         this.filePath = path;
         this.folderPath = path.getParent();
         try {
-            Files.createDirectories(path.getParent());
-            if (Files.notExists(path)) {
-                Files.createFile(path);
-            }
-
-            this.loader = HoconConfigurationLoader.builder().setPath(path).build();
+            this.initLoader(path, worldUniqueId);
             if (type == ClaimType.TOWN) {
                 this.configMapper = (ObjectMapper.BoundInstance) ObjectMapper.forClass(TownDataConfig.class).bindToNew();
             } else {
@@ -109,7 +111,6 @@ public ClaimStorageData(Path path, UUID worldUniqueId, UUID ownerUniqueId, Claim
             this.configMapper.getInstance().setCuboid(cuboid);
             this.configMapper.getInstance().setClaimStorageData(this);
             load();
-            ((EconomyDataConfig) this.configMapper.getInstance().getEconomyData()).activeConfig = GriefPreventionPlugin.getActiveConfig(Sponge.getServer().getWorld(worldUniqueId).get().getProperties());
         } catch (Exception e) {
             SpongeImpl.getLogger().error("Failed to initialize configuration", e);
         }
@@ -120,16 +121,10 @@ public ClaimStorageData(Path path, UUID worldUniqueId, ClaimDataConfig claimData
         this.filePath = path;
         this.folderPath = path.getParent();
         try {
-            Files.createDirectories(path.getParent());
-            if (Files.notExists(path)) {
-                Files.createFile(path);
-            }
-
-            this.loader = HoconConfigurationLoader.builder().setPath(path).build();
+            this.initLoader(path, worldUniqueId);
             this.configMapper = (ObjectMapper.BoundInstance) ObjectMapper.forClass(ClaimDataConfig.class).bind(claimData);
             this.configMapper.getInstance().setClaimStorageData(this);
             load();
-            ((EconomyDataConfig) this.configMapper.getInstance().getEconomyData()).activeConfig = GriefPreventionPlugin.getActiveConfig(worldUniqueId);
         } catch (Exception e) {
             SpongeImpl.getLogger().error("Failed to initialize configuration", e);
         }
@@ -141,12 +136,7 @@ public ClaimStorageData(Path path, UUID worldUniqueId) {
         this.filePath = path;
         this.folderPath = path.getParent();
         try {
-            Files.createDirectories(path.getParent());
-            if (Files.notExists(path)) {
-                Files.createFile(path);
-            }
-
-            this.loader = HoconConfigurationLoader.builder().setPath(path).build();
+            this.initLoader(path, worldUniqueId);
             if (path.getParent().endsWith("town")) {
                 this.configMapper = (ObjectMapper.BoundInstance) ObjectMapper.forClass(TownDataConfig.class).bindToNew();
             } else {
@@ -154,32 +144,137 @@ public ClaimStorageData(Path path, UUID worldUniqueId) {
             }
             this.configMapper.getInstance().setClaimStorageData(this);
             load();
-            ((EconomyDataConfig) this.configMapper.getInstance().getEconomyData()).activeConfig = GriefPreventionPlugin.getActiveConfig(worldUniqueId);
         } catch (Exception e) {
             SpongeImpl.getLogger().error("Failed to initialize configuration", e);
         }
     }
 
+    private void initLoader(Path path, UUID worldUniqueId) throws IOException {
+        this.worldUniqueId = worldUniqueId;
+        this.claimStore = ClaimStore.get(worldUniqueId);
+        if (this.claimStore != null) {
+            return;
+        }
+
+        Files.createDirectories(path.getParent());
+        if (Files.notExists(path)) {
+            Files.createFile(path);
+        }
+
+        this.loader = HoconConfigurationLoader.builder().setPath(path).build();
+    }
+
     public ClaimDataConfig getConfig() {
         return this.configBase;
     }
 
     public void save() {
+        // Snapshot on the calling thread, the writer renders and stores it later
+        final ConfigurationNode snapshot = this.snapshot();
+        if (snapshot == null) {
+            return;
+        }
+        final Path path = this.filePath;
+        final ClaimStore claimStore = this.claimStore;
+        final ClaimJournal journal = this.worldUniqueId == null ? null : ClaimJournal.get(this.worldUniqueId);
+        final int segment = journal == null ? -1 : journal.getSegment();
+        StorageWriter.submit(path, () -> {
+            try {
+                if (claimStore != null) {
+                    claimStore.write(path, snapshot);
+                } else {
+                    StorageWriter.writeAtomically(path, snapshot);
+                }
+            } catch (IOException | RuntimeException e) {
+                this.onWriteFailed(journal, segment);
+                throw e;
+            }
+        });
+        this.configBase.setRequiresSave(false);
+    }
+
+    // Runs on the writer thread, keeps the journaled change and marks the data changed again so the next save retries it
+    private void onWriteFailed(@Nullable ClaimJournal journal, int segment) {
+        if (journal != null) {
+            journal.recordWriteFailure(segment);
+        }
+        Sponge.getScheduler().createTaskBuilder().execute(() -> {
+            if (!this.deleted && this.configBase != null) {
+                this.configBase.setRequiresSave(true);
+            }
+        }).submit(GriefPreventionPlugin.instance);
+    }
+
+    // Serializes the current data into a copy that is safe to hand to another thread
+    @Nullable
+    ConfigurationNode snapshot() {
         try {
             this.configMapper.serialize(this.root.getNode(GriefPreventionPlugin.MOD_ID));
-            this.loader.save(this.root);
-            this.configBase.setRequiresSave(false);
+            final ConfigurationNode snapshot = this.root.copy();
+            this.configBase.writeColdSections(snapshot.getNode(GriefPreventionPlugin.MOD_ID));
+            return snapshot;
         } catch (IOException | ObjectMappingException e) {
             SpongeImpl.getLogger().error("Failed to save configuration", e);
+            return null;
         }
     }
 
     public void load() {
         try {
-            this.root = this.loader.load(ConfigurationOptions.defaults());
+            StorageWriter.flush(this.filePath);
+            if (this.claimStore != null) {
+                this.root = this.claimStore.load(this.filePath);
+            } else {
+                this.root = this.loader.load(ConfigurationOptions.defaults());
+            }
             this.configBase = this.configMapper.populate(this.root.getNode(GriefPreventionPlugin.MOD_ID));
+            this.configBase.bindColdSections(this.root.getNode(GriefPreventionPlugin.MOD_ID));
         } catch (Exception e) {
             SpongeImpl.getLogger().error("Failed to load configuration", e);
         }
     }
+
+    // Drops rarely used sections that were not touched since the last world save
+    public void releaseColdSections() {
+        if (this.configBase == null || this.configBase.requiresSave()) {
+            return;
+        }
+        try {
+            this.configBase.releaseColdSections();
+        } catch (IOException | ObjectMappingException e) {
+            SpongeImpl.getLogger().error("Failed to release claim data", e);
+        }
+    }
+
+    public void moveTo(Path newPath) throws IOException {
+        StorageWriter.flush(this.filePath);
+        ClaimJournal.recordDelete(this);
+        if (this.claimStore != null) {
+            this.claimStore.rename(this.filePath, newPath);
+        } else {
+            Files.createDirectories(newPath.getParent());
+            Files.move(this.filePath, newPath);
+            if (this.folderPath.toFile().listFiles().length == 0) {
+                Files.delete(this.folderPath);
+            }
+        }
+        this.filePath = newPath;
+        this.folderPath = newPath.getParent();
+        ClaimJournal.track(this);
+    }
+
+    public void delete() throws IOException {
+        this.deleted = true;
+        StorageWriter.cancel(this.filePath);
+        ClaimJournal.recordDelete(this);
+        if (this.claimStore != null) {
+            this.claimStore.remove(this.filePath);
+            return;
+        }
+
+        Files.delete(this.filePath);
+        if (this.folderPath.toFile().listFiles().length == 0) {
+            Files.delete(this.folderPath);
+        }
+    }
 }
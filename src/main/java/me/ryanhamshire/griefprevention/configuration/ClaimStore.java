@@ -0,0 +1,203 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.ConfigurationOptions;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.commented.SimpleCommentedConfigurationNode;
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds the claims of a world in place of the per-claim HOCON files.
+ *
+ * <p>Claims keep being addressed by their logical claim file path, so the
+ * path layout still carries the claim type and id, and claim data can move
+ * between a store and the file layout without changes.</p>
+ */
+public abstract class ClaimStore implements Closeable {
+
+    private static final Map<UUID, ClaimStore> STORES = new ConcurrentHashMap<>();
+
+    @Nullable
+    public static ClaimStore get(UUID worldUniqueId) {
+        return STORES.get(worldUniqueId);
+    }
+
+    public static void register(UUID worldUniqueId, ClaimStore store) {
+        final ClaimStore previous = STORES.put(worldUniqueId, store);
+        if (previous != null && previous != store) {
+            previous.closeQuietly();
+        }
+    }
+
+    public static void unregister(UUID worldUniqueId) {
+        final ClaimStore store = STORES.remove(worldUniqueId);
+        if (store != null) {
+            store.closeQuietly();
+        }
+    }
+
+    public abstract boolean contains(Path path);
+
+    /**
+     * Returns the parsed HOCON root stored for the path, or an empty root if
+     * the claim has not been written yet.
+     */
+    public CommentedConfigurationNode load(Path path) throws IOException {
+        final String text = this.read(path);
+        if (text == null) {
+            return SimpleCommentedConfigurationNode.root(ConfigurationOptions.defaults());
+        }
+        return parseNode(text);
+    }
+
+    @Nullable
+    public abstract String read(Path path) throws IOException;
+
+    public abstract void write(Path path, ConfigurationNode root) throws IOException;
+
+    /**
+     * Stores claim data that was already rendered as HOCON text.
+     */
+    public abstract void write(Path path, String text) throws IOException;
+
+    public abstract void rename(Path path, Path newPath) throws IOException;
+
+    public abstract void remove(Path path) throws IOException;
+
+    /**
+     * Reads every claim of the world in bulk and returns their logical claim
+     * file paths. The claim data is kept until each claim is loaded through
+     * {@link #load(Path)} or {@link #clearPreloaded()}.
+     */
+    public abstract List<File> preload() throws IOException;
+
+    public abstract void clearPreloaded();
+
+    /**
+     * Blocks until every write made so far is durably stored. Does nothing for
+     * stores whose writes are durable once they return.
+     */
+    public void sync() throws IOException {
+    }
+
+    /**
+     * Imports every claim file below the HOCON claim data folder, keeping its
+     * text and path unchanged.
+     *
+     * <p>All files are read and parsed before anything is written. If any of
+     * them fails, nothing is imported and an exception is thrown so the caller
+     * keeps the folder.</p>
+     */
+    public int importClaimData(Path claimDataPath) throws IOException {
+        final List<Path> claimFiles = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(claimDataPath)) {
+            paths.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().length() == 36).forEach(claimFiles::add);
+        }
+
+        final Map<Path, String> claimTexts = new LinkedHashMap<>();
+        int failed = 0;
+        for (Path claimFile : claimFiles) {
+            try {
+                final String text = new String(Files.readAllBytes(claimFile), StandardCharsets.UTF_8);
+                getClaimId(claimFile);
+                parseNode(text);
+                claimTexts.put(claimFile, text);
+            } catch (IOException | IllegalArgumentException e) {
+                GriefPreventionPlugin.instance.getLogger().error("Could not import claim file " + claimFile.toAbsolutePath(), e);
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new IOException(failed + " claim files in " + claimDataPath + " could not be read, no claims were imported.");
+        }
+
+        for (Map.Entry<Path, String> entry : claimTexts.entrySet()) {
+            this.write(entry.getKey(), entry.getValue());
+        }
+        return claimTexts.size();
+    }
+
+    /**
+     * Copies every claim of another store of the same world into this one.
+     */
+    public int importClaimStore(ClaimStore source) throws IOException {
+        int count = 0;
+        for (File claimFile : source.preload()) {
+            final String text = source.read(claimFile.toPath());
+            if (text != null) {
+                this.write(claimFile.toPath(), text);
+                count++;
+            }
+        }
+        source.clearPreloaded();
+        return count;
+    }
+
+    protected void closeQuietly() {
+        try {
+            this.close();
+        } catch (IOException e) {
+            GriefPreventionPlugin.instance.getLogger().error("Could not close claim store", e);
+        }
+    }
+
+    protected static UUID getClaimId(Path path) {
+        return UUID.fromString(path.getFileName().toString());
+    }
+
+    static String renderNode(ConfigurationNode root) throws IOException {
+        final StringWriter writer = new StringWriter();
+        HoconConfigurationLoader.builder().setSink(() -> new BufferedWriter(writer)).build().save(root);
+        return writer.toString();
+    }
+
+    static CommentedConfigurationNode parseNode(String text) throws IOException {
+        return HoconConfigurationLoader.builder().setSource(() -> new BufferedReader(new StringReader(text))).build().load(ConfigurationOptions.defaults());
+    }
+}
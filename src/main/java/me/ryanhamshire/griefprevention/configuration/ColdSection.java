@@ -0,0 +1,155 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import com.google.common.reflect.TypeToken;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * A part of a claim's data that is only deserialized when it is first used.
+ *
+ * <p>The section is removed from the claim's configuration root when it is
+ * bound and kept as HOCON text until then, the text is merged into the
+ * snapshot written on each save. A section that was not used between two
+ * world saves is rendered back to text and its value released again.</p>
+ */
+class ColdSection<T> {
+
+    private final String key;
+    private final TypeToken<T> type;
+    private final Supplier<T> defaultValue;
+    // The stored section while it is not deserialized, null if the claim has none
+    private String text;
+    private T value;
+    private boolean hydrated;
+    private boolean used;
+
+    ColdSection(String key, TypeToken<T> type, Supplier<T> defaultValue) {
+        this.key = key;
+        this.type = type;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * Detaches the section from the claim's freshly loaded data node.
+     */
+    void bind(ConfigurationNode parent) throws IOException {
+        final ConfigurationNode node = parent.getNode(this.key);
+        if (node.isVirtual()) {
+            if (this.hydrated && this.value != null) {
+                // keep a value set before the claim had stored data, it is written on the next save
+                return;
+            }
+            this.text = null;
+        } else {
+            this.text = this.render(node.getValue());
+            parent.removeChild(this.key);
+        }
+        this.value = null;
+        this.hydrated = false;
+        this.used = false;
+    }
+
+    // Returns the value without counting as a use, or null if it was not deserialized
+    @Nullable
+    T getIfHydrated() {
+        return this.hydrated ? this.value : null;
+    }
+
+    @Nullable
+    T get() {
+        this.used = true;
+        if (!this.hydrated) {
+            this.hydrated = true;
+            if (this.text != null) {
+                try {
+                    this.value = ClaimStore.parseNode(this.text).getNode(this.key).getValue(this.type);
+                } catch (IOException | ObjectMappingException e) {
+                    SpongeImpl.getLogger().error("Failed to read claim data " + this.key, e);
+                }
+                this.text = null;
+            }
+            if (this.value == null) {
+                this.value = this.defaultValue.get();
+            }
+        }
+        return this.value;
+    }
+
+    void set(@Nullable T value) {
+        this.value = value;
+        this.text = null;
+        this.hydrated = true;
+        this.used = true;
+    }
+
+    /**
+     * Writes the section into a snapshot of the claim's data node before it is saved.
+     */
+    void write(ConfigurationNode target) throws IOException, ObjectMappingException {
+        if (this.hydrated) {
+            if (this.value == null) {
+                target.removeChild(this.key);
+            } else {
+                target.getNode(this.key).setValue(this.type, this.value);
+            }
+        } else if (this.text != null) {
+            target.getNode(this.key).setValue(ClaimStore.parseNode(this.text).getNode(this.key).getValue());
+        }
+    }
+
+    /**
+     * Renders the deserialized value back to text if it was not used since the last call.
+     */
+    void release() throws IOException, ObjectMappingException {
+        if (!this.used && this.hydrated) {
+            if (this.value == null) {
+                this.text = null;
+            } else {
+                final ConfigurationNode node = SimpleConfigurationNode.root();
+                node.getNode(this.key).setValue(this.type, this.value);
+                this.text = this.render(node.getNode(this.key).getValue());
+            }
+            this.value = null;
+            this.hydrated = false;
+        }
+        this.used = false;
+    }
+
+    private String render(Object value) throws IOException {
+        final ConfigurationNode root = SimpleConfigurationNode.root();
+        root.getNode(this.key).setValue(value);
+        return ClaimStore.renderNode(root);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import ninja.leaping.configurate.ConfigurationNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the claims of a world in the {@link SqlStorage} database.
+ */
+public class DatabaseClaimStore extends ClaimStore {
+
+    private final SqlStorage storage;
+    private final UUID worldUniqueId;
+    private final Path worldDataPath;
+    // Claim data read in bulk by preload, handed out once per claim while the world loads
+    private final Map<UUID, String> preloaded = new HashMap<>();
+
+    public DatabaseClaimStore(SqlStorage storage, UUID worldUniqueId, Path worldDataPath) {
+        this.storage = storage;
+        this.worldUniqueId = worldUniqueId;
+        this.worldDataPath = worldDataPath;
+    }
+
+    @Override
+    public boolean contains(Path path) {
+        final UUID claimId = getClaimId(path);
+        synchronized (this.preloaded) {
+            if (this.preloaded.containsKey(claimId)) {
+                return true;
+            }
+        }
+        try {
+            return this.storage.containsClaim(claimId);
+        } catch (IOException e) {
+            GriefPreventionPlugin.instance.getLogger().error("Could not look up claim " + claimId + " in the database", e);
+            return false;
+        }
+    }
+
+    @Override
+    @Nullable
+    public String read(Path path) throws IOException {
+        final UUID claimId = getClaimId(path);
+        synchronized (this.preloaded) {
+            final String text = this.preloaded.remove(claimId);
+            if (text != null) {
+                return text;
+            }
+        }
+        return this.storage.readClaim(claimId);
+    }
+
+    @Override
+    public void write(Path path, ConfigurationNode root) throws IOException {
+        this.queueRow(path, root.getNode(GriefPreventionPlugin.MOD_ID), renderNode(root));
+    }
+
+    @Override
+    public void write(Path path, String text) throws IOException {
+        this.queueRow(path, parseNode(text).getNode(GriefPreventionPlugin.MOD_ID), text);
+    }
+
+    private void queueRow(Path path, ConfigurationNode claimNode, String text) {
+        final UUID claimId = getClaimId(path);
+        synchronized (this.preloaded) {
+            this.preloaded.remove(claimId);
+        }
+        this.storage.queueClaim(new SqlStorage.ClaimRow(claimId, this.worldUniqueId, this.getRelativePath(path), claimNode, text));
+    }
+
+    @Override
+    public void rename(Path path, Path newPath) throws IOException {
+        final String text = this.read(path);
+        if (text != null) {
+            // rows are keyed by claim id, writing under the new path replaces the old one
+            this.write(newPath, text);
+        }
+    }
+
+    @Override
+    public void remove(Path path) {
+        final UUID claimId = getClaimId(path);
+        synchronized (this.preloaded) {
+            this.preloaded.remove(claimId);
+        }
+        this.storage.queueClaimDelete(claimId);
+    }
+
+    @Override
+    public List<File> preload() throws IOException {
+        final List<SqlStorage.StoredClaim> claims = this.storage.readWorldClaims(this.worldUniqueId);
+        final List<File> claimFiles = new ArrayList<>(claims.size());
+        synchronized (this.preloaded) {
+            this.preloaded.clear();
+            for (SqlStorage.StoredClaim claim : claims) {
+                claimFiles.add(this.worldDataPath.resolve(claim.path).toFile());
+                this.preloaded.put(claim.claimId, claim.data);
+            }
+        }
+        return claimFiles;
+    }
+
+    @Override
+    public void clearPreloaded() {
+        synchronized (this.preloaded) {
+            this.preloaded.clear();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        this.storage.awaitWrites();
+    }
+
+    @Override
+    public void close() {
+        this.clearPreloaded();
+    }
+
+    private String getRelativePath(Path path) {
+        return this.worldDataPath.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -41,6 +41,9 @@
 public class EconomyDataConfig extends ConfigCategory implements EconomyData {
 
     public GriefPreventionConfig<?> activeConfig;
+    private boolean requiresSave = false;
+    // Set by the owning claim data so changes are journaled
+    ClaimStorageData claimStorage;
 
     @Setting(value = ClaimStorageData.MAIN_CLAIM_FOR_SALE)
     private boolean forSale = false;
@@ -65,6 +68,9 @@ public double getSalePrice() {
 
     @Override
     public void setForSale(boolean forSale) {
+        if (this.forSale != forSale) {
+            this.markChanged();
+        }
         this.forSale = forSale;
     }
 
@@ -75,6 +81,9 @@ public double getTaxBalance() {
 
     @Override
     public void setTaxBalance(double balance) {
+        if (this.taxBalance != balance) {
+            this.markChanged();
+        }
         this.taxBalance = balance;
     }
 
@@ -92,6 +101,7 @@ public Optional<Instant> getTaxPastDueDate() {
 
     @Override
     public void setTaxPastDueDate(Instant date) {
+        this.markChanged();
         if (date == null) {
             this.taxPastDueDate = null;
         } else {
@@ -101,6 +111,9 @@ public void setTaxPastDueDate(Instant date) {
 
     @Override
     public void setSalePrice(double price) {
+        if (this.salePrice != price) {
+            this.markChanged();
+        }
         this.salePrice = price;
     }
 
@@ -115,10 +128,27 @@ public void addBankTransaction(BankTransaction transaction) {
             this.getBankTransactionLog().remove(0);
         }
         this.getBankTransactionLog().add(new Gson().toJson(transaction));
+        this.markChanged();
     }
 
     @Override
     public void clearBankTransactionLog() {
+        this.markChanged();
         this.bankTransactionLog.clear();
     }
+
+    public boolean requiresSave() {
+        return this.requiresSave;
+    }
+
+    public void setRequiresSave(boolean flag) {
+        this.requiresSave = flag;
+    }
+
+    private void markChanged() {
+        this.requiresSave = true;
+        if (this.claimStorage != null) {
+            ClaimJournal.track(this.claimStorage);
+        }
+    }
 }
@@ -498,6 +498,9 @@ public class MessageDataConfig extends ConfigCategory {
     @Setting("flag-overrides-not-supported")
     public TextTemplate flagOverridesNotSupported = TextTemplate.of("Claim type ", TextTemplate.arg("type"), " does not support flag overrides.");
 
+    @Setting("flag-reset-failed")
+    public TextTemplate flagResetFailed = TextTemplate.of(TextColors.RED, "Failed to reset claim flags. See the server log for details.");
+
     @Setting("flag-reset-success")
     public TextTemplate flagResetSuccess = TextTemplate.of(TextColors.GREEN, "Claim flags reset to defaults successfully.");
 
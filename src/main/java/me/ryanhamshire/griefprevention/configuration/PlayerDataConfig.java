@@ -50,12 +50,16 @@ public int getBonusClaimBlocks() {
     }
 
     public void setAccruedClaimBlocks(int blocks) {
-        this.requiresSave = true;
+        if (this.accruedClaimBlocks != blocks) {
+            this.requiresSave = true;
+        }
         this.accruedClaimBlocks = blocks;
     }
 
     public void setBonusClaimBlocks(int blocks) {
-        this.requiresSave = true;
+        if (this.bonusClaimBlocks != blocks) {
+            this.requiresSave = true;
+        }
         this.bonusClaimBlocks = blocks;
     }
 
@@ -73,6 +77,9 @@ public boolean hasMigratedBlocks() {
     }
 
     public void setMigratedBlocks(boolean flag) {
+        if (this.migrated != flag) {
+            this.requiresSave = true;
+        }
         this.migrated = flag;
     }
 }
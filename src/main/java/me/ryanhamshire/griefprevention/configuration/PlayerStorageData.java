@@ -25,6 +25,7 @@
 package me.ryanhamshire.griefprevention.configuration;
 
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.ConfigurationOptions;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.commented.SimpleCommentedConfigurationNode;
@@ -36,24 +37,38 @@
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
 
 public class PlayerStorageData {
 
     private HoconConfigurationLoader loader;
+    private Path filePath;
+    // Set when player data is kept in the database, keyed by player and world or global scope
+    private SqlStorage sqlStorage;
+    private UUID playerUniqueId;
+    private String scope;
     private CommentedConfigurationNode root = SimpleCommentedConfigurationNode.root(ConfigurationOptions.defaults());
     private ObjectMapper<PlayerDataConfig>.BoundInstance configMapper;
     private PlayerDataConfig configBase;
 
     @SuppressWarnings({"unchecked", "rawtypes"})
-    public PlayerStorageData(Path path) {
+    public PlayerStorageData(Path path, UUID playerUniqueId, @Nullable UUID worldUniqueId) {
 
+        this.filePath = path;
+        this.playerUniqueId = playerUniqueId;
+        this.scope = worldUniqueId == null ? SqlStorage.GLOBAL_SCOPE : worldUniqueId.toString();
+        this.sqlStorage = SqlStorage.get();
         try {
-            Files.createDirectories(path.getParent());
-            if (Files.notExists(path)) {
-                Files.createFile(path);
-            }
+            if (this.sqlStorage == null) {
+                Files.createDirectories(path.getParent());
+                if (Files.notExists(path)) {
+                    Files.createFile(path);
+                }
 
-            this.loader = HoconConfigurationLoader.builder().setPath(path).build();
+                this.loader = HoconConfigurationLoader.builder().setPath(path).build();
+            }
             this.configMapper = (ObjectMapper.BoundInstance) ObjectMapper.forClass(PlayerDataConfig.class).bindToNew();
 
             load();
@@ -67,26 +82,85 @@ public PlayerDataConfig getConfig() {
         return this.configBase;
     }
 
-    public void save() {
+    // Returns whether the data had changed and was written
+    public boolean save() {
         try {
             if (this.configBase != null) {
                 if (this.configBase.requiresSave()) {
+                    if (this.sqlStorage != null) {
+                        this.sqlStorage.queuePlayer(new SqlStorage.PlayerRow(this.playerUniqueId, this.scope, this.configBase.getAccruedClaimBlocks(),
+                                this.configBase.getBonusClaimBlocks(), this.configBase.hasMigratedBlocks()));
+                        this.configBase.setRequiresSave(false);
+                        return true;
+                    }
                     this.configMapper.serialize(this.root.getNode(GriefPreventionPlugin.MOD_ID));
-                    this.loader.save(this.root);
+                    // Snapshot on the calling thread, the writer renders and stores it later
+                    final ConfigurationNode snapshot = this.root.copy();
+                    final Path path = this.filePath;
+                    StorageWriter.submit(path, () -> StorageWriter.writeAtomically(path, snapshot));
                     this.configBase.setRequiresSave(false);
+                    return true;
+                }
+            }
+        } catch (ObjectMappingException e) {
+            SpongeImpl.getLogger().error("Failed to save configuration", e);
+        }
+        return false;
+    }
+
+    /**
+     * Writes changed data on the calling thread instead of queueing it.
+     *
+     * @return Whether the data is stored
+     */
+    public boolean saveNow() {
+        if (this.configBase == null || !this.configBase.requiresSave()) {
+            return true;
+        }
+        try {
+            if (this.sqlStorage != null) {
+                this.sqlStorage.queuePlayer(new SqlStorage.PlayerRow(this.playerUniqueId, this.scope, this.configBase.getAccruedClaimBlocks(),
+                        this.configBase.getBonusClaimBlocks(), this.configBase.hasMigratedBlocks()));
+                this.sqlStorage.awaitWrites();
+            } else {
+                this.configMapper.serialize(this.root.getNode(GriefPreventionPlugin.MOD_ID));
+                final ConfigurationNode snapshot = this.root.copy();
+                final Path path = this.filePath;
+                if (!StorageWriter.write(path, () -> StorageWriter.writeAtomically(path, snapshot))) {
+                    return false;
                 }
             }
-        } catch (IOException | ObjectMappingException e) {
+        } catch (ObjectMappingException | IOException e) {
             SpongeImpl.getLogger().error("Failed to save configuration", e);
+            return false;
         }
+        this.configBase.setRequiresSave(false);
+        return true;
     }
 
     public void load() {
         try {
-            this.root = this.loader.load(ConfigurationOptions.defaults());
+            if (this.sqlStorage != null) {
+                this.root = this.loadRow();
+            } else {
+                StorageWriter.flush(this.filePath);
+                this.root = this.loader.load(ConfigurationOptions.defaults());
+            }
             this.configBase = this.configMapper.populate(this.root.getNode(GriefPreventionPlugin.MOD_ID));
         } catch (Exception e) {
             SpongeImpl.getLogger().error("Failed to load configuration", e);
         }
     }
+
+    private CommentedConfigurationNode loadRow() throws IOException {
+        final CommentedConfigurationNode root = SimpleCommentedConfigurationNode.root(ConfigurationOptions.defaults());
+        final SqlStorage.PlayerRow row = this.sqlStorage.readPlayer(this.playerUniqueId, this.scope);
+        if (row != null) {
+            final CommentedConfigurationNode node = root.getNode(GriefPreventionPlugin.MOD_ID);
+            node.getNode("accrued-claim-blocks").setValue(row.accruedClaimBlocks);
+            node.getNode("bonus-claim-blocks").setValue(row.bonusClaimBlocks);
+            node.getNode("migrated-blocks").setValue(row.migratedBlocks);
+        }
+        return root;
+    }
 }
@@ -0,0 +1,601 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import com.flowpowered.math.vector.Vector3i;
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.util.BlockUtils;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.service.sql.SqlService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+/**
+ * Keeps claim and player data in a SQL database.
+ *
+ * <p>Connections come from the pool of Sponge's {@link SqlService}. All
+ * statements run on a dedicated thread: changed rows are queued and written in
+ * one transaction with batched prepared statements, reads are run behind the
+ * queued writes and waited for by the caller.</p>
+ *
+ * <p>Claims keep their full HOCON text so nothing is lost, while the owner,
+ * type, parent, boundaries, trust entries and economy data are stored as
+ * columns and tables of their own for querying.</p>
+ */
+public class SqlStorage {
+
+    public static final String GLOBAL_SCOPE = "global";
+    // Database url value selecting the embedded single-file database
+    public static final String EMBEDDED = "embedded";
+    public static final String EMBEDDED_FILE_NAME = "griefprevention";
+    private static final int SCHEMA_VERSION = 1;
+    private static final int BATCH_SIZE = 500;
+    private static final String ECONOMY_KEY = "economyData";
+    private static final String[] TRUST_KEYS = {
+        ClaimStorageData.MAIN_ACCESSORS, ClaimStorageData.MAIN_BUILDERS, ClaimStorageData.MAIN_CONTAINERS, ClaimStorageData.MAIN_MANAGERS,
+        ClaimStorageData.MAIN_ACCESSOR_GROUPS, ClaimStorageData.MAIN_BUILDER_GROUPS, ClaimStorageData.MAIN_CONTAINER_GROUPS,
+        ClaimStorageData.MAIN_MANAGER_GROUPS
+    };
+
+    private static SqlStorage instance;
+
+    private final DataSource dataSource;
+    private final Logger logger;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "GriefPrevention Database");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Object lock = new Object();
+    // Rows waiting for the next batch, a newer row for the same key replaces the queued one
+    private Map<UUID, ClaimRow> pendingClaims = new LinkedHashMap<>();
+    private Map<String, PlayerRow> pendingPlayers = new LinkedHashMap<>();
+    private boolean flushQueued;
+
+    private SqlStorage(DataSource dataSource, Logger logger) {
+        this.dataSource = dataSource;
+        this.logger = logger;
+    }
+
+    public static boolean isEnabled() {
+        return !GriefPreventionPlugin.getGlobalConfig().getConfig().storage.databaseUrl.isEmpty();
+    }
+
+    /**
+     * Resolves the configured database url, mapping {@value #EMBEDDED} to an H2
+     * database stored in a single file next to the plugin's data.
+     */
+    public static String getJdbcUrl(Path dataFolderPath) {
+        final String databaseUrl = GriefPreventionPlugin.getGlobalConfig().getConfig().storage.databaseUrl;
+        if (EMBEDDED.equalsIgnoreCase(databaseUrl)) {
+            return "jdbc:h2:" + dataFolderPath.resolve(EMBEDDED_FILE_NAME).toAbsolutePath();
+        }
+        return databaseUrl;
+    }
+
+    public static SqlStorage open(String jdbcUrl) throws SQLException {
+        final SqlService sqlService = Sponge.getServiceManager().provideUnchecked(SqlService.class);
+        return open(sqlService.getDataSource(GriefPreventionPlugin.instance, jdbcUrl), GriefPreventionPlugin.instance.getLogger());
+    }
+
+    /**
+     * Opens the storage on the given data source, creating or upgrading the schema.
+     */
+    public static SqlStorage open(DataSource dataSource, Logger logger) throws SQLException {
+        final SqlStorage storage = new SqlStorage(dataSource, logger);
+        storage.createSchema();
+        instance = storage;
+        return storage;
+    }
+
+    @Nullable
+    public static SqlStorage get() {
+        return instance;
+    }
+
+    /**
+     * Writes the queued rows and stops the database thread, waiting up to the timeout.
+     */
+    public static void shutdown(long timeout, TimeUnit unit) {
+        final SqlStorage storage = instance;
+        if (storage == null) {
+            return;
+        }
+        instance = null;
+        storage.executor.execute(storage::flush);
+        storage.executor.shutdown();
+        try {
+            if (!storage.executor.awaitTermination(timeout, unit)) {
+                storage.logger.warn("Database writes did not complete within " + timeout + " " + unit.name().toLowerCase() + ".");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void createSchema() throws SQLException {
+        try (Connection connection = this.dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS gp_schema (version INT NOT NULL)");
+            int version = 0;
+            try (ResultSet results = statement.executeQuery("SELECT version FROM gp_schema")) {
+                if (results.next()) {
+                    version = results.getInt(1);
+                }
+            }
+            if (version >= SCHEMA_VERSION) {
+                return;
+            }
+
+            if (version < 1) {
+                createTables(connection, statement);
+            }
+            statement.execute("DELETE FROM gp_schema");
+            statement.execute("INSERT INTO gp_schema (version) VALUES (" + SCHEMA_VERSION + ")");
+        }
+    }
+
+    private static void createTables(Connection connection, Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS gp_claims (claim_id CHAR(36) NOT NULL PRIMARY KEY, world_id CHAR(36) NOT NULL, "
+                + "claim_path VARCHAR(255) NOT NULL, parent_id CHAR(36), owner_id CHAR(36), claim_type VARCHAR(16), "
+                + "min_x INT, min_y INT, min_z INT, max_x INT, max_y INT, max_z INT, claim_data LONGTEXT NOT NULL)");
+        statement.execute("CREATE TABLE IF NOT EXISTS gp_claim_trust (claim_id CHAR(36) NOT NULL, trust_type VARCHAR(32) NOT NULL, "
+                + "subject VARCHAR(64) NOT NULL, PRIMARY KEY (claim_id, trust_type, subject))");
+        statement.execute("CREATE TABLE IF NOT EXISTS gp_claim_economy (claim_id CHAR(36) NOT NULL PRIMARY KEY, for_sale BOOLEAN NOT NULL, "
+                + "sale_price DOUBLE NOT NULL, tax_balance DOUBLE NOT NULL, tax_past_due VARCHAR(40))");
+        statement.execute("CREATE TABLE IF NOT EXISTS gp_player_data (player_id CHAR(36) NOT NULL, world_id VARCHAR(36) NOT NULL, "
+                + "accrued_blocks INT NOT NULL, bonus_blocks INT NOT NULL, migrated_blocks BOOLEAN NOT NULL, PRIMARY KEY (player_id, world_id))");
+        createIndex(connection, statement, "gp_claims_world", "gp_claims", "world_id");
+        createIndex(connection, statement, "gp_claims_owner", "gp_claims", "owner_id");
+        createIndex(connection, statement, "gp_claim_trust_subject", "gp_claim_trust", "subject");
+    }
+
+    // Not every database supports CREATE INDEX IF NOT EXISTS, the tables may exist without a schema version
+    private static void createIndex(Connection connection, Statement statement, String index, String table, String column) throws SQLException {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        String tableName = table;
+        if (metaData.storesUpperCaseIdentifiers()) {
+            tableName = table.toUpperCase(Locale.ROOT);
+        } else if (metaData.storesLowerCaseIdentifiers()) {
+            tableName = table.toLowerCase(Locale.ROOT);
+        }
+        try (ResultSet results = metaData.getIndexInfo(connection.getCatalog(), null, tableName, false, true)) {
+            while (results.next()) {
+                if (index.equalsIgnoreCase(results.getString("INDEX_NAME"))) {
+                    return;
+                }
+            }
+        }
+        statement.execute("CREATE INDEX " + index + " ON " + table + " (" + column + ")");
+    }
+
+    public boolean containsClaim(UUID claimId) throws IOException {
+        synchronized (this.lock) {
+            final ClaimRow row = this.pendingClaims.get(claimId);
+            if (row != null) {
+                return row.data != null;
+            }
+        }
+        return this.call(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM gp_claims WHERE claim_id = ?")) {
+                statement.setString(1, claimId.toString());
+                try (ResultSet results = statement.executeQuery()) {
+                    return results.next();
+                }
+            }
+        });
+    }
+
+    @Nullable
+    public String readClaim(UUID claimId) throws IOException {
+        synchronized (this.lock) {
+            final ClaimRow row = this.pendingClaims.get(claimId);
+            if (row != null) {
+                return row.data;
+            }
+        }
+        return this.call(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT claim_data FROM gp_claims WHERE claim_id = ?")) {
+                statement.setString(1, claimId.toString());
+                try (ResultSet results = statement.executeQuery()) {
+                    return results.next() ? results.getString(1) : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the path and HOCON text of every claim in the world.
+     */
+    public List<StoredClaim> readWorldClaims(UUID worldUniqueId) throws IOException {
+        return this.call(connection -> {
+            final List<StoredClaim> claims = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT claim_id, claim_path, claim_data FROM gp_claims WHERE world_id = ?")) {
+                statement.setString(1, worldUniqueId.toString());
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        claims.add(new StoredClaim(UUID.fromString(results.getString(1)), results.getString(2), results.getString(3)));
+                    }
+                }
+            }
+            return claims;
+        });
+    }
+
+    @Nullable
+    public PlayerRow readPlayer(UUID playerUniqueId, String scope) throws IOException {
+        synchronized (this.lock) {
+            final PlayerRow row = this.pendingPlayers.get(getPlayerKey(playerUniqueId, scope));
+            if (row != null) {
+                return row;
+            }
+        }
+        return this.call(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT accrued_blocks, bonus_blocks, migrated_blocks FROM gp_player_data WHERE player_id = ? AND world_id = ?")) {
+                statement.setString(1, playerUniqueId.toString());
+                statement.setString(2, scope);
+                try (ResultSet results = statement.executeQuery()) {
+                    if (!results.next()) {
+                        return null;
+                    }
+                    return new PlayerRow(playerUniqueId, scope, results.getInt(1), results.getInt(2), results.getBoolean(3));
+                }
+            }
+        });
+    }
+
+    public List<UUID> readPlayerIds(String scope) throws IOException {
+        return this.call(connection -> {
+            final List<UUID> playerIds = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT player_id FROM gp_player_data WHERE world_id = ?")) {
+                statement.setString(1, scope);
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        playerIds.add(UUID.fromString(results.getString(1)));
+                    }
+                }
+            }
+            return playerIds;
+        });
+    }
+
+    public void queueClaim(ClaimRow row) {
+        synchronized (this.lock) {
+            this.pendingClaims.put(row.claimId, row);
+            this.scheduleFlush();
+        }
+    }
+
+    public void queueClaimDelete(UUID claimId) {
+        this.queueClaim(new ClaimRow(claimId));
+    }
+
+    public void queuePlayer(PlayerRow row) {
+        synchronized (this.lock) {
+            this.pendingPlayers.put(getPlayerKey(row.playerUniqueId, row.scope), row);
+            this.scheduleFlush();
+        }
+    }
+
+    /**
+     * Writes all queued rows and waits for the transaction to commit.
+     */
+    public void awaitWrites() throws IOException {
+        if (!this.submit(this::flush)) {
+            throw new IOException("Queued claim and player data could not be written to the database");
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!this.flushQueued) {
+            this.flushQueued = true;
+            this.executor.execute(this::flush);
+        }
+    }
+
+    // Returns whether the queued rows were committed
+    private boolean flush() {
+        final Map<UUID, ClaimRow> claims;
+        final Map<String, PlayerRow> players;
+        synchronized (this.lock) {
+            claims = this.pendingClaims;
+            players = this.pendingPlayers;
+            this.pendingClaims = new LinkedHashMap<>();
+            this.pendingPlayers = new LinkedHashMap<>();
+            this.flushQueued = false;
+        }
+        if (claims.isEmpty() && players.isEmpty()) {
+            return true;
+        }
+
+        try (Connection connection = this.dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                this.writeClaims(connection, claims.values());
+                this.writePlayers(connection, players.values());
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            this.logger.error("Failed to write " + claims.size() + " claims and " + players.size()
+                    + " player data to the database, retrying with the next write", e);
+            // keep the rows unless newer ones were queued in the meantime
+            synchronized (this.lock) {
+                claims.forEach(this.pendingClaims::putIfAbsent);
+                players.forEach(this.pendingPlayers::putIfAbsent);
+            }
+            return false;
+        }
+    }
+
+    private void writeClaims(Connection connection, Iterable<ClaimRow> rows) throws SQLException {
+        try (PreparedStatement deleteTrust = connection.prepareStatement("DELETE FROM gp_claim_trust WHERE claim_id = ?");
+                PreparedStatement deleteEconomy = connection.prepareStatement("DELETE FROM gp_claim_economy WHERE claim_id = ?");
+                PreparedStatement deleteClaim = connection.prepareStatement("DELETE FROM gp_claims WHERE claim_id = ?");
+                PreparedStatement insertClaim = connection.prepareStatement("INSERT INTO gp_claims (claim_id, world_id, claim_path, parent_id, "
+                        + "owner_id, claim_type, min_x, min_y, min_z, max_x, max_y, max_z, claim_data) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                PreparedStatement insertTrust = connection.prepareStatement("INSERT INTO gp_claim_trust (claim_id, trust_type, subject) VALUES (?, ?, ?)");
+                PreparedStatement insertEconomy = connection.prepareStatement("INSERT INTO gp_claim_economy (claim_id, for_sale, sale_price, "
+                        + "tax_balance, tax_past_due) VALUES (?, ?, ?, ?, ?)")) {
+            final Iterator<ClaimRow> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                // Rows are replaced by deleting and inserting them, deletes of a batch run ahead of its inserts
+                for (int count = 0; count < BATCH_SIZE && iterator.hasNext(); count++) {
+                    final ClaimRow row = iterator.next();
+                    final String claimId = row.claimId.toString();
+                    deleteTrust.setString(1, claimId);
+                    deleteTrust.addBatch();
+                    deleteEconomy.setString(1, claimId);
+                    deleteEconomy.addBatch();
+                    deleteClaim.setString(1, claimId);
+                    deleteClaim.addBatch();
+                    if (row.data == null) {
+                        continue;
+                    }
+
+                    insertClaim.setString(1, claimId);
+                    insertClaim.setString(2, row.worldUniqueId.toString());
+                    insertClaim.setString(3, row.path);
+                    setNullableString(insertClaim, 4, row.parentId);
+                    setNullableString(insertClaim, 5, row.ownerId);
+                    setNullableString(insertClaim, 6, row.type);
+                    for (int i = 0; i < 6; i++) {
+                        insertClaim.setInt(7 + i, row.bounds[i]);
+                    }
+                    insertClaim.setString(13, row.data);
+                    insertClaim.addBatch();
+                    for (String[] trust : row.trust) {
+                        insertTrust.setString(1, claimId);
+                        insertTrust.setString(2, trust[0]);
+                        insertTrust.setString(3, trust[1]);
+                        insertTrust.addBatch();
+                    }
+                    if (row.hasEconomy) {
+                        insertEconomy.setString(1, claimId);
+                        insertEconomy.setBoolean(2, row.forSale);
+                        insertEconomy.setDouble(3, row.salePrice);
+                        insertEconomy.setDouble(4, row.taxBalance);
+                        setNullableString(insertEconomy, 5, row.taxPastDue);
+                        insertEconomy.addBatch();
+                    }
+                }
+                deleteTrust.executeBatch();
+                deleteEconomy.executeBatch();
+                deleteClaim.executeBatch();
+                insertClaim.executeBatch();
+                insertTrust.executeBatch();
+                insertEconomy.executeBatch();
+            }
+        }
+    }
+
+    private void writePlayers(Connection connection, Iterable<PlayerRow> rows) throws SQLException {
+        try (PreparedStatement deletePlayer = connection.prepareStatement("DELETE FROM gp_player_data WHERE player_id = ? AND world_id = ?");
+                PreparedStatement insertPlayer = connection.prepareStatement("INSERT INTO gp_player_data (player_id, world_id, accrued_blocks, "
+                        + "bonus_blocks, migrated_blocks) VALUES (?, ?, ?, ?, ?)")) {
+            final Iterator<PlayerRow> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                for (int count = 0; count < BATCH_SIZE && iterator.hasNext(); count++) {
+                    final PlayerRow row = iterator.next();
+                    deletePlayer.setString(1, row.playerUniqueId.toString());
+                    deletePlayer.setString(2, row.scope);
+                    deletePlayer.addBatch();
+                    insertPlayer.setString(1, row.playerUniqueId.toString());
+                    insertPlayer.setString(2, row.scope);
+                    insertPlayer.setInt(3, row.accruedClaimBlocks);
+                    insertPlayer.setInt(4, row.bonusClaimBlocks);
+                    insertPlayer.setBoolean(5, row.migratedBlocks);
+                    insertPlayer.addBatch();
+                }
+                deletePlayer.executeBatch();
+                insertPlayer.executeBatch();
+            }
+        }
+    }
+
+    // Runs the query on the database thread, behind any queued writes
+    private <T> T call(Query<T> query) throws IOException {
+        return this.submit(() -> {
+            try (Connection connection = this.dataSource.getConnection()) {
+                return query.run(connection);
+            }
+        });
+    }
+
+    private <T> T submit(Callable<T> task) throws IOException {
+        try {
+            return this.executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void setNullableString(PreparedStatement statement, int index, @Nullable String value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    private static String getPlayerKey(UUID playerUniqueId, String scope) {
+        return playerUniqueId + "/" + scope;
+    }
+
+    @FunctionalInterface
+    private interface Query<T> {
+
+        T run(Connection connection) throws SQLException;
+    }
+
+    public static class StoredClaim {
+
+        public final UUID claimId;
+        public final String path;
+        public final String data;
+
+        StoredClaim(UUID claimId, String path, String data) {
+            this.claimId = claimId;
+            this.path = path;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The columns of a claim extracted from its HOCON root, or a deletion if it has no data.
+     */
+    public static class ClaimRow {
+
+        private final UUID claimId;
+        private UUID worldUniqueId;
+        private String path;
+        private String parentId;
+        private String ownerId;
+        private String type;
+        private final int[] bounds = new int[6];
+        private String data;
+        private final List<String[]> trust = new ArrayList<>();
+        private boolean hasEconomy;
+        private boolean forSale;
+        private double salePrice;
+        private double taxBalance;
+        private String taxPastDue;
+
+        private ClaimRow(UUID claimId) {
+            this.claimId = claimId;
+        }
+
+        public ClaimRow(UUID claimId, UUID worldUniqueId, String path, ConfigurationNode claimNode, String data) {
+            this.claimId = claimId;
+            this.worldUniqueId = worldUniqueId;
+            this.path = path;
+            this.data = data;
+            this.parentId = claimNode.getNode("parent").getString();
+            this.ownerId = claimNode.getNode(ClaimStorageData.MAIN_OWNER_UUID).getString();
+            this.type = claimNode.getNode(ClaimStorageData.MAIN_CLAIM_TYPE).getString();
+            setBounds(this.bounds, 0, claimNode.getNode(ClaimStorageData.MAIN_LESSER_BOUNDARY_CORNER).getString());
+            setBounds(this.bounds, 3, claimNode.getNode(ClaimStorageData.MAIN_GREATER_BOUNDARY_CORNER).getString());
+            for (String trustKey : TRUST_KEYS) {
+                for (ConfigurationNode entry : claimNode.getNode(trustKey).getChildrenList()) {
+                    final String subject = entry.getString();
+                    if (subject != null) {
+                        this.trust.add(new String[] {trustKey, subject});
+                    }
+                }
+            }
+            final ConfigurationNode economyNode = claimNode.getNode(ECONOMY_KEY);
+            if (!economyNode.isVirtual()) {
+                this.hasEconomy = true;
+                this.forSale = economyNode.getNode(ClaimStorageData.MAIN_CLAIM_FOR_SALE).getBoolean();
+                this.salePrice = economyNode.getNode(ClaimStorageData.MAIN_CLAIM_SALE_PRICE).getDouble();
+                this.taxBalance = economyNode.getNode(ClaimStorageData.MAIN_TAX_BALANCE).getDouble();
+                this.taxPastDue = economyNode.getNode(ClaimStorageData.MAIN_TAX_PAST_DUE_DATE).getString();
+            }
+        }
+
+        private static void setBounds(int[] bounds, int index, @Nullable String position) {
+            if (position == null) {
+                return;
+            }
+            try {
+                final Vector3i pos = BlockUtils.positionFromString(position);
+                bounds[index] = pos.getX();
+                bounds[index + 1] = pos.getY();
+                bounds[index + 2] = pos.getZ();
+            } catch (Exception e) {
+                // keep the columns empty, the claim data still holds the original value
+            }
+        }
+    }
+
+    public static class PlayerRow {
+
+        public final UUID playerUniqueId;
+        public final String scope;
+        public final int accruedClaimBlocks;
+        public final int bonusClaimBlocks;
+        public final boolean migratedBlocks;
+
+        public PlayerRow(UUID playerUniqueId, String scope, int accruedClaimBlocks, int bonusClaimBlocks, boolean migratedBlocks) {
+            this.playerUniqueId = playerUniqueId;
+            this.scope = scope;
+            this.accruedClaimBlocks = accruedClaimBlocks;
+            this.bonusClaimBlocks = bonusClaimBlocks;
+            this.migratedBlocks = migratedBlocks;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes claim and player data on a dedicated thread.
+ *
+ * <p>Callers snapshot their configuration node on the main thread and submit
+ * the write keyed by its file path. A write that is still queued is replaced by
+ * a newer one for the same path, so a record changed several times between two
+ * runs of the writer is only written once. Files are replaced atomically.</p>
+ */
+public class StorageWriter {
+
+    private static final Object LOCK = new Object();
+    // Keeps submission order, replacing a queued write keeps its position
+    private static final Map<Path, Write> PENDING = new LinkedHashMap<>();
+    // Paths being written, by the writer thread or by a caller completing its write directly
+    private static final Set<Path> IN_FLIGHT = new HashSet<>();
+    private static Thread thread;
+
+    @FunctionalInterface
+    public interface Write {
+
+        void run() throws IOException;
+    }
+
+    public static boolean isEnabled() {
+        return GriefPreventionPlugin.getGlobalConfig().getConfig().storage.asyncWrites;
+    }
+
+    /**
+     * Queues a write for the path, replacing any write for it that has not started yet.
+     *
+     * <p>The write must only use state captured at submission.</p>
+     */
+    public static void submit(Path path, Write write) {
+        if (!isEnabled()) {
+            write(path, write);
+            return;
+        }
+
+        synchronized (LOCK) {
+            PENDING.put(path, write);
+            if (thread == null || !thread.isAlive()) {
+                thread = new Thread(StorageWriter::processWrites, "GriefPrevention Storage Writer");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * Runs the write on the calling thread, replacing any queued write for the path.
+     *
+     * @return Whether the write succeeded
+     */
+    public static boolean write(Path path, Write write) {
+        synchronized (LOCK) {
+            awaitInFlight(path);
+            PENDING.remove(path);
+            IN_FLIGHT.add(path);
+        }
+        return executeInFlight(path, write);
+    }
+
+    /**
+     * Drops the queued write for the path and waits for a write of it that is in progress.
+     * Used before a file is deleted.
+     */
+    public static void cancel(Path path) {
+        synchronized (LOCK) {
+            PENDING.remove(path);
+            awaitInFlight(path);
+        }
+    }
+
+    /**
+     * Completes any outstanding write for the path on the calling thread.
+     * Used before a file is read or moved.
+     */
+    public static void flush(Path path) {
+        final Write write;
+        synchronized (LOCK) {
+            awaitInFlight(path);
+            write = PENDING.remove(path);
+            if (write == null) {
+                return;
+            }
+            IN_FLIGHT.add(path);
+        }
+        executeInFlight(path, write);
+    }
+
+    /**
+     * Waits up to the timeout for all queued writes to complete.
+     *
+     * @return The number of writes still queued when the timeout elapsed
+     */
+    public static int flushAll(long timeout, TimeUnit unit) {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (LOCK) {
+            if (thread == null || !thread.isAlive()) {
+                // nothing is going to drain the queue, write on the caller
+                final Iterator<Map.Entry<Path, Write>> iterator = PENDING.entrySet().iterator();
+                while (iterator.hasNext() && System.nanoTime() < deadline) {
+                    final Map.Entry<Path, Write> entry = iterator.next();
+                    iterator.remove();
+                    execute(entry.getKey(), entry.getValue());
+                }
+                return PENDING.size();
+            }
+
+            long remaining;
+            while ((!PENDING.isEmpty() || !IN_FLIGHT.isEmpty()) && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(LOCK, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return PENDING.size();
+        }
+    }
+
+    /**
+     * Waits for all queued writes using the configured flush timeout.
+     */
+    public static void flushAll() {
+        final int timeout = GriefPreventionPlugin.getGlobalConfig().getConfig().storage.flushTimeout;
+        final int remaining = flushAll(timeout, TimeUnit.SECONDS);
+        if (remaining > 0) {
+            GriefPreventionPlugin.instance.getLogger().warn(remaining + " claim or player data writes did not complete within " + timeout + " seconds.");
+        }
+    }
+
+    /**
+     * Renders the node as HOCON to a temporary file and moves it over the target.
+     */
+    public static void writeAtomically(Path path, ConfigurationNode node) throws IOException {
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        HoconConfigurationLoader.builder().setPath(tempPath).build().save(node);
+        replace(tempPath, path);
+    }
+
+    /**
+     * Writes already rendered HOCON text to a temporary file and moves it over the target.
+     */
+    public static void writeAtomically(Path path, String text) throws IOException {
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tempPath, text.getBytes(StandardCharsets.UTF_8));
+        replace(tempPath, path);
+    }
+
+    private static void replace(Path tempPath, Path path) throws IOException {
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void awaitInFlight(Path path) {
+        boolean interrupted = false;
+        while (IN_FLIGHT.contains(path)) {
+            try {
+                LOCK.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void processWrites() {
+        while (true) {
+            final Path path;
+            final Write write;
+            synchronized (LOCK) {
+                Map.Entry<Path, Write> entry;
+                while ((entry = nextWrite()) == null) {
+                    try {
+                        LOCK.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                PENDING.remove(entry.getKey());
+                path = entry.getKey();
+                write = entry.getValue();
+                IN_FLIGHT.add(path);
+            }
+
+            executeInFlight(path, write);
+        }
+    }
+
+    // Returns the oldest queued write whose path is not being written by a caller, must hold LOCK
+    @Nullable
+    private static Map.Entry<Path, Write> nextWrite() {
+        for (Map.Entry<Path, Write> entry : PENDING.entrySet()) {
+            if (!IN_FLIGHT.contains(entry.getKey())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    // Runs a write whose path was marked in flight, then releases the path
+    private static boolean executeInFlight(Path path, Write write) {
+        try {
+            return execute(path, write);
+        } finally {
+            synchronized (LOCK) {
+                IN_FLIGHT.remove(path);
+                LOCK.notifyAll();
+            }
+        }
+    }
+
+    private static boolean execute(Path path, Write write) {
+        try {
+            write.run();
+            return true;
+        } catch (Throwable t) {
+            SpongeImpl.getLogger().error("Failed to save " + path, t);
+            return false;
+        }
+    }
+}
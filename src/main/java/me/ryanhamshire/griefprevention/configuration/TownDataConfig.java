@@ -25,10 +25,13 @@
 package me.ryanhamshire.griefprevention.configuration;
 
 import com.google.common.collect.Maps;
-import ninja.leaping.configurate.objectmapping.Setting;
+import com.google.common.reflect.TypeToken;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
 import org.spongepowered.api.text.Text;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -36,26 +39,51 @@
 @ConfigSerializable
 public class TownDataConfig extends ClaimDataConfig {
 
-    @Setting
-    private Text townTag;
-    @Setting
-    private Map<UUID, String> residentPastDueTaxTimestamps = Maps.newHashMap();
-    @Setting
-    private Map<UUID, Double> residentTaxBalances = Maps.newHashMap();
+    // Rarely used sections, deserialized on first use
+    private final ColdSection<Text> townTag = new ColdSection<>("townTag", TypeToken.of(Text.class), () -> null);
+    private final ColdSection<Map<UUID, String>> residentPastDueTaxTimestamps =
+            new ColdSection<>("residentPastDueTaxTimestamps", new TypeToken<Map<UUID, String>>() {}, Maps::newHashMap);
+    private final ColdSection<Map<UUID, Double>> residentTaxBalances =
+            new ColdSection<>("residentTaxBalances", new TypeToken<Map<UUID, Double>>() {}, Maps::newHashMap);
 
     public Optional<Text> getTownTag() {
-        return Optional.ofNullable(this.townTag);
+        return Optional.ofNullable(this.townTag.get());
     }
 
     public void setTownTag(Text tag) {
-        this.townTag = tag;
+        this.setRequiresSave(true);
+        this.townTag.set(tag);
     }
 
     public Map<UUID, String> getResidentPastDueTaxTimestamps() {
-        return this.residentPastDueTaxTimestamps;
+        return this.residentPastDueTaxTimestamps.get();
     }
 
     public Map<UUID, Double> getResidentTaxBalances() {
-        return this.residentTaxBalances;
+        return this.residentTaxBalances.get();
+    }
+
+    @Override
+    void bindColdSections(ConfigurationNode node) throws IOException {
+        super.bindColdSections(node);
+        this.townTag.bind(node);
+        this.residentPastDueTaxTimestamps.bind(node);
+        this.residentTaxBalances.bind(node);
+    }
+
+    @Override
+    void writeColdSections(ConfigurationNode node) throws IOException, ObjectMappingException {
+        super.writeColdSections(node);
+        this.townTag.write(node);
+        this.residentPastDueTaxTimestamps.write(node);
+        this.residentTaxBalances.write(node);
+    }
+
+    @Override
+    void releaseColdSections() throws IOException, ObjectMappingException {
+        super.releaseColdSections();
+        this.townTag.release();
+        this.residentPastDueTaxTimestamps.release();
+        this.residentTaxBalances.release();
     }
 }
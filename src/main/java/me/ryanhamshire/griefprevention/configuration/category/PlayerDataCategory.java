@@ -55,4 +55,10 @@ public class PlayerDataCategory extends ConfigCategory {
             + "\nExample: If a player has 5 basic claims with a total cost of 1000, this will set their accrued claim blocks to 1000."
             + "\nNote: This will also reset all bonus claim blocks to 0. It is highly recommended to backup before using.")
     public boolean resetAccruedClaimBlocks = false;
+    @Setting(value = "cache-max-size", comment = "The maximum number of offline players whose data is kept in memory, per world when using per world storage."
+            + "\nOnline players and claim owners are always kept and changed data is saved before it is dropped. Set to -1 to disable. (Default: 10000)")
+    public int cacheMaxSize = 10000;
+    @Setting(value = "cache-idle-timeout", comment = "The number of minutes an offline player's data is kept in memory after it was last used."
+            + "\nSet to -1 to only limit the cache by size. (Default: 60)")
+    public int cacheIdleTimeout = 60;
 }
\ No newline at end of file
@@ -31,6 +31,7 @@
 import me.ryanhamshire.griefprevention.configuration.category.ModuleCategory;
 import me.ryanhamshire.griefprevention.configuration.category.PlayerDataCategory;
 import me.ryanhamshire.griefprevention.configuration.category.SpamCategory;
+import me.ryanhamshire.griefprevention.configuration.category.StorageCategory;
 import me.ryanhamshire.griefprevention.configuration.category.ThreadCategory;
 import ninja.leaping.configurate.objectmapping.Setting;
 
@@ -62,6 +63,9 @@ public class GlobalConfig extends ConfigBase {
     @Setting(value = "modules")
     public ModuleCategory modules = new ModuleCategory();
 
+    @Setting
+    public StorageCategory storage = new StorageCategory();
+
     @Setting
     public ThreadCategory thread = new ThreadCategory();
 }
@@ -39,11 +39,12 @@
 import me.ryanhamshire.griefprevention.api.claim.TrustType;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
+import me.ryanhamshire.griefprevention.permission.GPFlagAnalysis;
 import me.ryanhamshire.griefprevention.permission.GPPermissionHandler;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
-import me.ryanhamshire.griefprevention.util.BlockPosCache;
 import me.ryanhamshire.griefprevention.util.BlockUtils;
 import me.ryanhamshire.griefprevention.util.CauseContextHelper;
+import me.ryanhamshire.griefprevention.util.EntityCollisionCache;
 import me.ryanhamshire.griefprevention.visual.Visualization;
 import me.ryanhamshire.griefprevention.visual.VisualizationType;
 import net.minecraft.block.BlockBasePressurePlate;
@@ -52,7 +53,6 @@
 import net.minecraft.inventory.IInventory;
 import net.minecraft.tileentity.TileEntityChest;
 import net.minecraft.tileentity.TileEntityPiston;
-import net.minecraft.util.math.BlockPos;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.block.BlockState;
@@ -87,12 +87,14 @@
 import org.spongepowered.api.world.World;
 import org.spongepowered.api.world.explosion.Explosion;
 import org.spongepowered.common.bridge.block.BlockBridge;
-import org.spongepowered.common.bridge.world.LocationBridge;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 //event handlers related to blocks
 public class BlockEventHandler {
@@ -178,24 +180,31 @@ public void onBlockPre(ChangeBlockEvent.Pre event) {
         final boolean shouldLogEvent = (!isLiquidSource && !isFireSource && !isLeafDecay && !pistonExtend) || !isVanillaBlock;
         lastBlockPreCancelled = false;
         final boolean isForgePlayerBreak = context.containsKey(EventContextKeys.PLAYER_BREAK);
+        // Verdicts within one event only depend on target claim and block state.
+        // Any denial cancels the whole event, so each pair needs to be checked once.
+        final Map<GPClaim, Set<BlockState>> checkedStates = new HashMap<>();
         GPTimings.BLOCK_PRE_EVENT.startTimingIfSync();
         // Handle player block breaks separately
         if (isForgePlayerBreak && !hasFakePlayer && source instanceof Player) {
             final Player player = (Player) source;
             GPClaim targetClaim = null;
             for (Location<World> location : event.getLocations()) {
-                if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.BLOCK_BREAK.toString(), location.getBlock(), world.getProperties())) {
+                final BlockState blockState = location.getBlock();
+                if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.BLOCK_BREAK.toString(), blockState, world.getProperties())) {
                    GPTimings.BLOCK_PRE_EVENT.stopTimingIfSync();
                    return;
                 }
 
                 targetClaim = this.dataStore.getClaimAt(location, targetClaim);
-                if (location.getBlockType() == BlockTypes.AIR) {
+                if (blockState.getType() == BlockTypes.AIR) {
+                    continue;
+                }
+                if (!markChecked(checkedStates, targetClaim, blockState)) {
                     continue;
                 }
 
                 // check overrides
-                final Tristate result = GPPermissionHandler.getClaimPermission(event, location, targetClaim, GPPermissions.BLOCK_BREAK, source, location.getBlock(), player, TrustType.BUILDER, true);
+                final Tristate result = GPPermissionHandler.getClaimPermission(event, location, targetClaim, GPPermissions.BLOCK_BREAK, source, blockState, player, TrustType.BUILDER, true);
                 if (result != Tristate.TRUE) {
                     final Text message = GriefPreventionPlugin.instance.messageData.permissionBuild
                             .apply(ImmutableMap.of(
@@ -237,12 +246,15 @@ public void onBlockPre(ChangeBlockEvent.Pre event) {
                         continue;
                     }
                 }
-                if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.BLOCK_BREAK.toString(), location.getBlock(), world.getProperties())) {
+                final BlockState blockState = location.getBlock();
+                if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.BLOCK_BREAK.toString(), blockState, world.getProperties())) {
                     continue;
                 }
 
-                final BlockState blockState = location.getBlock();
                 targetClaim = this.dataStore.getClaimAt(location, targetClaim);
+                if (!markChecked(checkedStates, targetClaim, blockState)) {
+                    continue;
+                }
                 if (user != null && targetClaim.isUserTrusted(user, TrustType.BUILDER)) {
                     if (shouldLogEvent) {
                         GPPermissionHandler.addEventLogEntry(event, location, source, blockState, user, GPPermissions.BLOCK_BREAK, TrustType.BUILDER.name().toLowerCase(), Tristate.TRUE);
@@ -310,12 +322,15 @@ public void onBlockPre(ChangeBlockEvent.Pre event) {
                         continue;
                     }
                 }
-                if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.BLOCK_BREAK.toString(), location.getBlock(), world.getProperties())) {
+                final BlockState blockState = location.getBlock();
+                if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.BLOCK_BREAK.toString(), blockState, world.getProperties())) {
                     continue;
                 }
 
-                final BlockState blockState = location.getBlock();
                 targetClaim = this.dataStore.getClaimAt(location, targetClaim);
+                if (!markChecked(checkedStates, targetClaim, blockState)) {
+                    continue;
+                }
                 // If a player successfully interacted with a block recently such as a pressure plate, ignore check
                 // This fixes issues such as pistons not being able to extend
                 if (!isForgePlayerBreak && playerData != null && playerData.checkLastInteraction(targetClaim, user)) {
@@ -353,6 +368,15 @@ public void onBlockPre(ChangeBlockEvent.Pre event) {
         GPTimings.BLOCK_PRE_EVENT.stopTimingIfSync();
     }
 
+    // Returns false if the claim and block state pair was already checked in the current event
+    private static boolean markChecked(Map<GPClaim, Set<BlockState>> checkedStates, GPClaim claim, BlockState blockState) {
+        if (GriefPreventionPlugin.debugActive) {
+            // keep one log entry per location while debugging
+            return true;
+        }
+        return checkedStates.computeIfAbsent(claim, k -> new HashSet<>()).add(blockState);
+    }
+
     // Handle fluids flowing into claims
     @Listener(order = Order.FIRST, beforeModifications = true)
     public void onBlockNotify(NotifyNeighborBlockEvent event) {
@@ -396,6 +420,13 @@ public void onBlockNotify(NotifyNeighborBlockEvent event) {
         if (!GriefPreventionPlugin.instance.claimsEnabledForWorld(sourceLocation.getExtent().getProperties())) {
             return;
         }
+        // Neighbors of a block inside a claim's interior never cross a boundary
+        if (sourceClaim.isInteriorPosition(sourceLocation.getBlockX(), sourceLocation.getBlockY(), sourceLocation.getBlockZ())) {
+            if (playerData != null) {
+                playerData.setLastInteractData(sourceClaim);
+            }
+            return;
+        }
 
         GPTimings.BLOCK_NOTIFY_EVENT.startTimingIfSync();
         GPClaim targetClaim = null;
@@ -479,23 +510,17 @@ public void onBlockCollide(CollideBlockEvent event, @Root Entity source) {
             return;
         }
 
-        BlockPos collidePos = ((LocationBridge)(Object) event.getTargetLocation()).getBlockPos();
-        short shortPos = BlockUtils.blockPosToShort(collidePos);
-        int entityId = ((net.minecraft.entity.Entity) source).getEntityId();
-        BlockPosCache entityBlockCache = BlockUtils.ENTITY_BLOCK_CACHE.get(entityId);
-        if (entityBlockCache == null) {
-            entityBlockCache = new BlockPosCache(shortPos);
-            BlockUtils.ENTITY_BLOCK_CACHE.put(entityId, entityBlockCache);
-        } else {
-            Tristate result = entityBlockCache.getCacheResult(shortPos);
-            if (result != Tristate.UNDEFINED) {
-                if (result == Tristate.FALSE) {
-                    event.setCancelled(true);
-                }
-
-                GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
-                return;
+        final long collidePos = BlockUtils.blockPosToLong(event.getTargetLocation());
+        final int entityId = ((net.minecraft.entity.Entity) source).getEntityId();
+        final EntityCollisionCache collisionCache = EntityCollisionCache.COLLIDE_BLOCK;
+        final Tristate cachedResult = collisionCache.get(entityId, collidePos);
+        if (cachedResult != Tristate.UNDEFINED) {
+            if (cachedResult == Tristate.FALSE) {
+                event.setCancelled(true);
             }
+
+            GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
+            return;
         }
 
         GPPlayerData playerData = null;
@@ -507,18 +532,27 @@ public void onBlockCollide(CollideBlockEvent event, @Root Entity source) {
             targetClaim = this.dataStore.getClaimAt(event.getTargetLocation());
         }
 
+        // no subject configures this flag, every collision is allowed
+        if (GPFlagAnalysis.isBypassed(ClaimFlag.ENTITY_COLLIDE_BLOCK, user)) {
+            if (playerData != null) {
+                playerData.setLastInteractData(targetClaim);
+            }
+            GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
+            return;
+        }
+
         Tristate result = GPPermissionHandler.getFlagOverride(event, event.getTargetLocation(), targetClaim, GPPermissions.ENTITY_COLLIDE_BLOCK, source, event.getTargetBlock(), user, playerData, true);
         if (result != Tristate.UNDEFINED) {
             if (result == Tristate.TRUE) {
                 if (playerData != null) {
                     playerData.setLastInteractData(targetClaim);
                 }
-                entityBlockCache.setLastResult(Tristate.TRUE);
+                collisionCache.put(entityId, collidePos, Tristate.TRUE);
                 GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
                 return;
             }
 
-            entityBlockCache.setLastResult(Tristate.FALSE);
+            collisionCache.put(entityId, collidePos, Tristate.FALSE);
             event.setCancelled(true);
             GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
             return;
@@ -529,7 +563,7 @@ public void onBlockCollide(CollideBlockEvent event, @Root Entity source) {
                 if (playerData != null) {
                     playerData.setLastInteractData(targetClaim);
                 }
-                entityBlockCache.setLastResult(Tristate.TRUE);
+                collisionCache.put(entityId, collidePos, Tristate.TRUE);
                 GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
                 return;
             }
@@ -545,7 +579,7 @@ public void onBlockCollide(CollideBlockEvent event, @Root Entity source) {
                                 .apply(ImmutableMap.of(
                                 "owner", targetClaim.getOwnerName())).build();*/
                         event.setCancelled(true);
-                        entityBlockCache.setLastResult(Tristate.FALSE);
+                        collisionCache.put(entityId, collidePos, Tristate.FALSE);
                         GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
                         return;
                     }
@@ -553,7 +587,7 @@ public void onBlockCollide(CollideBlockEvent event, @Root Entity source) {
             }
 
             event.setCancelled(true);
-            entityBlockCache.setLastResult(Tristate.FALSE);
+            collisionCache.put(entityId, collidePos, Tristate.FALSE);
             GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
             return;
         }
@@ -561,7 +595,7 @@ public void onBlockCollide(CollideBlockEvent event, @Root Entity source) {
         if (playerData != null) {
             playerData.setLastInteractData(targetClaim);
         }
-        entityBlockCache.setLastResult(Tristate.TRUE);
+        collisionCache.put(entityId, collidePos, Tristate.TRUE);
         GPTimings.BLOCK_COLLIDE_EVENT.stopTimingIfSync();
     }
 
@@ -587,6 +621,19 @@ public void onProjectileImpactBlock(CollideBlockEvent.Impact event) {
 
         GPTimings.PROJECTILE_IMPACT_BLOCK_EVENT.startTimingIfSync();
         Location<World> impactPoint = event.getImpactPoint();
+        final long impactPos = BlockUtils.blockPosToLong(impactPoint);
+        final int entityId = ((net.minecraft.entity.Entity) source).getEntityId();
+        final EntityCollisionCache impactCache = EntityCollisionCache.IMPACT_BLOCK;
+        final Tristate cachedResult = impactCache.get(entityId, impactPos);
+        if (cachedResult != Tristate.UNDEFINED) {
+            if (cachedResult == Tristate.FALSE) {
+                event.setCancelled(true);
+            }
+
+            GPTimings.PROJECTILE_IMPACT_BLOCK_EVENT.stopTimingIfSync();
+            return;
+        }
+
         GPClaim targetClaim = null;
         GPPlayerData playerData = null;
         if (user instanceof Player) {
@@ -598,11 +645,13 @@ public void onProjectileImpactBlock(CollideBlockEvent.Impact event) {
 
         Tristate result = GPPermissionHandler.getClaimPermission(event, impactPoint, targetClaim, GPPermissions.PROJECTILE_IMPACT_BLOCK, source, event.getTargetBlock(), user, TrustType.ACCESSOR, true);
         if (result == Tristate.FALSE) {
+            impactCache.put(entityId, impactPos, Tristate.FALSE);
             event.setCancelled(true);
             GPTimings.PROJECTILE_IMPACT_BLOCK_EVENT.stopTimingIfSync();
             return;
         }
 
+        impactCache.put(entityId, impactPos, Tristate.TRUE);
         GPTimings.PROJECTILE_IMPACT_BLOCK_EVENT.stopTimingIfSync();
     }
 
@@ -629,33 +678,56 @@ public void onExplosionDetonate(ExplosionEvent.Detonate event) {
             return;
         }
 
+        final List<Location<World>> affectedLocations = event.getAffectedLocations();
+        if (affectedLocations.isEmpty()) {
+            return;
+        }
+
         GPTimings.EXPLOSION_EVENT.startTimingIfSync();
         final User user = CauseContextHelper.getEventUser(event);
-        GPClaim targetClaim = null;
-        final List<Location<World>> filteredLocations = new ArrayList<>();
-        for (Location<World> location : event.getAffectedLocations()) {
-            targetClaim =  GriefPreventionPlugin.instance.dataStore.getClaimAt(location, targetClaim);
-            Tristate result = Tristate.UNDEFINED;
-            if (GPFlags.EXPLOSION_SURFACE && location.getPosition().getY() > ((net.minecraft.world.World) world).getSeaLevel()) {
-                result = GPPermissionHandler.getClaimPermission(event, location, targetClaim, GPPermissions.EXPLOSION_SURFACE, source, location.getBlock(), user, true);
-            } else {
-                result = GPPermissionHandler.getClaimPermission(event, location, targetClaim, GPPermissions.EXPLOSION, source, location.getBlock(), user, true);
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        for (Location<World> location : affectedLocations) {
+            minX = Math.min(minX, location.getBlockX());
+            minY = Math.min(minY, location.getBlockY());
+            minZ = Math.min(minZ, location.getBlockZ());
+            maxX = Math.max(maxX, location.getBlockX());
+            maxY = Math.max(maxY, location.getBlockY());
+            maxZ = Math.max(maxZ, location.getBlockZ());
+        }
+        // If the blast does not cross a claim boundary, every location shares one claim
+        final GPClaim areaClaim = this.dataStore.getClaimWorldManager(world.getProperties()).getClaimContainingBox(minX, minY, minZ, maxX, maxY, maxZ);
+        final int seaLevel = ((net.minecraft.world.World) world).getSeaLevel();
+        // Within one explosion a result only depends on claim, flag and block state
+        final Map<GPClaim, Map<BlockState, Tristate>> explosionResults = new HashMap<>();
+        final Map<GPClaim, Map<BlockState, Tristate>> surfaceResults = new HashMap<>();
+        final Set<Location<World>> filteredLocations = new HashSet<>();
+        GPClaim targetClaim = areaClaim;
+        for (Location<World> location : affectedLocations) {
+            if (areaClaim == null) {
+                targetClaim = this.dataStore.getClaimAt(location, targetClaim);
+            }
+            final BlockState blockState = location.getBlock();
+            final boolean isSurface = GPFlags.EXPLOSION_SURFACE && location.getPosition().getY() > seaLevel;
+            final Map<BlockState, Tristate> claimResults = (isSurface ? surfaceResults : explosionResults).computeIfAbsent(targetClaim, k -> new HashMap<>());
+            Tristate result = GriefPreventionPlugin.debugActive ? null : claimResults.get(blockState);
+            if (result == null) {
+                result = GPPermissionHandler.getClaimPermission(event, location, targetClaim, isSurface ? GPPermissions.EXPLOSION_SURFACE : GPPermissions.EXPLOSION,
+                        source, blockState, user, true);
+                claimResults.put(blockState, result);
             }
 
             if (result == Tristate.FALSE) {
-                // Avoid lagging server from large explosions.
-                if (event.getAffectedLocations().size() > 100) {
-                    event.setCancelled(true);
-                    break;
-                }
                 filteredLocations.add(location);
             }
         }
-        // Workaround for SpongeForge bug
-        if (event.isCancelled()) {
-            event.getAffectedLocations().clear();
-        } else if (!filteredLocations.isEmpty()) {
-            event.getAffectedLocations().removeAll(filteredLocations);
+        // Only protected blocks are kept, the rest of the explosion proceeds
+        if (!filteredLocations.isEmpty()) {
+            affectedLocations.removeAll(filteredLocations);
         }
         GPTimings.EXPLOSION_EVENT.stopTimingIfSync();
     }
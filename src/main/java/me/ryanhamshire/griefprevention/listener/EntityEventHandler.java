@@ -35,15 +35,19 @@
 import me.ryanhamshire.griefprevention.api.claim.Claim;
 import me.ryanhamshire.griefprevention.api.claim.ClaimFlag;
 import me.ryanhamshire.griefprevention.api.claim.TrustType;
+import me.ryanhamshire.griefprevention.claim.ClaimContextCalculator;
 import me.ryanhamshire.griefprevention.claim.ClaimsMode;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
 import me.ryanhamshire.griefprevention.claim.GPClaimManager;
+import me.ryanhamshire.griefprevention.claim.TownPresenceIndex;
 import me.ryanhamshire.griefprevention.event.GPAttackPlayerEvent;
 import me.ryanhamshire.griefprevention.event.GPBorderClaimEvent;
+import me.ryanhamshire.griefprevention.permission.GPFlagAnalysis;
 import me.ryanhamshire.griefprevention.permission.GPPermissionHandler;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
 import me.ryanhamshire.griefprevention.provider.MCClansApiProvider;
 import me.ryanhamshire.griefprevention.util.CauseContextHelper;
+import me.ryanhamshire.griefprevention.util.EntityBorderCache;
 import me.ryanhamshire.griefprevention.util.EntityUtils;
 import net.minecraft.entity.EntityLiving;
 import net.minecraft.entity.EnumCreatureType;
@@ -57,6 +61,7 @@
 import org.spongepowered.api.block.tileentity.TileEntity;
 import org.spongepowered.api.command.source.ConsoleSource;
 import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.entity.EntityType;
 import org.spongepowered.api.entity.EntityTypes;
 import org.spongepowered.api.entity.ExperienceOrb;
 import org.spongepowered.api.entity.Item;
@@ -100,7 +105,9 @@
 import java.lang.ref.WeakReference;
 import java.time.Instant;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Predicate;
@@ -237,6 +244,8 @@ public void onEntitySpawn(SpawnEntityEvent event) {
         final Object actualSource = source;
         event.filterEntities(new Predicate<Entity>() {
             GPClaim targetClaim = null;
+            // Chunk loads spawn many entities of the same type in one claim, their verdicts are shared
+            final Map<GPClaim, Map<EntityType, Boolean>> spawnVerdicts = new HashMap<>();
 
             @Override
             public boolean test(Entity entity) {
@@ -253,6 +262,19 @@ public boolean test(Entity entity) {
                     return true;
                 }
 
+                if (GriefPreventionPlugin.debugActive || !isSpawnVerdictShared(entity)) {
+                    return this.testSpawn(entity);
+                }
+                final Map<EntityType, Boolean> claimVerdicts = this.spawnVerdicts.computeIfAbsent(targetClaim, k -> new HashMap<>());
+                Boolean verdict = claimVerdicts.get(entity.getType());
+                if (verdict == null) {
+                    verdict = this.testSpawn(entity);
+                    claimVerdicts.put(entity.getType(), verdict);
+                }
+                return verdict;
+            }
+
+            private boolean testSpawn(Entity entity) {
                 String permission = GPPermissions.ENTITY_SPAWN;
                 if (isChunkSpawn) {
                     if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.ENTITY_CHUNK_SPAWN.toString(), entity, world.getProperties())) {
@@ -304,6 +326,15 @@ public boolean test(Entity entity) {
         GPTimings.ENTITY_SPAWN_EVENT.stopTimingIfSync();
     }
 
+    // Items and entities with per instance permission ids can't share a verdict with their type
+    private static boolean isSpawnVerdictShared(Entity entity) {
+        if (entity instanceof Item || entity.getType() == null) {
+            return false;
+        }
+        final String[] parts = entity.getType().getId().split(":");
+        return parts.length > 1 && !parts[0].equalsIgnoreCase(parts[1]) && !parts[0].equals("unknown");
+    }
+
     @Listener(order = Order.FIRST, beforeModifications = true)
     public void onEntityAttack(AttackEntityEvent event, @First DamageSource damageSource) {
         GPTimings.ENTITY_ATTACK_EVENT.startTimingIfSync();
@@ -678,6 +709,14 @@ public void onEntityMove(MoveEntityEvent event){
         if (!GriefPreventionPlugin.instance.claimsEnabledForWorld(world.getProperties())) {
             return;
         }
+        // entities without a player can't notice a move that stays in one claim, skip it until they may reach a border
+        final boolean trackBorderDistance = !(entity instanceof Player)
+                && !(((net.minecraft.entity.Entity) entity).getControllingPassenger() instanceof Player);
+        final int entityId = ((net.minecraft.entity.Entity) entity).getEntityId();
+        final GPClaimManager claimManager = this.dataStore.getClaimWorldManager(world.getProperties());
+        if (trackBorderDistance && EntityBorderCache.canSkip(entityId, claimManager, event.getFromTransform().getLocation(), event.getToTransform().getLocation())) {
+            return;
+        }
         final boolean enterBlacklisted = GriefPreventionPlugin.isSourceIdBlacklisted(ClaimFlag.ENTER_CLAIM.toString(), entity, world.getProperties());
         final boolean exitBlacklisted = GriefPreventionPlugin.isSourceIdBlacklisted(ClaimFlag.EXIT_CLAIM.toString(), entity, world.getProperties());
         if (enterBlacklisted && exitBlacklisted) {
@@ -698,6 +737,10 @@ public void onEntityMove(MoveEntityEvent event){
             }
             owner = ((OwnershipTrackedBridge) entity).tracked$getOwnerReference().orElse(null);
         }
+        // flags no subject configures always allow, skip their lookups
+        final User flagUser = player != null ? player : owner;
+        final boolean checkEnter = GPFlags.ENTER_CLAIM && !enterBlacklisted && !GPFlagAnalysis.isBypassed(ClaimFlag.ENTER_CLAIM, flagUser);
+        final boolean checkExit = GPFlags.EXIT_CLAIM && !exitBlacklisted && !GPFlagAnalysis.isBypassed(ClaimFlag.EXIT_CLAIM, flagUser);
 
         final Location<World> fromLocation = event.getFromTransform().getLocation();
         final Location<World> toLocation = event.getToTransform().getLocation();
@@ -706,15 +749,17 @@ public void onEntityMove(MoveEntityEvent event){
             // Handle border event without player
             GPClaim fromClaim = this.dataStore.getClaimAt(fromLocation);
             GPClaim toClaim = this.dataStore.getClaimAt(toLocation);
-            if (fromClaim != toClaim) {
+            if (fromClaim == toClaim) {
+                EntityBorderCache.update(entityId, claimManager, toLocation, toClaim);
+            } else {
                 GPBorderClaimEvent gpEvent = new GPBorderClaimEvent(entity, fromClaim, toClaim);
                 // enter
-                if (GPFlags.ENTER_CLAIM && !enterBlacklisted && GPPermissionHandler.getClaimPermission(event, toLocation, toClaim, GPPermissions.ENTER_CLAIM, entity, entity, null) == Tristate.FALSE) {
+                if (checkEnter && GPPermissionHandler.getClaimPermission(event, toLocation, toClaim, GPPermissions.ENTER_CLAIM, entity, entity, null) == Tristate.FALSE) {
                     gpEvent.setCancelled(true);
                 }
 
                 // exit
-                if (GPFlags.EXIT_CLAIM && !exitBlacklisted && GPPermissionHandler.getClaimPermission(event, fromLocation, fromClaim, GPPermissions.EXIT_CLAIM, entity, entity, null) == Tristate.FALSE) {
+                if (checkExit && GPPermissionHandler.getClaimPermission(event, fromLocation, fromClaim, GPPermissions.EXIT_CLAIM, entity, entity, null) == Tristate.FALSE) {
                     gpEvent.setCancelled(true);
                 }
 
@@ -738,7 +783,7 @@ public void onEntityMove(MoveEntityEvent event){
             fromClaim = this.dataStore.getClaimAt(fromLocation);
         }
 
-        if (GPFlags.ENTER_CLAIM && !enterBlacklisted && playerData != null && playerData.lastClaim != null) {
+        if (checkEnter && playerData != null && playerData.lastClaim != null) {
             final GPClaim lastClaim = (GPClaim) playerData.lastClaim.get();
             if (lastClaim != null && lastClaim != fromClaim) {
                 if (GPPermissionHandler.getClaimPermission(event, toLocation, toClaim, GPPermissions.ENTER_CLAIM, entity, entity, player, TrustType.ACCESSOR, false) == Tristate.FALSE) {
@@ -749,6 +794,11 @@ public void onEntityMove(MoveEntityEvent event){
             }
         }
         if (fromClaim == toClaim) {
+            if (entity == player && !event.isCancelled()) {
+                ClaimContextCalculator.updateContextClaim(playerData, toLocation, toClaim);
+            } else if (trackBorderDistance && player == null) {
+                EntityBorderCache.update(entityId, claimManager, toLocation, toClaim);
+            }
             GPTimings.ENTITY_MOVE_EVENT.stopTimingIfSync();
             return;
         }
@@ -788,6 +838,9 @@ public void onEntityMove(MoveEntityEvent event){
                 if (playerData != null) {
                     final boolean showGpPrefix = GriefPreventionPlugin.getGlobalConfig().getConfig().message.showGpPrefixGreetingFarewell;
                     playerData.lastClaim = new WeakReference<>(toClaim);
+                    if (entity == player) {
+                        ClaimContextCalculator.updateContextClaim(playerData, toLocation, toClaim);
+                    }
                     Text welcomeMessage = gpEvent.getEnterMessage().orElse(null);
                     if (welcomeMessage != null && !welcomeMessage.equals(Text.of())) {
                         ChatType chatType = gpEvent.getEnterMessageChatType();
@@ -813,6 +866,7 @@ public void onEntityMove(MoveEntityEvent event){
                     } else {
                         playerData.inTown = false;
                     }
+                    TownPresenceIndex.update(player.getUniqueId(), toClaim);
                 }
             }
 
@@ -824,13 +878,13 @@ public void onEntityMove(MoveEntityEvent event){
             boolean enterCancelled = false;
             boolean exitCancelled = false;
             // enter
-            if (GPFlags.ENTER_CLAIM && !enterBlacklisted && GPPermissionHandler.getClaimPermission(event, toLocation, toClaim, GPPermissions.ENTER_CLAIM, entity, entity, user) == Tristate.FALSE) {
+            if (checkEnter && GPPermissionHandler.getClaimPermission(event, toLocation, toClaim, GPPermissions.ENTER_CLAIM, entity, entity, user) == Tristate.FALSE) {
                 enterCancelled = true;
                 gpEvent.setCancelled(true);
             }
 
             // exit
-            if (GPFlags.EXIT_CLAIM && !exitBlacklisted && GPPermissionHandler.getClaimPermission(event, fromLocation, fromClaim, GPPermissions.EXIT_CLAIM, entity, entity, user) == Tristate.FALSE) {
+            if (checkExit && GPPermissionHandler.getClaimPermission(event, fromLocation, fromClaim, GPPermissions.EXIT_CLAIM, entity, entity, user) == Tristate.FALSE) {
                 exitCancelled = true;
                 gpEvent.setCancelled(true);
             }
@@ -863,6 +917,9 @@ public void onEntityMove(MoveEntityEvent event){
             if (playerData != null) {
                 final boolean showGpPrefix = GriefPreventionPlugin.getGlobalConfig().getConfig().message.showGpPrefixGreetingFarewell;
                 playerData.lastClaim = new WeakReference<>(toClaim);
+                if (entity == player) {
+                    ClaimContextCalculator.updateContextClaim(playerData, toLocation, toClaim);
+                }
                 Text welcomeMessage = gpEvent.getEnterMessage().orElse(null);
                 if (welcomeMessage != null && !welcomeMessage.equals(Text.of())) {
                     ChatType chatType = gpEvent.getEnterMessageChatType();
@@ -888,6 +945,7 @@ public void onEntityMove(MoveEntityEvent event){
                 } else {
                     playerData.inTown = false;
                 }
+                TownPresenceIndex.update(player.getUniqueId(), toClaim);
             }
         }
 
@@ -1001,6 +1059,8 @@ public void onEntityTeleport(MoveEntityEvent.Teleport event) {
         if (player != null && !sourceLocation.getExtent().getUniqueId().equals(destination.getExtent().getUniqueId())) {
             // new world, check if player has world storage for it
             GPClaimManager claimWorldManager = GriefPreventionPlugin.instance.dataStore.getClaimWorldManager(destination.getExtent().getProperties());
+            // world context changed, refresh cached options
+            this.dataStore.getOrCreatePlayerData(destination.getExtent(), player.getUniqueId()).refreshPlayerOptions();
 
             try (final CauseStackManager.StackFrame frame = Sponge.getCauseStackManager().pushCauseFrame()) {
                 // update lastActive timestamps for claims this player owns
@@ -1028,6 +1088,12 @@ public void onEntityTeleport(MoveEntityEvent.Teleport event) {
                 playerData.inTown = false;
             }
         }
+        if (player != null) {
+            TownPresenceIndex.update(player.getUniqueId(), toClaim);
+            // player data is per world unless global storage is enabled
+            final GPPlayerData destinationData = this.dataStore.getOrCreatePlayerData(destination.getExtent(), player.getUniqueId());
+            ClaimContextCalculator.updateContextClaim(destinationData, destination, toClaim);
+        }
         // TODO
         /*if (event.getCause().first(PortalTeleportCause.class).isPresent()) {
             // FEATURE: when players get trapped in a nether portal, send them back through to the other side
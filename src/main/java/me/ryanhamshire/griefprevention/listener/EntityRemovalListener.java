@@ -24,7 +24,8 @@
  */
 package me.ryanhamshire.griefprevention.listener;
 
-import me.ryanhamshire.griefprevention.util.BlockUtils;
+import me.ryanhamshire.griefprevention.util.EntityBorderCache;
+import me.ryanhamshire.griefprevention.util.EntityCollisionCache;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayer;
@@ -38,7 +39,9 @@ public class EntityRemovalListener implements IWorldEventListener {
 
     @Override
     public void onEntityRemoved(Entity entityIn) {
-        BlockUtils.ENTITY_BLOCK_CACHE.remove(entityIn.getEntityId());
+        EntityCollisionCache.COLLIDE_BLOCK.remove(entityIn.getEntityId());
+        EntityCollisionCache.IMPACT_BLOCK.remove(entityIn.getEntityId());
+        EntityBorderCache.remove(entityIn.getEntityId());
     }
 
     @Override
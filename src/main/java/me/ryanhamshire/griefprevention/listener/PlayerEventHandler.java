@@ -47,10 +47,12 @@
 import me.ryanhamshire.griefprevention.claim.ClaimsMode;
 import me.ryanhamshire.griefprevention.claim.GPClaim;
 import me.ryanhamshire.griefprevention.claim.GPClaimManager;
+import me.ryanhamshire.griefprevention.claim.TownPresenceIndex;
 import me.ryanhamshire.griefprevention.command.CommandHelper;
 import me.ryanhamshire.griefprevention.configuration.GriefPreventionConfig;
 import me.ryanhamshire.griefprevention.configuration.MessageStorage;
 import me.ryanhamshire.griefprevention.logging.CustomLogEntryTypes;
+import me.ryanhamshire.griefprevention.permission.GPFlagAnalysis;
 import me.ryanhamshire.griefprevention.permission.GPPermissionHandler;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
 import me.ryanhamshire.griefprevention.provider.NucleusApiProvider;
@@ -58,8 +60,10 @@
 import me.ryanhamshire.griefprevention.task.PlayerKickBanTask;
 import me.ryanhamshire.griefprevention.task.WelcomeTask;
 import me.ryanhamshire.griefprevention.util.BlockUtils;
+import me.ryanhamshire.griefprevention.util.CommandCache;
 import me.ryanhamshire.griefprevention.util.PaginationUtils;
 import me.ryanhamshire.griefprevention.util.PlayerUtils;
+import me.ryanhamshire.griefprevention.util.SpamDetector;
 import me.ryanhamshire.griefprevention.visual.Visualization;
 import me.ryanhamshire.griefprevention.visual.VisualizationType;
 import net.minecraft.entity.passive.EntityHorse;
@@ -74,7 +78,6 @@
 import org.spongepowered.api.block.BlockType;
 import org.spongepowered.api.block.BlockTypes;
 import org.spongepowered.api.block.tileentity.TileEntity;
-import org.spongepowered.api.command.CommandMapping;
 import org.spongepowered.api.command.CommandSource;
 import org.spongepowered.api.data.key.Keys;
 import org.spongepowered.api.data.manipulator.mutable.entity.JoinData;
@@ -114,13 +117,14 @@
 import org.spongepowered.api.event.message.MessageChannelEvent;
 import org.spongepowered.api.event.message.MessageEvent;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
+import org.spongepowered.api.event.permission.SubjectDataUpdateEvent;
 import org.spongepowered.api.item.ItemType;
 import org.spongepowered.api.item.ItemTypes;
 import org.spongepowered.api.item.inventory.ItemStack;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 import org.spongepowered.api.item.inventory.transaction.SlotTransaction;
-import org.spongepowered.api.plugin.PluginContainer;
 import org.spongepowered.api.service.ban.BanService;
+import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.channel.MessageChannel;
@@ -152,7 +156,9 @@
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -215,17 +221,20 @@ public void onPlayerChat(MessageChannelEvent.Chat event, @First Player player) {
             } else {
                 playerData.inTown = false;
             }
+            TownPresenceIndex.update(player.getUniqueId(), sourceClaim);
             final GPClaim sourceTown = sourceClaim.getTownClaim();
-            final Text townTag = sourceTown.getTownData().getTownTag().orElse(null);
+            if (sourceTown != null) {
+                final Text townTag = sourceTown.getTownData().getTownTag().orElse(null);
 
-            Text header = event.getFormatter().getHeader().toText();
-            Text body = event.getFormatter().getBody().toText();
-            Text footer = event.getFormatter().getFooter().toText();
-            Text townMessage = Text.of(TextColors.GREEN, body);
-            if (townTag != null) {
-                townMessage = Text.of(townTag, townMessage);
+                Text body = event.getFormatter().getBody().toText();
+                Text townMessage = Text.of(TextColors.GREEN, body);
+                if (townTag != null) {
+                    townMessage = Text.of(townTag, townMessage);
+                }
+                event.setMessage(townMessage);
             }
-            event.setMessage(townMessage);
+            // players standing in the source town are tracked by the presence index
+            final Set<UUID> townResidents = sourceTown == null ? Collections.emptySet() : TownPresenceIndex.getResidents(sourceTown.getUniqueId());
             Set<CommandSource> recipientsToRemove = new HashSet<>();
             Iterator<MessageReceiver> iterator = event.getChannel().get().getMembers().iterator();
             while (iterator.hasNext()) {
@@ -239,18 +248,18 @@ public void onPlayerChat(MessageChannelEvent.Chat event, @First Player player) {
                         }
                     }
 
-                    final GPPlayerData targetPlayerData = GriefPreventionPlugin.instance.dataStore.getOrCreatePlayerData(recipient.getWorld(), recipient.getUniqueId());
-                    if (!targetPlayerData.inTown) {
-                        recipientsToRemove.add(recipient);
+                    if (townResidents.contains(recipient.getUniqueId())) {
                         continue;
                     }
 
-                    final GPClaim targetClaim = this.dataStore.getClaimAtPlayer(targetPlayerData, recipient.getLocation());
-                    final GPClaim targetTown = targetClaim.getTownClaim();
-                    if (targetPlayerData.canIgnoreClaim(targetClaim)) {
-                        continue;
+                    final GPPlayerData targetPlayerData = GriefPreventionPlugin.instance.dataStore.getOrCreatePlayerData(recipient.getWorld(), recipient.getUniqueId());
+                    if (targetPlayerData.inTown && targetPlayerData.ignoreClaims) {
+                        final GPClaim targetClaim = this.dataStore.getClaimAtPlayer(targetPlayerData, recipient.getLocation());
+                        if (targetPlayerData.canIgnoreClaim(targetClaim)) {
+                            continue;
+                        }
                     }
-                    if (sourceTown != null && (targetTown == null || !sourceTown.getUniqueId().equals(targetTown.getUniqueId()))) {
+                    if (sourceTown != null || !targetPlayerData.inTown) {
                         recipientsToRemove.add(recipient);
                     }
                 }
@@ -353,13 +362,6 @@ public void onPlayerChat(MessageChannelEvent.Chat event, @First Player player) {
         GPTimings.PLAYER_CHAT_EVENT.stopTimingIfSync();
     }
 
-    // last chat message shown, regardless of who sent it
-    private String lastChatMessage = "";
-    private long lastChatMessageTimestamp = 0;
-
-    // number of identical messages in a row
-    private int duplicateMessageCount = 0;
-
     // returns true if the message should be sent, false if it should be muted
     private boolean handlePlayerChat(Player player, String message, Event event) {
         // FEATURE: automatically educate players about claiming land
@@ -402,101 +404,25 @@ private boolean handlePlayerChat(Player player, String message, Event event) {
             }
         }
 
-        // remedy any CAPS SPAM, exception for very short messages which could be emoticons like =D or XD
-        if (message.length() > 4 && this.stringsAreSimilar(message.toUpperCase(), message)) {
+        final SpamDetector.Result result = SpamDetector.check(playerData.spamState, message, System.currentTimeMillis(), mutedReason);
+        if (result.isCaps()) {
             // exception for strings containing forward slash to avoid changing
             // a case-sensitive URL
             if (event instanceof MessageEvent) {
                 ((MessageEvent) event).setMessage(Text.of(message.toLowerCase()));
             }
         }
+        spam = result.isSpam();
+        mutedReason = result.getMutedReason();
 
-        // always mute an exact match to the last chat message
-        long now = new Date().getTime();
-        if (mutedReason != null && message.equals(this.lastChatMessage) && now - this.lastChatMessageTimestamp < 750) {
-            playerData.spamCount += ++this.duplicateMessageCount;
-            spam = true;
-            mutedReason = "repeat message";
-        } else {
-            this.lastChatMessage = message;
-            this.lastChatMessageTimestamp = now;
-            this.duplicateMessageCount = 0;
-        }
-
-        // where other types of spam are concerned, casing isn't significant
-        message = message.toLowerCase();
-
-        // check message content and timing
-        long millisecondsSinceLastMessage = now - playerData.lastMessageTimestamp.getTime();
-
-        // if the message came too close to the last one
-        if (millisecondsSinceLastMessage < 1500) {
-            // increment the spam counter
-            playerData.spamCount++;
-            spam = true;
-        }
-
-        // if it's very similar to the last message from the same player and
-        // within 10 seconds of that message
-        if (mutedReason == null && this.stringsAreSimilar(message, playerData.lastMessage)
-                && now - playerData.lastMessageTimestamp.getTime() < 10000) {
-            playerData.spamCount++;
-            spam = true;
-            mutedReason = "similar message";
-        }
-
-        // filter IP addresses
-        if (mutedReason == null) {
-            if (GriefPreventionPlugin.instance.containsBlockedIP(message)) {
-                // spam notation
-                playerData.spamCount += 1;
-                spam = true;
-
-                // block message
-                mutedReason = "IP address";
-            }
-        }
-
-        // if the message was mostly non-alpha-numerics or doesn't include much
-        // whitespace, consider it a spam (probably ansi art or random text gibberish)
-        if (mutedReason == null && message.length() > 5) {
-            int symbolsCount = 0;
-            int whitespaceCount = 0;
-            for (int i = 0; i < message.length(); i++) {
-                char character = message.charAt(i);
-                if (!(Character.isLetterOrDigit(character))) {
-                    symbolsCount++;
-                }
-
-                if (Character.isWhitespace(character)) {
-                    whitespaceCount++;
-                }
-            }
-
-            if (symbolsCount > message.length() / 2 || (message.length() > 15 && whitespaceCount < message.length() / 10)) {
-                spam = true;
-                if (playerData.spamCount > 0)
-                    mutedReason = "gibberish";
-                playerData.spamCount++;
-            }
-        }
-
-        // very short messages close together are spam
-        if (mutedReason == null && message.length() < 5 && millisecondsSinceLastMessage < 3000) {
-            spam = true;
-            playerData.spamCount++;
-        }
-
-        // in any case, record the timestamp of this message and also its
-        // content for next time
-        playerData.lastMessageTimestamp = new Date();
+        // in any case, record the content of this message for next time
         playerData.lastMessage = message;
 
         // if the message was determined to be a spam, consider taking action
         if (spam) {
             // anything above level 8 for a player which has received a
             // warning... kick or if enabled, ban
-            if (playerData.spamCount > 8 && playerData.spamWarned) {
+            if (result.getSpamCount() > 8 && playerData.spamState.isWarned()) {
                 if (GriefPreventionPlugin.getGlobalConfig().getConfig().spam.autoBanOffenders) {
                     // log entry
                     GriefPreventionPlugin.addLogEntry("Banning " + player.getName() + " for spam.", CustomLogEntryTypes.AdminActivity);
@@ -518,14 +444,13 @@ private boolean handlePlayerChat(Player player, String message, Event event) {
             }
 
             // cancel any messages while at or above the third spam level and issue warnings anything above level 2, mute and warn
-            if (playerData.spamCount >= 4) {
+            if (result.getSpamCount() >= 4) {
                 if (mutedReason == null) {
                     mutedReason = "too-frequent text";
                 }
-                if (!playerData.spamWarned) {
+                if (playerData.spamState.markWarned()) {
                     GriefPreventionPlugin.sendMessage(player, GriefPreventionPlugin.instance.messageData.warningBanMessage.toText(), 10L);
                     GriefPreventionPlugin.addLogEntry("Warned " + player.getName() + " about spam penalties.", CustomLogEntryTypes.Debug, false);
-                    playerData.spamWarned = true;
                 }
             }
 
@@ -539,60 +464,9 @@ private boolean handlePlayerChat(Player player, String message, Event event) {
             }
         }
 
-        // otherwise if not a spam, reset the spam counter for this player
-        else {
-            playerData.spamCount = 0;
-            playerData.spamWarned = false;
-        }
-
         return false;
     }
 
-    // if two strings are 75% identical, they're too close to follow each other in the chat
-    private boolean stringsAreSimilar(String message, String lastMessage) {
-        // determine which is shorter
-        String shorterString, longerString;
-        if (lastMessage.length() < message.length()) {
-            shorterString = lastMessage;
-            longerString = message;
-        } else {
-            shorterString = message;
-            longerString = lastMessage;
-        }
-
-        if (shorterString.length() <= 5)
-            return shorterString.equals(longerString);
-
-        // set similarity tolerance
-        int maxIdenticalCharacters = longerString.length() - longerString.length() / 4;
-
-        // trivial check on length
-        if (shorterString.length() < maxIdenticalCharacters)
-            return false;
-
-        // compare forward
-        int identicalCount = 0;
-        int i;
-        for (i = 0; i < shorterString.length(); i++) {
-            if (shorterString.charAt(i) == longerString.charAt(i))
-                identicalCount++;
-            if (identicalCount > maxIdenticalCharacters)
-                return true;
-        }
-
-        // compare backward
-        int j;
-        for (j = 0; j < shorterString.length() - i; j++) {
-            if (shorterString.charAt(shorterString.length() - j - 1) == longerString.charAt(longerString.length() - j - 1))
-                identicalCount++;
-            if (identicalCount > maxIdenticalCharacters)
-                return true;
-        }
-
-        return false;
-    }
-
-
     // when a player uses a slash command...
     @Listener(order = Order.FIRST, beforeModifications = true)
     public void onPlayerCommand(SendCommandEvent event, @First Player player) {
@@ -603,30 +477,10 @@ public void onPlayerCommand(SendCommandEvent event, @First Player player) {
         final boolean commandExecutePvpSourceBlacklisted = GriefPreventionPlugin.isSourceIdBlacklisted(ClaimFlag.COMMAND_EXECUTE_PVP.toString(),event.getSource(), player.getWorld().getProperties());
 
         GPTimings.PLAYER_COMMAND_EVENT.startTimingIfSync();
-        String command = event.getCommand();
+        final CommandCache.ResolvedCommand resolvedCommand = CommandCache.resolve(event.getCommand());
+        final String command = resolvedCommand.command;
         String[] args = event.getArguments().split(" ");
-        String[] parts = command.split(":");
-        String pluginId = null;
-
-        if (parts.length > 1) {
-            pluginId = parts[0];
-            command = parts[1];
-        }
-
         String message = "/" + event.getCommand() + " " + event.getArguments();
-        if (pluginId == null || !pluginId.equals("minecraft")) {
-            CommandMapping commandMapping = Sponge.getCommandManager().get(command).orElse(null);
-            PluginContainer pluginContainer = null;
-            if (commandMapping != null) {
-                pluginContainer = Sponge.getCommandManager().getOwner(commandMapping).orElse(null);
-                if (pluginContainer != null) {
-                    pluginId = pluginContainer.getId();
-                }
-            }
-            if (pluginId == null) {
-                pluginId = "minecraft";
-            }
-        }
 
         PaginationUtils.updateActiveCommand(player.getUniqueId(), command, event.getArguments());
         if (!GriefPreventionPlugin.instance.claimsEnabledForWorld(player.getWorld().getProperties())) {
@@ -642,7 +496,7 @@ public void onPlayerCommand(SendCommandEvent event, @First Player player) {
             GPTimings.PLAYER_COMMAND_EVENT.stopTimingIfSync();
             return;
         }
-        String commandPermission = pluginId + "." + command;
+        String commandPermission = resolvedCommand.commandPermission;
 
         // first check the args
         String argument = "";
@@ -653,7 +507,7 @@ public void onPlayerCommand(SendCommandEvent event, @First Player player) {
         final boolean commandExecuteTargetBlacklisted = GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.COMMAND_EXECUTE.toString(), commandPermission + argument, player.getWorld().getProperties());
         final boolean commandExecutePvpTargetBlacklisted = GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.COMMAND_EXECUTE_PVP.toString(), commandPermission + argument, player.getWorld().getProperties());
         if (GPFlags.COMMAND_EXECUTE && !commandExecuteSourceBlacklisted && !commandExecuteTargetBlacklisted) {
-            final Tristate result = GPPermissionHandler.getClaimPermission(event, player.getLocation(), claim, GPPermissions.COMMAND_EXECUTE, event.getSource(), commandPermission + argument, player);
+            final Tristate result = this.getCommandPermission(event, player, playerData, claim, GPPermissions.COMMAND_EXECUTE, commandPermission + argument);
             if (result == Tristate.TRUE) {
                 GPTimings.PLAYER_COMMAND_EVENT.stopTimingIfSync();
                 return;
@@ -670,7 +524,7 @@ public void onPlayerCommand(SendCommandEvent event, @First Player player) {
             }
         }
         if (GPFlags.COMMAND_EXECUTE_PVP && !commandExecutePvpSourceBlacklisted && playerData != null && (playerData.inPvpCombat(player.getWorld())) && !commandExecutePvpTargetBlacklisted) {
-            final Tristate result = GPPermissionHandler.getClaimPermission(event, player.getLocation(), claim, GPPermissions.COMMAND_EXECUTE_PVP, event.getSource(), commandPermission + argument, player);
+            final Tristate result = this.getCommandPermission(event, player, playerData, claim, GPPermissions.COMMAND_EXECUTE_PVP, commandPermission + argument);
             if (result == Tristate.TRUE) {
                 GPTimings.PLAYER_COMMAND_EVENT.stopTimingIfSync();
                 return;
@@ -782,6 +636,27 @@ public void onPlayerCommand(SendCommandEvent event, @First Player player) {
         GPTimings.PLAYER_COMMAND_EVENT.stopTimingIfSync();
     }
 
+    // Players tend to repeat the same commands in a claim, reuse results until the claim or permissions change
+    private Tristate getCommandPermission(SendCommandEvent event, Player player, GPPlayerData playerData, GPClaim claim, String flagPermission, String target) {
+        if (GriefPreventionPlugin.debugActive || playerData.debugClaimPermissions || event.getSource() != player) {
+            return GPPermissionHandler.getClaimPermission(event, player.getLocation(), claim, flagPermission, event.getSource(), target, player);
+        }
+
+        final Set<Context> activeContexts = player.getActiveContexts();
+        CommandCache.ClaimCommandResults commandResults = playerData.commandResults;
+        if (commandResults == null || !commandResults.isValid(claim, activeContexts, playerData)) {
+            commandResults = new CommandCache.ClaimCommandResults(claim, activeContexts, playerData);
+            playerData.commandResults = commandResults;
+        }
+
+        Tristate result = commandResults.get(flagPermission, target);
+        if (result == null) {
+            result = GPPermissionHandler.getClaimPermission(event, player.getLocation(), claim, flagPermission, event.getSource(), target, player);
+            commandResults.put(flagPermission, target, result);
+        }
+        return result;
+    }
+
     static int longestNameLength = 10;
 
     static void makeSocialLogEntry(String name, String message) {
@@ -798,16 +673,32 @@ static void makeSocialLogEntry(String name, String message) {
 
     private ConcurrentHashMap<UUID, Date> lastLoginThisServerSessionMap = new ConcurrentHashMap<UUID, Date>();
 
+    // when permission data changes, cached option snapshots and flag analysis may be stale
+    @Listener(order = Order.LAST)
+    public void onSubjectDataUpdate(SubjectDataUpdateEvent event) {
+        this.dataStore.scheduleOptionRefresh(event.getUpdatedData().getSubject());
+        GPFlagAnalysis.scheduleAnalysis(event.getUpdatedData().getSubject());
+    }
+
     // counts how many players are using each IP address connected to the server right now
     @SuppressWarnings("unused")
     private ConcurrentHashMap<String, Integer> ipCountHash = new ConcurrentHashMap<String, Integer>();
 
+    // when a player has been authenticated, load their data while the login completes
+    @Listener(order = Order.LAST)
+    public void onPlayerAuth(ClientConnectionEvent.Auth event) {
+        final UUID playerUniqueId = event.getProfile().getUniqueId();
+        // fired on a network thread, the data store is only used on the main thread
+        Sponge.getScheduler().createTaskBuilder().execute(() -> this.dataStore.prefetchPlayerData(playerUniqueId)).submit(GriefPreventionPlugin.instance);
+    }
+
     // when a player attempts to join the server...
     @Listener(order = Order.FIRST, beforeModifications = true)
     public void onPlayerLogin(ClientConnectionEvent.Login event) {
         GPTimings.PLAYER_LOGIN_EVENT.startTimingIfSync();
         User player = event.getTargetUser();
         if (!GriefPreventionPlugin.instance.claimsEnabledForWorld(event.getToTransform().getExtent().getProperties())) {
+            this.dataStore.discardPlayerPrefetch(player.getUniqueId());
             GPTimings.PLAYER_LOGIN_EVENT.stopTimingIfSync();
             return;
         }
@@ -832,6 +723,7 @@ public void onPlayerLogin(ClientConnectionEvent.Login event) {
                         // DAS BOOT!;
                         event.setMessage(Text.of("You must wait " + cooldownRemaining + " seconds before logging-in again."));
                         event.setCancelled(true);
+                        this.dataStore.discardPlayerPrefetch(player.getUniqueId());
                         GPTimings.PLAYER_LOGIN_EVENT.stopTimingIfSync();
                         return;
                     }
@@ -848,6 +740,8 @@ public void onPlayerLogin(ClientConnectionEvent.Login event) {
         final WorldProperties worldProperties = event.getToTransform().getExtent().getProperties();
         final UUID playerUniqueId = player.getUniqueId();
         final GPPlayerData playerData = this.dataStore.getOrCreatePlayerData(worldProperties, playerUniqueId);
+        // a prefetch left unused, e.g. for another world, would be stale by the time it is needed
+        this.dataStore.discardPlayerPrefetch(playerUniqueId);
         playerData.receivedDropUnlockAdvertisement = false;
         playerData.ipAddress = ipAddress;
         final GPClaimManager claimWorldManager = this.dataStore.getClaimWorldManager(worldProperties);
@@ -877,6 +771,8 @@ public void onPlayerJoin(ClientConnectionEvent.Join event) {
         }
 
         UUID playerID = player.getUniqueId();
+        // permission data for this player is now loaded
+        GPFlagAnalysis.scheduleAnalysis(player);
 
         // note login time
         Date nowDate = new Date();
@@ -887,6 +783,7 @@ public void onPlayerJoin(ClientConnectionEvent.Join event) {
         if (claim.isInTown()) {
             playerData.inTown = true;
         }
+        TownPresenceIndex.update(playerID, claim);
 
         // if newish, prevent chat until he's moved a bit to prove he's not a bot
         //if (player.getOrCreate(AchievementData.class).isPresent() && !player.getAchievementData().achievements().contains(Achievements.MINE_WOOD)) {
@@ -1057,6 +954,8 @@ public void onPlayerKicked(KickPlayerEvent event) {
     @Listener(order= Order.LAST)
     public void onPlayerQuit(ClientConnectionEvent.Disconnect event) {
         final Player player = event.getTargetEntity();
+        TownPresenceIndex.remove(player.getUniqueId());
+        this.dataStore.discardPlayerPrefetch(player.getUniqueId());
         if (!SpongeImpl.getServer().isServerRunning() || !GriefPreventionPlugin.instance.claimsEnabledForWorld(player.getWorld().getProperties())) {
             return;
         }
@@ -1288,60 +1187,70 @@ public void onPlayerInteractInventoryClick(ClickInventoryEvent event, @First Pla
         final GPClaim claim = this.dataStore.getClaimAt(location);
         final boolean isDrop = event instanceof ClickInventoryEvent.Drop;
         final ItemStackSnapshot cursorItem = event.getCursorTransaction().getOriginal();
+        // Shift clicks and drags touch many slots holding the same items, resolve each item type once
+        final Map<ItemType, Tristate> clickResults = new HashMap<>();
+        final Map<ItemType, Tristate> dropResults = new HashMap<>();
+        ItemStackSnapshot deniedItem = null;
+        boolean deniedDrop = false;
         // check if original cursor item can be dropped
         if (isDrop && cursorItem != ItemStackSnapshot.NONE) {
-            final boolean itemDropBlacklisted = GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.ITEM_DROP.toString(), cursorItem, player.getWorld().getProperties());
-            if (!itemDropBlacklisted && GPPermissionHandler.getClaimPermission(event, location, claim, GPPermissions.ITEM_DROP, player, cursorItem, player, TrustType.ACCESSOR, true) == Tristate.FALSE) {
-                Text message = GriefPreventionPlugin.instance.messageData.permissionItemDrop
-                        .apply(ImmutableMap.of(
-                        "owner", claim.getOwnerName(),
-                        "item", cursorItem.getType().getId())).build();
-                GriefPreventionPlugin.sendClaimDenyMessage(claim, player, message);
-                event.setCancelled(true);
-                GPTimings.PLAYER_INTERACT_INVENTORY_CLICK_EVENT.stopTimingIfSync();
-                return;
+            if (this.getItemPermission(dropResults, event, location, claim, ClaimFlag.ITEM_DROP, GPPermissions.ITEM_DROP, player, cursorItem, TrustType.ACCESSOR) == Tristate.FALSE) {
+                deniedItem = cursorItem;
+                deniedDrop = true;
             }
         }
-        for (SlotTransaction transaction : event.getTransactions()) {
-            if (transaction.getOriginal() == ItemStackSnapshot.NONE) {
-                continue;
-            }
-
-            if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.INTERACT_INVENTORY_CLICK.toString(), transaction.getOriginal(), player.getWorld().getProperties())) {
-                continue;
-            }
-
-            final Tristate result = GPPermissionHandler.getClaimPermission(event, location, claim, GPPermissions.INVENTORY_CLICK, player, transaction.getOriginal(), player, TrustType.CONTAINER, true);
-            if (result == Tristate.FALSE) {
-                Text message = GriefPreventionPlugin.instance.messageData.permissionInteractItem
-                        .apply(ImmutableMap.of(
-                        "owner", claim.getOwnerName(),
-                        "item", transaction.getOriginal().getType().getId())).build();
-                GriefPreventionPlugin.sendClaimDenyMessage(claim, player, message);
-                event.setCancelled(true);
-                GPTimings.PLAYER_INTERACT_INVENTORY_CLICK_EVENT.stopTimingIfSync();
-                return;
-            }
+        if (deniedItem == null) {
+            for (SlotTransaction transaction : event.getTransactions()) {
+                if (transaction.getOriginal() == ItemStackSnapshot.NONE) {
+                    continue;
+                }
 
-            if (isDrop && transaction.getFinal() != ItemStackSnapshot.NONE) {
-                if (GriefPreventionPlugin.isTargetIdBlacklisted(ClaimFlag.ITEM_DROP.toString(), transaction.getFinal(), player.getWorld().getProperties())) {
+                final Tristate result = this.getItemPermission(clickResults, event, location, claim, ClaimFlag.INTERACT_INVENTORY_CLICK, GPPermissions.INVENTORY_CLICK, player, transaction.getOriginal(), TrustType.CONTAINER);
+                if (result == null) {
                     continue;
                 }
+                if (result == Tristate.FALSE) {
+                    deniedItem = transaction.getOriginal();
+                    break;
+                }
 
-                if (GPPermissionHandler.getClaimPermission(event, location, claim, GPPermissions.ITEM_DROP, player, transaction.getFinal(), player, TrustType.ACCESSOR, true) == Tristate.FALSE) {
-                    Text message = GriefPreventionPlugin.instance.messageData.permissionItemDrop
-                            .apply(ImmutableMap.of(
-                            "owner", claim.getOwnerName(),
-                            "item", transaction.getFinal().getType().getId())).build();
-                    GriefPreventionPlugin.sendClaimDenyMessage(claim, player, message);
-                    event.setCancelled(true);
-                    GPTimings.PLAYER_INTERACT_INVENTORY_CLICK_EVENT.stopTimingIfSync();
-                    return;
+                if (isDrop && transaction.getFinal() != ItemStackSnapshot.NONE) {
+                    if (this.getItemPermission(dropResults, event, location, claim, ClaimFlag.ITEM_DROP, GPPermissions.ITEM_DROP, player, transaction.getFinal(), TrustType.ACCESSOR) == Tristate.FALSE) {
+                        deniedItem = transaction.getFinal();
+                        deniedDrop = true;
+                        break;
+                    }
                 }
             }
         }
+
+        // only the first denial is reported, render its message once
+        if (deniedItem != null) {
+            final Text message = (deniedDrop ? GriefPreventionPlugin.instance.messageData.permissionItemDrop : GriefPreventionPlugin.instance.messageData.permissionInteractItem)
+                    .apply(ImmutableMap.of(
+                    "owner", claim.getOwnerName(),
+                    "item", deniedItem.getType().getId())).build();
+            GriefPreventionPlugin.sendClaimDenyMessage(claim, player, message);
+            event.setCancelled(true);
+        }
         GPTimings.PLAYER_INTERACT_INVENTORY_CLICK_EVENT.stopTimingIfSync();
     }
+
+    // Item permissions only depend on item type, blacklisted items resolve to null
+    private Tristate getItemPermission(Map<ItemType, Tristate> results, Event event, Location<World> location, GPClaim claim, ClaimFlag flag, String permission,
+            Player player, ItemStackSnapshot item, TrustType trustType) {
+        final ItemType itemType = item.getType();
+        if (!GriefPreventionPlugin.debugActive && results.containsKey(itemType)) {
+            return results.get(itemType);
+        }
+
+        Tristate result = null;
+        if (!GriefPreventionPlugin.isTargetIdBlacklisted(flag.toString(), item, player.getWorld().getProperties())) {
+            result = GPPermissionHandler.getClaimPermission(event, location, claim, permission, player, item, player, trustType, true);
+        }
+        results.put(itemType, result);
+        return result;
+    }
  
     // when a player interacts with an entity...
     @Listener(order = Order.FIRST, beforeModifications = true)
@@ -27,6 +27,8 @@
 import me.ryanhamshire.griefprevention.GPTimings;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.claim.GPClaimManager;
+import me.ryanhamshire.griefprevention.configuration.ClaimJournal;
+import me.ryanhamshire.griefprevention.configuration.StorageWriter;
 import me.ryanhamshire.griefprevention.task.TaxApplyTask;
 import me.ryanhamshire.griefprevention.util.TaskUtils;
 import org.spongepowered.api.Sponge;
@@ -82,6 +84,10 @@ public void onWorldUnload(UnloadWorldEvent event) {
             return;
         }
 
+        // Write pending changes now, queued writes must not outlive the world
+        GriefPreventionPlugin.instance.dataStore.getClaimWorldManager(event.getTargetWorld().getProperties()).save();
+        StorageWriter.flushAll();
+        ClaimJournal.close(event.getTargetWorld().getUniqueId());
         GriefPreventionPlugin.instance.dataStore.removeClaimWorldManager(event.getTargetWorld().getProperties());
     }
 
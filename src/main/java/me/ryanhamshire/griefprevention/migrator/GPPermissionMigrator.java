@@ -25,6 +25,7 @@
 package me.ryanhamshire.griefprevention.migrator;
 
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.permission.GPPermissionBatch;
 import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.permission.Subject;
 import org.spongepowered.api.util.Tristate;
@@ -47,6 +48,7 @@ public Consumer<Subject> migrateSubjectPermissions() {
 
     public void migrateSubject(Subject subject) {
         GriefPreventionPlugin.instance.executor.execute(() -> {
+            final GPPermissionBatch permissionBatch = new GPPermissionBatch();
             boolean migrated = false;
             for (Map.Entry<Set<Context>, Map<String, Boolean>> mapEntry : subject.getSubjectData().getAllPermissions().entrySet()) {
                 final Set<Context> contextSet = mapEntry.getKey();
@@ -57,15 +59,16 @@ public void migrateSubject(Subject subject) {
                     if (currentPermission.contains(".pixelmon.animal.pixelmon")) {
                         GriefPreventionPlugin.instance.getLogger().info("Detected legacy pixelmon permission '" + currentPermission + "'. Migrating...");
                         final String newPermission = currentPermission.replaceAll("\\.pixelmon\\.animal\\.pixelmon", "\\.pixelmon\\.animal");
-                        subject.getSubjectData().setPermission(contextSet, currentPermission, Tristate.UNDEFINED);
+                        permissionBatch.setPermission(subject, contextSet, currentPermission, Tristate.UNDEFINED);
                         GriefPreventionPlugin.instance.getLogger().info("Removed legacy pixelmon permission '" + currentPermission + "'.");
-                        subject.getSubjectData().setPermission(contextSet, newPermission, Tristate.fromBoolean(entry.getValue()));
+                        permissionBatch.setPermission(subject, contextSet, newPermission, Tristate.fromBoolean(entry.getValue()));
                         GriefPreventionPlugin.instance.getLogger().info("Set new permission '" + newPermission);
                         migrated = true;
                     }
                 }
             }
             if (migrated) {
+                permissionBatch.apply();
                 GriefPreventionPlugin.instance.getLogger().info("Finished migration of subject '" + subject.getIdentifier() + "'\n");
             }
         });
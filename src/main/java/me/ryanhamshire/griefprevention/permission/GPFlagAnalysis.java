@@ -0,0 +1,196 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.permission;
+
+import com.google.common.collect.ImmutableSet;
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import me.ryanhamshire.griefprevention.api.claim.ClaimContexts;
+import me.ryanhamshire.griefprevention.api.claim.ClaimFlag;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.permission.PermissionService;
+import org.spongepowered.api.service.permission.Subject;
+import org.spongepowered.api.service.permission.SubjectCollection;
+import org.spongepowered.api.service.permission.SubjectData;
+import org.spongepowered.api.util.Tristate;
+import org.spongepowered.api.world.World;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tracks which {@link ClaimFlag}s are not configured by any subject.
+ *
+ * <p>A flag is bypassed when every claim type default allows it and no loaded
+ * subject denies it in any context. Such a flag resolves to {@link Tristate#TRUE}
+ * for every claim and analyzed user, so listeners can skip the permission lookup.
+ * Offline users may have data that was never loaded, so they are always checked.</p>
+ */
+public class GPFlagAnalysis {
+
+    private static final long ALL_FLAGS = (1L << ClaimFlag.values().length) - 1;
+    private static final Context[] DEFAULT_CONTEXTS = {ClaimContexts.ADMIN_DEFAULT_CONTEXT, ClaimContexts.BASIC_DEFAULT_CONTEXT,
+            ClaimContexts.TOWN_DEFAULT_CONTEXT, ClaimContexts.WILDERNESS_DEFAULT_CONTEXT};
+
+    // Subject key -> flags denied somewhere in that subject's data
+    private static final Map<String, Long> DENIED_FLAGS = new ConcurrentHashMap<>();
+    private static final Set<Subject> PENDING_SUBJECTS = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean ANALYSIS_QUEUED = new AtomicBoolean(false);
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+    private static volatile boolean fullAnalysis = true;
+    private static volatile long bypassedFlags = 0L;
+
+    public static boolean isBypassed(ClaimFlag flag, @Nullable User user) {
+        if (GriefPreventionPlugin.debugActive || (bypassedFlags & (1L << flag.ordinal())) == 0) {
+            return false;
+        }
+        return user == null || (user.isOnline() && DENIED_FLAGS.containsKey(PermissionService.SUBJECTS_USER + ":" + user.getIdentifier()));
+    }
+
+    // Changes whenever permission data changes, results cached against an older value are stale
+    public static int getGeneration() {
+        return GENERATION.get();
+    }
+
+    public static void scheduleFullAnalysis() {
+        fullAnalysis = true;
+        queueAnalysis();
+    }
+
+    public static void scheduleAnalysis(Subject subject) {
+        PENDING_SUBJECTS.add(subject);
+        queueAnalysis();
+    }
+
+    private static void queueAnalysis() {
+        // Stop bypassing until the changed data has been inspected
+        GENERATION.incrementAndGet();
+        bypassedFlags = 0L;
+        if (!ANALYSIS_QUEUED.compareAndSet(false, true)) {
+            return;
+        }
+
+        Sponge.getScheduler().createTaskBuilder().delayTicks(1).execute(() -> {
+            GriefPreventionPlugin.instance.executor.execute(() -> {
+                ANALYSIS_QUEUED.set(false);
+                analyze();
+            });
+        }).submit(GriefPreventionPlugin.instance);
+    }
+
+    private static void analyze() {
+        final int generation = GENERATION.get();
+        if (fullAnalysis) {
+            fullAnalysis = false;
+            PENDING_SUBJECTS.clear();
+            DENIED_FLAGS.clear();
+            final Subject defaults = GriefPreventionPlugin.instance.permissionService.getDefaults();
+            DENIED_FLAGS.put(getSubjectKey(defaults), getDeniedFlags(defaults));
+            for (SubjectCollection collection : GriefPreventionPlugin.instance.permissionService.getLoadedCollections().values()) {
+                DENIED_FLAGS.put(getSubjectKey(collection.getDefaults()), getDeniedFlags(collection.getDefaults()));
+                for (Subject subject : collection.getLoadedSubjects()) {
+                    DENIED_FLAGS.put(getSubjectKey(subject), getDeniedFlags(subject));
+                }
+            }
+        } else {
+            for (Subject subject : PENDING_SUBJECTS) {
+                PENDING_SUBJECTS.remove(subject);
+                DENIED_FLAGS.put(getSubjectKey(subject), getDeniedFlags(subject));
+            }
+        }
+
+        long deniedFlags = 0L;
+        for (long flags : DENIED_FLAGS.values()) {
+            deniedFlags |= flags;
+        }
+        final long result = getDefaultAllowedFlags() & ~deniedFlags;
+        // A newer change arrived while analyzing, let its own pass publish
+        if (generation == GENERATION.get()) {
+            bypassedFlags = result;
+        }
+    }
+
+    private static String getSubjectKey(Subject subject) {
+        return subject.getContainingCollection().getIdentifier() + ":" + subject.getIdentifier();
+    }
+
+    private static long getDeniedFlags(Subject subject) {
+        return getDeniedFlags(subject.getTransientSubjectData()) | getDeniedFlags(subject.getSubjectData());
+    }
+
+    private static long getDeniedFlags(SubjectData subjectData) {
+        long flags = 0L;
+        for (Map<String, Boolean> permissions : subjectData.getAllPermissions().values()) {
+            for (Map.Entry<String, Boolean> entry : permissions.entrySet()) {
+                if (!entry.getValue()) {
+                    flags |= getAffectedFlags(entry.getKey());
+                }
+            }
+        }
+        return flags;
+    }
+
+    private static long getAffectedFlags(String permission) {
+        if (permission.startsWith(GPPermissions.FLAG_BASE + ".")) {
+            try {
+                return 1L << ClaimFlag.getEnum(permission).ordinal();
+            } catch (IllegalArgumentException e) {
+                return 0L;
+            }
+        }
+        // Parent nodes such as 'griefprevention' apply to every flag
+        if (permission.equals("*") || permission.equals(GPPermissions.FLAG_BASE) || GPPermissions.FLAG_BASE.startsWith(permission + ".")) {
+            return ALL_FLAGS;
+        }
+        return 0L;
+    }
+
+    // Flags that every claim type default allows in all claim enabled worlds
+    private static long getDefaultAllowedFlags() {
+        long flags = ALL_FLAGS;
+        final SubjectData defaultData = GriefPreventionPlugin.GLOBAL_SUBJECT.getTransientSubjectData();
+        for (World world : Sponge.getServer().getWorlds()) {
+            if (!GriefPreventionPlugin.instance.claimsEnabledForWorld(world.getProperties())) {
+                continue;
+            }
+            for (Context defaultContext : DEFAULT_CONTEXTS) {
+                final Map<String, Boolean> permissions = defaultData.getPermissions(ImmutableSet.of(defaultContext, world.getContext()));
+                for (ClaimFlag flag : ClaimFlag.values()) {
+                    if (!Boolean.TRUE.equals(permissions.get(GPPermissions.FLAG_BASE + "." + flag.toString()))) {
+                        flags &= ~(1L << flag.ordinal());
+                    }
+                }
+            }
+        }
+        return flags;
+    }
+}
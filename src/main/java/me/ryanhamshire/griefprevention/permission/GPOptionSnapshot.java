@@ -0,0 +1,103 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.permission;
+
+import com.google.common.collect.ImmutableMap;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.permission.Subject;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable view of all GP options that apply to a subject under a set of contexts.
+ *
+ * <p>Every option is resolved once through the permission service when the
+ * snapshot is built, so its inheritance and weighting rules apply. Lookups
+ * against a snapshot never touch the permission service.</p>
+ */
+public class GPOptionSnapshot {
+
+    public static final GPOptionSnapshot EMPTY = new GPOptionSnapshot(ImmutableMap.of());
+
+    private final Map<String, String> options;
+
+    private GPOptionSnapshot(Map<String, String> options) {
+        this.options = options;
+    }
+
+    // Run async
+    public static GPOptionSnapshot create(Subject subject, Set<Context> contexts) {
+        if (subject == null) {
+            return EMPTY;
+        }
+
+        final ImmutableMap.Builder<String, String> options = ImmutableMap.builder();
+        for (String key : GPOptions.DEFAULT_OPTIONS.keySet()) {
+            subject.getOption(contexts, key).ifPresent(value -> options.put(key, value));
+        }
+        return new GPOptionSnapshot(options.build());
+    }
+
+    public boolean hasOption(String key) {
+        return this.options.containsKey(key);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        final String optionValue = this.options.get(key);
+        if (optionValue == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(optionValue);
+        } catch (NumberFormatException e) {
+            // default options are stored as doubles
+            try {
+                return (int) Double.parseDouble(optionValue);
+            } catch (NumberFormatException e2) {
+                return defaultValue;
+            }
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        final String optionValue = this.options.get(key);
+        if (optionValue == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Double.parseDouble(optionValue);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public Map<String, String> getOptions() {
+        return this.options;
+    }
+}
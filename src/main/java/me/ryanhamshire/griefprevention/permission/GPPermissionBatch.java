@@ -0,0 +1,153 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.permission;
+
+import com.google.common.collect.ImmutableSet;
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.permission.Subject;
+import org.spongepowered.api.service.permission.SubjectData;
+import org.spongepowered.api.util.Tristate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Collects permission changes for many subjects and applies them off the main thread.
+ *
+ * <p>Changes are coalesced per subject before they reach the permission service.
+ * Setting the same permission twice keeps the last value and clearing a context
+ * set drops any earlier change queued for it. Each subject's changes are then
+ * submitted together in a single executor task.</p>
+ *
+ * <p>A batch is not thread-safe and should be filled by one thread before
+ * {@link #apply()} is called.</p>
+ */
+public class GPPermissionBatch {
+
+    private final Map<Subject, SubjectChanges> changes = new LinkedHashMap<>();
+
+    public GPPermissionBatch setPermission(Subject subject, Set<Context> contexts, String permission, Tristate value) {
+        this.getChanges(subject).permissions.computeIfAbsent(ImmutableSet.copyOf(contexts), k -> new LinkedHashMap<>()).put(permission, value);
+        return this;
+    }
+
+    public GPPermissionBatch clearPermissions(Subject subject, Set<Context> contexts) {
+        final SubjectChanges subjectChanges = this.getChanges(subject);
+        final Set<Context> contextSet = ImmutableSet.copyOf(contexts);
+        subjectChanges.permissions.remove(contextSet);
+        subjectChanges.cleared.add(contextSet);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return this.changes.isEmpty();
+    }
+
+    /**
+     * Applies all queued changes on the plugin executor.
+     *
+     * <p>The returned future completes once the permission service has
+     * acknowledged every change and never needs to be joined on the main
+     * thread.</p>
+     *
+     * @return A future completing with true if every change was applied
+     */
+    public CompletableFuture<Boolean> apply() {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        if (this.changes.isEmpty()) {
+            result.complete(true);
+            return result;
+        }
+
+        final List<SubjectChanges> pending = new ArrayList<>(this.changes.values());
+        this.changes.clear();
+        GriefPreventionPlugin.instance.executor.execute(() -> {
+            final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (SubjectChanges subjectChanges : pending) {
+                futures.add(subjectChanges.submit());
+            }
+
+            allSucceeded(futures).whenComplete((success, throwable) -> {
+                if (throwable != null) {
+                    GriefPreventionPlugin.instance.getLogger().error("Failed to apply permission changes", throwable);
+                    result.complete(false);
+                    return;
+                }
+                result.complete(success);
+            });
+        });
+        return result;
+    }
+
+    private static CompletableFuture<Boolean> allSucceeded(List<CompletableFuture<Boolean>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            boolean success = true;
+            for (CompletableFuture<Boolean> future : futures) {
+                success &= future.join();
+            }
+            return success;
+        });
+    }
+
+    private SubjectChanges getChanges(Subject subject) {
+        return this.changes.computeIfAbsent(subject, SubjectChanges::new);
+    }
+
+    private static final class SubjectChanges {
+
+        private final Subject subject;
+        private final Set<Set<Context>> cleared = new LinkedHashSet<>();
+        private final Map<Set<Context>, Map<String, Tristate>> permissions = new LinkedHashMap<>();
+
+        SubjectChanges(Subject subject) {
+            this.subject = subject;
+        }
+
+        // Sets start once every clear has completed, queued sets were made after the clear
+        CompletableFuture<Boolean> submit() {
+            final SubjectData subjectData = this.subject.getSubjectData();
+            final List<CompletableFuture<Boolean>> clears = new ArrayList<>();
+            for (Set<Context> contexts : this.cleared) {
+                clears.add(subjectData.clearPermissions(contexts));
+            }
+            return allSucceeded(clears).thenCompose(cleared -> {
+                final List<CompletableFuture<Boolean>> sets = new ArrayList<>();
+                for (Map.Entry<Set<Context>, Map<String, Tristate>> entry : this.permissions.entrySet()) {
+                    for (Map.Entry<String, Tristate> permission : entry.getValue().entrySet()) {
+                        sets.add(subjectData.setPermission(entry.getKey(), permission.getKey(), permission.getValue()));
+                    }
+                }
+                return allSucceeded(sets).thenApply(set -> cleared && set);
+            });
+        }
+    }
+}
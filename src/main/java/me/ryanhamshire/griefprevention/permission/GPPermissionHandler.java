@@ -192,12 +192,12 @@ public static Tristate getClaimPermission(Event event, Location<World> location,
 
     private static Tristate getUserPermission(User user, GPClaim claim, String permission, String targetModPermission, String targetMetaPermission, GPPlayerData playerData) {
         final List<Claim> inheritParents = claim.getInheritedParents();
-        final Set<Context> contexts = PermissionUtils.getActiveContexts(user, playerData, permission);
+        final PermissionUtils.BaseContextSet baseContexts = PermissionUtils.getBaseContexts(user, playerData, permission);
 
         for (Claim parentClaim : inheritParents) {
             GPClaim parent = (GPClaim) parentClaim;
             // check parent context
-            contexts.add(parent.getContext());  
+            final Set<Context> contexts = baseContexts.with(parent.getContext());
 
             Tristate value = user.getPermissionValue(contexts, permission);
             if (value != Tristate.UNDEFINED) {
@@ -209,11 +209,9 @@ private static Tristate getUserPermission(User user, GPClaim claim, String permi
                     return processResult(claim, targetModPermission, value, user);
                 }
             }
-
-            contexts.remove(parent.getContext());
         }
 
-        contexts.add(claim.getContext());
+        final Set<Context> contexts = baseContexts.with(claim.getContext());
         Tristate value = user.getPermissionValue(contexts, permission);
         if (value != Tristate.UNDEFINED) {
             return processResult(claim, permission, value, user);
@@ -31,9 +31,6 @@
 import me.ryanhamshire.griefprevention.claim.GPClaim;
 import me.ryanhamshire.griefprevention.configuration.PlayerStorageData;
 import me.ryanhamshire.griefprevention.logging.CustomLogEntryTypes;
-import me.ryanhamshire.griefprevention.permission.GPOptions;
-import me.ryanhamshire.griefprevention.util.PermissionUtils;
-import me.ryanhamshire.griefprevention.util.PlayerUtils;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.data.manipulator.mutable.entity.VehicleData;
 import org.spongepowered.api.data.property.block.MatterProperty;
@@ -69,7 +66,7 @@ public void run() {
 
                     final Player player = (Player) entity;
                     final GPPlayerData playerData = GriefPreventionPlugin.instance.dataStore.getOrCreatePlayerData(player.getWorld(), player.getUniqueId());
-                    final int accrualPerHour = PlayerUtils.getOptionIntValue(PermissionUtils.getActiveContexts(player, playerData, null), player, GPOptions.BLOCKS_ACCRUED_PER_HOUR, 120);
+                    final int accrualPerHour = playerData.optionBlocksAccruedPerHour;
                     if (accrualPerHour > 0) {
                         DeliverClaimBlocksTask newTask = new DeliverClaimBlocksTask(player);
                         Sponge.getGame().getScheduler().createTaskBuilder().delayTicks(i++).execute(newTask)
@@ -1,6 +1,7 @@
 /*
  * This file is part of GriefPrevention, licensed under the MIT License (MIT).
  *
+ * Copyright (c) Ryan Hamshire
  * Copyright (c) bloodmc
  * Copyright (c) contributors
  *
@@ -22,40 +23,15 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  * THE SOFTWARE.
  */
-package me.ryanhamshire.griefprevention.util;
+package me.ryanhamshire.griefprevention.task;
 
-import org.spongepowered.api.util.Tristate;
-import org.spongepowered.common.SpongeImpl;
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 
-public class BlockPosCache {
+//runs every few minutes in the main thread, drops player data of offline players that has not been used for a while
+public class PlayerDataEvictionTask implements Runnable {
 
-    private int lastTickCounter;
-    private short lastBlockPos;
-    private Tristate lastResult = Tristate.UNDEFINED;
-
-    public BlockPosCache(short pos) {
-        this.lastBlockPos = pos;
-        this.lastTickCounter = SpongeImpl.getServer().getTickCounter();
-    }
-
-    public void setLastResult(Tristate result) {
-        this.lastResult = result;
-    }
-
-    public Tristate getCacheResult(short pos) {
-        int currentTick = SpongeImpl.getServer().getTickCounter();
-        if (this.lastBlockPos != pos) {
-            this.lastBlockPos = pos;
-            this.lastTickCounter = currentTick;
-            return Tristate.UNDEFINED;
-        }
-
-        if ((currentTick - this.lastTickCounter) <= 2) {
-            this.lastTickCounter = currentTick;
-            return this.lastResult;
-        }
-
-        this.lastTickCounter = currentTick;
-        return Tristate.UNDEFINED;
+    @Override
+    public void run() {
+        GriefPreventionPlugin.instance.dataStore.evictPlayerData();
     }
 }
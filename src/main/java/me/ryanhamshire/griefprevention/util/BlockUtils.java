@@ -27,7 +27,6 @@
 
 import com.flowpowered.math.vector.Vector3i;
 import com.google.common.collect.Maps;
-import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import me.ryanhamshire.griefprevention.GPPlayerData;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.api.claim.Claim;
@@ -75,12 +74,7 @@ public class BlockUtils {
             Direction.NORTH, Direction.NORTHEAST, Direction.EAST, Direction.SOUTHEAST,
             Direction.SOUTH, Direction.SOUTHWEST, Direction.WEST, Direction.NORTHWEST,
         };
-    private static final int NUM_XZ_BITS = 4;
-    private static final int NUM_SHORT_Y_BITS = 8;
-    private static final short XZ_MASK = 0xF;
-    private static final short Y_SHORT_MASK = 0xFF;
 
-    public static final Map<Integer, BlockPosCache> ENTITY_BLOCK_CACHE = new Int2ObjectArrayMap<>();
     private static final Map<BlockState, Integer> BLOCKSTATE_META_CACHE = Maps.newHashMap();
     private static final String locationStringDelimiter = ";";
 
@@ -206,17 +200,14 @@ public static int getClaimBlockCost(World world, Vector3i lesser, Vector3i great
     }
 
     /**
-     * Serialize this BlockPos into a short value
+     * Packs a block position into a long value using the same layout as BlockPos
      */
-    public static short blockPosToShort(BlockPos pos) {
-        short serialized = (short) setNibble(0, pos.getX() & XZ_MASK, 0, NUM_XZ_BITS);
-        serialized = (short) setNibble(serialized, pos.getY() & Y_SHORT_MASK, 1, NUM_SHORT_Y_BITS);
-        serialized = (short) setNibble(serialized, pos.getZ() & XZ_MASK, 3, NUM_XZ_BITS);
-        return serialized;
+    public static long blockPosToLong(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) y & 0xFFFL) << 26 | ((long) z & 0x3FFFFFFL);
     }
 
-    private static int setNibble(int num, int data, int which, int bitsToReplace) {
-        return (num & ~(bitsToReplace << (which * 4)) | (data << (which * 4)));
+    public static long blockPosToLong(Location<World> location) {
+        return blockPosToLong(location.getBlockX(), location.getBlockY(), location.getBlockZ());
     }
 
     private static void saveChunkData(ChunkProviderServer chunkProviderServer, Chunk chunkIn)
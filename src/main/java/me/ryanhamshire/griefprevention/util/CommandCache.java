@@ -0,0 +1,161 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.util;
+
+import me.ryanhamshire.griefprevention.GPPlayerData;
+import me.ryanhamshire.griefprevention.claim.GPClaim;
+import me.ryanhamshire.griefprevention.permission.GPFlagAnalysis;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.command.CommandMapping;
+import org.spongepowered.api.plugin.PluginContainer;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.util.Tristate;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CommandCache {
+
+    // Bounds per player results for commands used with many different arguments
+    private static final int MAX_CLAIM_RESULTS = 64;
+
+    private static final Map<String, ResolvedCommand> RESOLVED_COMMANDS = new ConcurrentHashMap<>();
+    private static volatile int registeredAliases = -1;
+    // Bumped on reload as flag overrides may have changed with the config
+    private static int resultsVersion = 0;
+
+    /**
+     * Resolves the owning plugin of a command as typed by a player.
+     *
+     * <p>Results are kept until the number of registered command aliases
+     * changes or the plugin is reloaded.</p>
+     *
+     * @param rawCommand The command, optionally prefixed with a plugin id
+     * @return The resolved command
+     */
+    public static ResolvedCommand resolve(String rawCommand) {
+        final int aliases = Sponge.getCommandManager().size();
+        if (aliases != registeredAliases) {
+            RESOLVED_COMMANDS.clear();
+            registeredAliases = aliases;
+        }
+
+        ResolvedCommand resolved = RESOLVED_COMMANDS.get(rawCommand);
+        if (resolved == null) {
+            resolved = resolveCommand(rawCommand);
+            RESOLVED_COMMANDS.put(rawCommand, resolved);
+        }
+        return resolved;
+    }
+
+    public static void invalidate() {
+        RESOLVED_COMMANDS.clear();
+        registeredAliases = -1;
+        resultsVersion++;
+    }
+
+    private static ResolvedCommand resolveCommand(String rawCommand) {
+        String command = rawCommand;
+        String pluginId = null;
+        final String[] parts = rawCommand.split(":");
+        if (parts.length > 1) {
+            pluginId = parts[0];
+            command = parts[1];
+        }
+
+        if (pluginId == null || !pluginId.equals("minecraft")) {
+            final CommandMapping commandMapping = Sponge.getCommandManager().get(command).orElse(null);
+            if (commandMapping != null) {
+                final PluginContainer pluginContainer = Sponge.getCommandManager().getOwner(commandMapping).orElse(null);
+                if (pluginContainer != null) {
+                    pluginId = pluginContainer.getId();
+                }
+            }
+            if (pluginId == null) {
+                pluginId = "minecraft";
+            }
+        }
+
+        return new ResolvedCommand(command, pluginId + "." + command);
+    }
+
+    public static final class ResolvedCommand {
+
+        public final String command;
+        public final String commandPermission;
+
+        private ResolvedCommand(String command, String commandPermission) {
+            this.command = command;
+            this.commandPermission = commandPermission;
+        }
+    }
+
+    /**
+     * Command execution results of a player within a single claim.
+     *
+     * <p>Only valid while the player stays in the same claim with the same
+     * active contexts and ignore state and no permission data or config
+     * has changed. Accessed on the main thread only.</p>
+     */
+    public static final class ClaimCommandResults {
+
+        private final WeakReference<GPClaim> claim;
+        private final Set<Context> activeContexts;
+        private final int generation;
+        private final int version;
+        // permission checks return early for players ignoring the claim
+        private final boolean ignoreClaim;
+        private final Map<String, Tristate> results = new HashMap<>();
+
+        public ClaimCommandResults(GPClaim claim, Set<Context> activeContexts, GPPlayerData playerData) {
+            this.claim = new WeakReference<>(claim);
+            this.activeContexts = activeContexts;
+            this.generation = GPFlagAnalysis.getGeneration();
+            this.version = resultsVersion;
+            this.ignoreClaim = playerData.canIgnoreClaim(claim);
+        }
+
+        public boolean isValid(GPClaim claim, Set<Context> activeContexts, GPPlayerData playerData) {
+            return this.claim.get() == claim && this.generation == GPFlagAnalysis.getGeneration() && this.version == resultsVersion
+                    && this.ignoreClaim == playerData.canIgnoreClaim(claim)
+                    && this.activeContexts.equals(activeContexts);
+        }
+
+        public Tristate get(String flagPermission, String target) {
+            return this.results.get(flagPermission + ";" + target);
+        }
+
+        public void put(String flagPermission, String target, Tristate result) {
+            if (this.results.size() >= MAX_CLAIM_RESULTS) {
+                this.results.clear();
+            }
+            this.results.put(flagPermission + ";" + target, result);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.util;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import me.ryanhamshire.griefprevention.claim.GPClaim;
+import me.ryanhamshire.griefprevention.claim.GPClaimManager;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tracks how far each entity can move before it could possibly cross a claim
+ * boundary, so movement inside that range needs no claim lookups.
+ *
+ * <p>Entries are anchored at the position they were measured from and are
+ * dropped as soon as the world's claim index changes. All access happens on
+ * the main thread.</p>
+ */
+public class EntityBorderCache {
+
+    private static final Map<Integer, Entry> ENTITY_BORDER_CACHE = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Checks if a move stays within the safe range measured for an entity.
+     *
+     * @param entityId The entity id
+     * @param claimManager The claim manager of the entity world
+     * @param from The location moved from
+     * @param to The location moved to
+     * @return Whether both locations resolve to the claim measured previously
+     */
+    public static boolean canSkip(int entityId, GPClaimManager claimManager, Location<World> from, Location<World> to) {
+        final Entry entry = ENTITY_BORDER_CACHE.get(entityId);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.indexVersion != claimManager.getIndexVersion() || !entry.worldUniqueId.equals(to.getExtent().getUniqueId())) {
+            ENTITY_BORDER_CACHE.remove(entityId);
+            return false;
+        }
+
+        return entry.worldUniqueId.equals(from.getExtent().getUniqueId()) && entry.isInRange(from) && entry.isInRange(to);
+    }
+
+    /**
+     * Measures the safe range around a location after a full claim lookup.
+     *
+     * @param entityId The entity id
+     * @param claimManager The claim manager of the entity world
+     * @param location The entity location
+     * @param claim The claim at location
+     */
+    public static void update(int entityId, GPClaimManager claimManager, Location<World> location, GPClaim claim) {
+        final int x = location.getBlockX();
+        final int y = location.getBlockY();
+        final int z = location.getBlockZ();
+        final int distance = claimManager.getBoundaryDistance(x, y, z, claim);
+        if (distance <= 0) {
+            ENTITY_BORDER_CACHE.remove(entityId);
+            return;
+        }
+
+        ENTITY_BORDER_CACHE.put(entityId, new Entry(location.getExtent().getUniqueId(), x, y, z, distance, claimManager.getIndexVersion()));
+    }
+
+    public static void remove(int entityId) {
+        ENTITY_BORDER_CACHE.remove(entityId);
+    }
+
+    private static final class Entry {
+
+        private final UUID worldUniqueId;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final int distance;
+        private final int indexVersion;
+
+        private Entry(UUID worldUniqueId, int x, int y, int z, int distance, int indexVersion) {
+            this.worldUniqueId = worldUniqueId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.distance = distance;
+            this.indexVersion = indexVersion;
+        }
+
+        private boolean isInRange(Location<World> location) {
+            return Math.abs(location.getBlockX() - this.x) <= this.distance
+                    && Math.abs(location.getBlockY() - this.y) <= this.distance
+                    && Math.abs(location.getBlockZ() - this.z) <= this.distance;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.util;
+
+import org.spongepowered.api.util.Tristate;
+import org.spongepowered.common.SpongeImpl;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the last collision verdict of each entity so repeated events
+ * against the same block within a short tick window skip claim lookups.
+ *
+ * <p>Entries live in a fixed size open-addressing table keyed by entity id.
+ * Lookups probe a bounded window of slots, so memory never grows and a full
+ * window simply evicts its oldest entry. All access happens on the main
+ * thread.</p>
+ */
+public class EntityCollisionCache {
+
+    public static final EntityCollisionCache COLLIDE_BLOCK = new EntityCollisionCache(4096);
+    public static final EntityCollisionCache IMPACT_BLOCK = new EntityCollisionCache(1024);
+
+    private static final int EMPTY = -1;
+    private static final int MAX_PROBES = 8;
+    private static final int EXPIRE_TICKS = 2;
+    private static final byte RESULT_TRUE = 1;
+    private static final byte RESULT_FALSE = 2;
+
+    private final int mask;
+    private final int[] entityIds;
+    private final long[] positions;
+    private final int[] ticks;
+    private final byte[] results;
+
+    private long hits;
+    private long misses;
+    private long expirations;
+    private long evictions;
+
+    public EntityCollisionCache(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(MAX_PROBES, capacity - 1) << 1);
+        this.mask = size - 1;
+        this.entityIds = new int[size];
+        this.positions = new long[size];
+        this.ticks = new int[size];
+        this.results = new byte[size];
+        Arrays.fill(this.entityIds, EMPTY);
+    }
+
+    public Tristate get(int entityId, long pos) {
+        final int slot = this.findSlot(entityId);
+        if (slot == EMPTY || this.positions[slot] != pos) {
+            this.misses++;
+            return Tristate.UNDEFINED;
+        }
+
+        final int currentTick = SpongeImpl.getServer().getTickCounter();
+        if ((currentTick - this.ticks[slot]) > EXPIRE_TICKS) {
+            this.entityIds[slot] = EMPTY;
+            this.expirations++;
+            this.misses++;
+            return Tristate.UNDEFINED;
+        }
+
+        // Keep the window sliding while the entity stays on the same block
+        this.ticks[slot] = currentTick;
+        this.hits++;
+        return this.results[slot] == RESULT_TRUE ? Tristate.TRUE : Tristate.FALSE;
+    }
+
+    public void put(int entityId, long pos, Tristate result) {
+        if (result == Tristate.UNDEFINED) {
+            return;
+        }
+
+        final int currentTick = SpongeImpl.getServer().getTickCounter();
+        final int start = mix(entityId) & this.mask;
+        int target = EMPTY;
+        int oldest = start;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            final int slot = (start + i) & this.mask;
+            final int id = this.entityIds[slot];
+            if (id == entityId) {
+                target = slot;
+                break;
+            }
+            if (target == EMPTY && (id == EMPTY || (currentTick - this.ticks[slot]) > EXPIRE_TICKS)) {
+                target = slot;
+            }
+            if (this.ticks[slot] - this.ticks[oldest] < 0) {
+                oldest = slot;
+            }
+        }
+
+        if (target == EMPTY) {
+            target = oldest;
+            this.evictions++;
+        }
+
+        this.entityIds[target] = entityId;
+        this.positions[target] = pos;
+        this.ticks[target] = currentTick;
+        this.results[target] = result == Tristate.TRUE ? RESULT_TRUE : RESULT_FALSE;
+    }
+
+    public void remove(int entityId) {
+        final int slot = this.findSlot(entityId);
+        if (slot != EMPTY) {
+            this.entityIds[slot] = EMPTY;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.entityIds, EMPTY);
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public long getExpirations() {
+        return this.expirations;
+    }
+
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    public double getHitRate() {
+        final long total = this.hits + this.misses;
+        return total == 0 ? 0 : (double) this.hits / total;
+    }
+
+    public void resetStats() {
+        this.hits = 0;
+        this.misses = 0;
+        this.expirations = 0;
+        this.evictions = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCollisionCache{capacity=" + this.entityIds.length
+                + ", hits=" + this.hits
+                + ", misses=" + this.misses
+                + ", hitRate=" + String.format("%.2f", this.getHitRate())
+                + ", expirations=" + this.expirations
+                + ", evictions=" + this.evictions + "}";
+    }
+
+    private int findSlot(int entityId) {
+        final int start = mix(entityId) & this.mask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            final int slot = (start + i) & this.mask;
+            if (this.entityIds[slot] == entityId) {
+                return slot;
+            }
+        }
+        return EMPTY;
+    }
+
+    private static int mix(int value) {
+        final int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
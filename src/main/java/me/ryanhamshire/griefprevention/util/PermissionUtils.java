@@ -24,6 +24,7 @@
  */
 package me.ryanhamshire.griefprevention.util;
 
+import com.google.common.collect.ImmutableSet;
 import me.ryanhamshire.griefprevention.GPPlayerData;
 import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
 import me.ryanhamshire.griefprevention.permission.GPPermissions;
@@ -32,7 +33,9 @@
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 
 public class PermissionUtils {
@@ -105,4 +108,82 @@ public static Set<Context> getActiveContexts(Subject subject, GPPlayerData playe
         }
         return activeContexts;
     }
+
+    /**
+     * Gets the active contexts of a subject as a reusable base set.
+     *
+     * <p>For players the filtered base set is cached on {@link GPPlayerData}. The
+     * active contexts are still read from the subject on every lookup and
+     * compared with the set the cache was built from, so changes made by any
+     * context calculator are picked up; only the filtering and set building
+     * are skipped while they are unchanged. Sets derived from
+     * it with {@link BaseContextSet#with(Context)} are cached per claim context,
+     * so repeated lookups pass identical set instances to the permission service.</p>
+     *
+     * @param subject The subject
+     * @param playerData The player data, or null if subject is not an online player
+     * @param flag The flag permission being checked, or null
+     * @return The base context set
+     */
+    public static BaseContextSet getBaseContexts(Subject subject, GPPlayerData playerData, String flag) {
+        if (playerData == null || (flag != null && flag.startsWith(GPPermissions.COMMAND_EXECUTE))) {
+            final Set<Context> activeContexts = getActiveContexts(subject, playerData, flag);
+            return new BaseContextSet(activeContexts, activeContexts);
+        }
+
+        playerData.ignoreActiveContexts = true;
+        final Set<Context> activeContexts = subject.getActiveContexts();
+        final BaseContextSet cached = playerData.baseContexts;
+        if (cached != null && cached.source.equals(activeContexts)) {
+            return cached;
+        }
+
+        final ImmutableSet.Builder<Context> builder = ImmutableSet.builder();
+        for (Context context : activeContexts) {
+            // see above, claim contexts must never be part of the base set
+            if (!context.getKey().contains("gp_claim")) {
+                builder.add(context);
+            }
+        }
+        final BaseContextSet baseContexts = new BaseContextSet(ImmutableSet.copyOf(activeContexts), builder.build());
+        playerData.baseContexts = baseContexts;
+        return baseContexts;
+    }
+
+    public static final class BaseContextSet {
+
+        // Bounds the per claim cache for players moving through many claims
+        private static final int MAX_CACHED_SETS = 64;
+
+        private final Set<Context> source;
+        private final Set<Context> contexts;
+        private final Map<Context, Set<Context>> contextSets = new ConcurrentHashMap<>();
+
+        BaseContextSet(Set<Context> source, Set<Context> contexts) {
+            this.source = source;
+            this.contexts = contexts;
+        }
+
+        public Set<Context> getContexts() {
+            return this.contexts;
+        }
+
+        /**
+         * Gets an immutable set containing the base contexts and the given context.
+         *
+         * @param context The claim context to add
+         * @return The combined context set
+         */
+        public Set<Context> with(Context context) {
+            Set<Context> contextSet = this.contextSets.get(context);
+            if (contextSet == null) {
+                if (this.contextSets.size() >= MAX_CACHED_SETS) {
+                    this.contextSets.clear();
+                }
+                contextSet = ImmutableSet.<Context>builder().addAll(this.contexts).add(context).build();
+                this.contextSets.put(context, contextSet);
+            }
+            return contextSet;
+        }
+    }
 }
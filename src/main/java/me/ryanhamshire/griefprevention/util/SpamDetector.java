@@ -0,0 +1,299 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.util;
+
+import me.ryanhamshire.griefprevention.GriefPreventionPlugin;
+
+import java.util.Arrays;
+
+/**
+ * Scores chat messages and monitored commands for spam.
+ *
+ * <p>Message rate is limited by a per player token bucket and similarity to
+ * the previous message is measured by comparing rolling hashes of character
+ * trigrams. Each player's state is guarded by its own lock so messages can be
+ * checked from the async chat thread.</p>
+ */
+public class SpamDetector {
+
+    // Messages allowed in a burst before the rate limit kicks in
+    private static final int BUCKET_CAPACITY = 2;
+    private static final long TOKEN_REFILL_MILLIS = 1500;
+    private static final long SIMILAR_MESSAGE_MILLIS = 10000;
+    private static final long SHORT_MESSAGE_MILLIS = 3000;
+    private static final long REPEAT_MESSAGE_MILLIS = 750;
+    private static final int GRAM_SIZE = 3;
+    private static final int MAX_GRAMS = 256;
+
+    public static final String REASON_REPEAT = "repeat message";
+    public static final String REASON_SIMILAR = "similar message";
+    public static final String REASON_IP_ADDRESS = "IP address";
+    public static final String REASON_GIBBERISH = "gibberish";
+
+    // last chat message shown, regardless of who sent it
+    private static final Object LAST_CHAT_LOCK = new Object();
+    private static String lastChatMessage = "";
+    private static long lastChatMessageTimestamp = 0;
+    // number of identical messages in a row
+    private static int duplicateMessageCount = 0;
+
+    /**
+     * Checks a message against the sender's recent messages.
+     *
+     * @param state The sender's spam state
+     * @param message The raw message
+     * @param now The current time in milliseconds
+     * @param mutedReason The reason the message is already muted, if any
+     * @return The verdict
+     */
+    public static Result check(PlayerState state, String message, long now, String mutedReason) {
+        final int length = message.length();
+        int unchangedByUpperCase = 0;
+        int symbolsCount = 0;
+        int whitespaceCount = 0;
+        for (int i = 0; i < length; i++) {
+            final char character = message.charAt(i);
+            if (Character.toUpperCase(character) == character) {
+                unchangedByUpperCase++;
+            }
+            if (!Character.isLetterOrDigit(character)) {
+                symbolsCount++;
+            }
+            if (Character.isWhitespace(character)) {
+                whitespaceCount++;
+            }
+        }
+        // remedy any CAPS SPAM, exception for very short messages which could be emoticons like =D or XD
+        final boolean caps = length > 4 && unchangedByUpperCase > length - length / 4;
+
+        synchronized (state) {
+            boolean spam = mutedReason != null;
+
+            // always mute an exact match to the last chat message
+            final int duplicates = mutedReason != null ? countDuplicate(message, now) : resetDuplicate(message, now);
+            if (duplicates > 0) {
+                state.spamCount += duplicates;
+                spam = true;
+                mutedReason = REASON_REPEAT;
+            }
+
+            // the message came too close to the previous ones
+            final long millisecondsSinceLastMessage = now - state.lastMessageTimestamp;
+            if (!state.takeToken(now)) {
+                state.spamCount++;
+                spam = true;
+            }
+
+            // very similar to the last message from the same player within 10 seconds
+            state.fingerprint(message);
+            if (mutedReason == null && millisecondsSinceLastMessage < SIMILAR_MESSAGE_MILLIS && state.isSimilarToLast(message)) {
+                state.spamCount++;
+                spam = true;
+                mutedReason = REASON_SIMILAR;
+            }
+
+            if (mutedReason == null && GriefPreventionPlugin.instance.containsBlockedIP(message)) {
+                state.spamCount++;
+                spam = true;
+                mutedReason = REASON_IP_ADDRESS;
+            }
+
+            // mostly non-alpha-numerics or little whitespace, probably ansi art or random text gibberish
+            if (mutedReason == null && length > 5
+                    && (symbolsCount > length / 2 || (length > 15 && whitespaceCount < length / 10))) {
+                spam = true;
+                if (state.spamCount > 0) {
+                    mutedReason = REASON_GIBBERISH;
+                }
+                state.spamCount++;
+            }
+
+            // very short messages close together are spam
+            if (mutedReason == null && length < 5 && millisecondsSinceLastMessage < SHORT_MESSAGE_MILLIS) {
+                spam = true;
+                state.spamCount++;
+            }
+
+            state.recordMessage(message, now);
+            if (!spam) {
+                state.spamCount = 0;
+                state.spamWarned = false;
+            }
+            return new Result(spam, mutedReason, state.spamCount, caps);
+        }
+    }
+
+    private static int countDuplicate(String message, long now) {
+        synchronized (LAST_CHAT_LOCK) {
+            if (message.equals(lastChatMessage) && now - lastChatMessageTimestamp < REPEAT_MESSAGE_MILLIS) {
+                return ++duplicateMessageCount;
+            }
+            return resetDuplicate(message, now);
+        }
+    }
+
+    private static int resetDuplicate(String message, long now) {
+        synchronized (LAST_CHAT_LOCK) {
+            lastChatMessage = message;
+            lastChatMessageTimestamp = now;
+            duplicateMessageCount = 0;
+        }
+        return 0;
+    }
+
+    public static final class Result {
+
+        private final boolean spam;
+        private final String mutedReason;
+        private final int spamCount;
+        private final boolean caps;
+
+        private Result(boolean spam, String mutedReason, int spamCount, boolean caps) {
+            this.spam = spam;
+            this.mutedReason = mutedReason;
+            this.spamCount = spamCount;
+            this.caps = caps;
+        }
+
+        public boolean isSpam() {
+            return this.spam;
+        }
+
+        public String getMutedReason() {
+            return this.mutedReason;
+        }
+
+        public int getSpamCount() {
+            return this.spamCount;
+        }
+
+        public boolean isCaps() {
+            return this.caps;
+        }
+    }
+
+    /**
+     * Spam tracking state of a single player.
+     */
+    public static final class PlayerState {
+
+        private double tokens = BUCKET_CAPACITY;
+        private long lastRefill = 0;
+        private long lastMessageTimestamp = 0;
+        private String lastMessage = "";
+        // trigram hashes of the last and the current message, swapped after each check
+        private int[] lastGrams = new int[MAX_GRAMS];
+        private int lastGramCount = 0;
+        private int[] grams = new int[MAX_GRAMS];
+        private int gramCount = 0;
+        private int spamCount = 0;
+        private boolean spamWarned = false;
+
+        public synchronized int getSpamCount() {
+            return this.spamCount;
+        }
+
+        public synchronized boolean isWarned() {
+            return this.spamWarned;
+        }
+
+        // Returns true if the player had not been warned yet
+        public synchronized boolean markWarned() {
+            if (this.spamWarned) {
+                return false;
+            }
+            this.spamWarned = true;
+            return true;
+        }
+
+        private boolean takeToken(long now) {
+            this.tokens = Math.min(BUCKET_CAPACITY, this.tokens + (now - this.lastRefill) / (double) TOKEN_REFILL_MILLIS);
+            this.lastRefill = now;
+            if (this.tokens < 1) {
+                return false;
+            }
+            this.tokens--;
+            return true;
+        }
+
+        private void fingerprint(String message) {
+            int count = 0;
+            int hash = 0;
+            int power = 1;
+            for (int i = 1; i < GRAM_SIZE; i++) {
+                power *= 31;
+            }
+            for (int i = 0; i < message.length() && count < MAX_GRAMS; i++) {
+                if (i >= GRAM_SIZE) {
+                    hash -= Character.toLowerCase(message.charAt(i - GRAM_SIZE)) * power;
+                }
+                hash = hash * 31 + Character.toLowerCase(message.charAt(i));
+                if (i >= GRAM_SIZE - 1) {
+                    this.grams[count++] = hash;
+                }
+            }
+            Arrays.sort(this.grams, 0, count);
+            this.gramCount = count;
+        }
+
+        // if two messages are 75% identical, they're too close to follow each other in the chat
+        private boolean isSimilarToLast(String message) {
+            final int shorter = Math.min(message.length(), this.lastMessage.length());
+            final int longer = Math.max(message.length(), this.lastMessage.length());
+            if (shorter <= 5) {
+                return message.equalsIgnoreCase(this.lastMessage);
+            }
+            if (shorter < longer - longer / 4) {
+                return false;
+            }
+
+            int matches = 0;
+            int i = 0;
+            int j = 0;
+            while (i < this.gramCount && j < this.lastGramCount) {
+                if (this.grams[i] == this.lastGrams[j]) {
+                    matches++;
+                    i++;
+                    j++;
+                } else if (this.grams[i] < this.lastGrams[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return matches * 4 >= Math.max(this.gramCount, this.lastGramCount) * 3;
+        }
+
+        private void recordMessage(String message, long now) {
+            final int[] swap = this.lastGrams;
+            this.lastGrams = this.grams;
+            this.lastGramCount = this.gramCount;
+            this.grams = swap;
+            this.lastMessage = message;
+            this.lastMessageTimestamp = now;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of GriefPrevention, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Ryan Hamshire
+ * Copyright (c) bloodmc
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.ryanhamshire.griefprevention.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SqlStorageTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlStorageTest.class);
+    private static final AtomicInteger DATABASE_COUNT = new AtomicInteger();
+    private static final UUID WORLD_ID = UUID.randomUUID();
+
+    private JdbcDataSource dataSource;
+    private SqlStorage storage;
+
+    @Before
+    public void open() throws SQLException {
+        this.dataSource = new JdbcDataSource();
+        this.dataSource.setURL("jdbc:h2:mem:griefprevention" + DATABASE_COUNT.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        this.storage = SqlStorage.open(this.dataSource, LOGGER);
+    }
+
+    @After
+    public void close() throws SQLException {
+        SqlStorage.shutdown(5, TimeUnit.SECONDS);
+        this.execute("SHUTDOWN");
+    }
+
+    @Test
+    public void createsSchema() throws SQLException {
+        assertEquals(1, this.queryInt("SELECT version FROM gp_schema"));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claims"));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claim_trust"));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claim_economy"));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_player_data"));
+    }
+
+    @Test
+    public void reopensTablesWithoutSchemaVersion() throws SQLException {
+        SqlStorage.shutdown(5, TimeUnit.SECONDS);
+        this.execute("DELETE FROM gp_schema");
+
+        this.storage = SqlStorage.open(this.dataSource, LOGGER);
+        assertEquals(1, this.queryInt("SELECT COUNT(*) FROM gp_schema"));
+        assertEquals(1, this.queryInt("SELECT version FROM gp_schema"));
+    }
+
+    @Test
+    public void commitsQueuedRows() throws IOException, SQLException {
+        final UUID claimId = UUID.randomUUID();
+        final UUID ownerId = UUID.randomUUID();
+        final UUID builderId = UUID.randomUUID();
+        this.storage.queueClaim(createClaimRow(claimId, ownerId, builderId));
+        this.storage.queuePlayer(new SqlStorage.PlayerRow(ownerId, SqlStorage.GLOBAL_SCOPE, 100, 20, true));
+        this.storage.awaitWrites();
+
+        assertEquals(ownerId.toString(), this.queryString("SELECT owner_id FROM gp_claims WHERE claim_id = '" + claimId + "'"));
+        assertEquals(-5, this.queryInt("SELECT min_x FROM gp_claims WHERE claim_id = '" + claimId + "'"));
+        assertEquals(255, this.queryInt("SELECT max_y FROM gp_claims WHERE claim_id = '" + claimId + "'"));
+        assertEquals(builderId.toString(), this.queryString("SELECT subject FROM gp_claim_trust WHERE claim_id = '" + claimId
+                + "' AND trust_type = '" + ClaimStorageData.MAIN_BUILDERS + "'"));
+        assertEquals(1, this.queryInt("SELECT COUNT(*) FROM gp_claim_economy WHERE claim_id = '" + claimId + "' AND for_sale = TRUE"));
+        assertEquals(100, this.queryInt("SELECT accrued_blocks FROM gp_player_data WHERE player_id = '" + ownerId + "'"));
+
+        assertEquals("data " + claimId, this.storage.readClaim(claimId));
+        assertEquals(20, this.storage.readPlayer(ownerId, SqlStorage.GLOBAL_SCOPE).bonusClaimBlocks);
+        assertEquals(Collections.singletonList(ownerId), this.storage.readPlayerIds(SqlStorage.GLOBAL_SCOPE));
+        assertEquals(1, this.storage.readWorldClaims(WORLD_ID).size());
+    }
+
+    @Test
+    public void readsReturnQueuedRows() throws SQLException {
+        final UUID claimId = UUID.randomUUID();
+        final UUID playerId = UUID.randomUUID();
+        final SqlStorage.PlayerRow playerRow = new SqlStorage.PlayerRow(playerId, SqlStorage.GLOBAL_SCOPE, 10, 0, false);
+        // Keep the rows queued by letting their write fail
+        this.execute("ALTER TABLE gp_player_data RENAME TO gp_player_data_moved");
+        this.storage.queueClaim(createClaimRow(claimId, playerId, UUID.randomUUID()));
+        this.storage.queuePlayer(playerRow);
+        this.awaitFailedWrites();
+
+        assertSame(playerRow, this.readPlayer(playerId));
+        assertTrue(this.containsClaim(claimId));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claims"));
+    }
+
+    @Test
+    public void deletesClaims() throws IOException, SQLException {
+        final UUID claimId = UUID.randomUUID();
+        this.storage.queueClaim(createClaimRow(claimId, UUID.randomUUID(), UUID.randomUUID()));
+        this.storage.awaitWrites();
+        this.storage.queueClaimDelete(claimId);
+
+        assertFalse(this.storage.containsClaim(claimId));
+        assertNull(this.storage.readClaim(claimId));
+        this.storage.awaitWrites();
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claims"));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claim_trust"));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claim_economy"));
+    }
+
+    @Test
+    public void rollsBackAndRetriesFailedWrites() throws IOException, SQLException {
+        final UUID claimId = UUID.randomUUID();
+        final UUID playerId = UUID.randomUUID();
+        this.execute("ALTER TABLE gp_player_data RENAME TO gp_player_data_moved");
+        this.storage.queueClaim(createClaimRow(claimId, playerId, UUID.randomUUID()));
+        this.storage.queuePlayer(new SqlStorage.PlayerRow(playerId, SqlStorage.GLOBAL_SCOPE, 10, 0, false));
+        this.awaitFailedWrites();
+        // The claims were written in the same transaction as the failed player data
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claims"));
+        assertEquals(0, this.queryInt("SELECT COUNT(*) FROM gp_claim_trust"));
+
+        // A row queued after the failure replaces the one kept for the retry
+        this.storage.queuePlayer(new SqlStorage.PlayerRow(playerId, SqlStorage.GLOBAL_SCOPE, 30, 0, false));
+        this.execute("ALTER TABLE gp_player_data_moved RENAME TO gp_player_data");
+        this.storage.awaitWrites();
+        assertEquals(1, this.queryInt("SELECT COUNT(*) FROM gp_claims WHERE claim_id = '" + claimId + "'"));
+        assertEquals(30, this.queryInt("SELECT accrued_blocks FROM gp_player_data WHERE player_id = '" + playerId + "'"));
+    }
+
+    private static SqlStorage.ClaimRow createClaimRow(UUID claimId, UUID ownerId, UUID builderId) {
+        final ConfigurationNode claimNode = SimpleConfigurationNode.root();
+        claimNode.getNode(ClaimStorageData.MAIN_OWNER_UUID).setValue(ownerId.toString());
+        claimNode.getNode(ClaimStorageData.MAIN_CLAIM_TYPE).setValue("BASIC");
+        claimNode.getNode(ClaimStorageData.MAIN_LESSER_BOUNDARY_CORNER).setValue("-5;0;-5");
+        claimNode.getNode(ClaimStorageData.MAIN_GREATER_BOUNDARY_CORNER).setValue("5;255;5");
+        claimNode.getNode(ClaimStorageData.MAIN_BUILDERS).setValue(Collections.singletonList(builderId.toString()));
+        claimNode.getNode("economyData", ClaimStorageData.MAIN_CLAIM_FOR_SALE).setValue(true);
+        return new SqlStorage.ClaimRow(claimId, WORLD_ID, "claims/" + claimId, claimNode, "data " + claimId);
+    }
+
+    private void awaitFailedWrites() {
+        try {
+            this.storage.awaitWrites();
+            fail("Writing to a missing table succeeded");
+        } catch (IOException e) {
+            // expected, the rows stay queued
+        }
+    }
+
+    // Reads that must be answered from the queue, the database would fail them
+    private SqlStorage.PlayerRow readPlayer(UUID playerId) {
+        try {
+            return this.storage.readPlayer(playerId, SqlStorage.GLOBAL_SCOPE);
+        } catch (IOException e) {
+            throw new AssertionError("Queued player data was read from the database", e);
+        }
+    }
+
+    private boolean containsClaim(UUID claimId) {
+        try {
+            return this.storage.containsClaim(claimId);
+        } catch (IOException e) {
+            throw new AssertionError("Queued claim was read from the database", e);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = this.dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private int queryInt(String sql) throws SQLException {
+        try (Connection connection = this.dataSource.getConnection(); Statement statement = connection.createStatement();
+                ResultSet results = statement.executeQuery(sql)) {
+            assertTrue("No result for " + sql, results.next());
+            return results.getInt(1);
+        }
+    }
+
+    private String queryString(String sql) throws SQLException {
+        try (Connection connection = this.dataSource.getConnection(); Statement statement = connection.createStatement();
+                ResultSet results = statement.executeQuery(sql)) {
+            assertTrue("No result for " + sql, results.next());
+            return results.getString(1);
+        }
+    }
+}